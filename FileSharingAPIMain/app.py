@@ -1,11 +1,27 @@
-from flask import Flask, request, jsonify
+from flask import Flask, request, jsonify, send_file
 from flask_socketio import SocketIO, emit
 from pymongo import MongoClient
+from pymongo.errors import DuplicateKeyError
 import os
+import time
+import io
 import base64
+import hashlib
+import json
 import logging
+import threading
+import uuid
+import zlib
+from collections import deque
 from bson.objectid import ObjectId
 
+try:
+    from PIL import Image
+except ImportError:
+    # Pillow is in requirements.txt. Without it a thumbnail request gets the full image, without
+    # the X-Thumbnail-Edge header, so clients can tell and stop asking for thumbnails.
+    Image = None
+
 app = Flask(__name__)
 app.config['MAX_CONTENT_LENGTH'] = 32 * 1024 * 1024
 socketio = SocketIO(app)
@@ -17,6 +33,66 @@ MONGO_URI = "mongodb://localhost:27017/"
 mongo_client = MongoClient(MONGO_URI)
 db = mongo_client["GardenTest"]
 collection = db["inferenceData"]
+collection.create_index("upload_id", unique=True, sparse=True)
+collection.create_index([("location", 1), ("upload_time", -1)])
+
+# Every broadcast carries a sequence number and is kept in a short history, so a client that
+# reconnects can ask for what it missed. The epoch changes on restart, which invalidates
+# cursors from an earlier run.
+EVENT_HISTORY_SIZE = 1000
+EVENT_EPOCH = uuid.uuid4().hex
+event_history = deque(maxlen=EVENT_HISTORY_SIZE)
+event_lock = threading.Lock()
+event_seq = 0
+
+def emit_event(name, payload):
+    # Sent while holding the lock, so broadcasts leave in seq order and a replay's snapshot
+    # never misses one that is already numbered but not yet sent.
+    global event_seq
+    with event_lock:
+        event_seq += 1
+        payload = dict(payload, seq=event_seq, epoch=EVENT_EPOCH, ts=int(time.time() * 1000))
+        event_history.append((name, payload))
+        socketio.emit(name, payload)
+
+def find_existing_upload(upload_id):
+    if not upload_id:
+        return None
+    return collection.find_one({"upload_id": upload_id}, {"_id": 1, "location": 1})
+
+def store_upload(file_bytes, location, upload_id=None, capture_time=None, phash=None, encoding=None, quality=None):
+    # Callers check find_existing_upload first, but two retries of the same upload can both get
+    # past that check; the unique upload_id index lets only one insert through, and the other
+    # gets the document that won.
+    inference_data = {
+        "location": location,
+        "imageData": base64.b64encode(file_bytes).decode('utf-8'),
+        "upload_time": time.time(),
+        "processed": False
+    }
+    if upload_id:
+        inference_data["upload_id"] = upload_id
+    if capture_time:
+        inference_data["capture_time"] = int(capture_time)
+    if phash:
+        inference_data["phash"] = phash
+    # Client-side records of how the capture was encoded and how it scored on the quality gate.
+    for field, record in (("encoding", encoding), ("quality", quality)):
+        if record:
+            try:
+                inference_data[field] = json.loads(record) if isinstance(record, str) else record
+            except ValueError:
+                logger.warning(f"Ignoring malformed {field} record: {record}")
+    try:
+        result = collection.insert_one(inference_data)
+    except DuplicateKeyError:
+        document_id = str(find_existing_upload(upload_id)["_id"])
+        logger.info(f"Upload {upload_id} was stored concurrently as {document_id}")
+        return document_id
+    document_id = str(result.inserted_id)
+    logger.info(f"Saved inference data to MongoDB with ID: {document_id}")
+    emit_event('new_file', {'location': location, 'document_id': document_id})
+    return document_id
 
 @app.route('/upload', methods=['POST'])
 def upload_file():
@@ -32,25 +108,236 @@ def upload_file():
 
     try:
         location = request.form.get('location', 'Unknown')
-        file_bytes = file.read()
-        base64_image = base64.b64encode(file_bytes).decode('utf-8')
-
-        inference_data = {
-            "location": location,
-            "imageData": base64_image,
-            "upload_time": os.path.getctime(__file__),  # Replace with actual timestamp if needed
-            "processed": False
-        }
-        result = collection.insert_one(inference_data)
-        document_id = str(result.inserted_id)
-        logger.info(f"Saved inference data to MongoDB with ID: {document_id}")
+        upload_id = request.form.get('upload_id')
+        existing = find_existing_upload(upload_id)
+        if existing:
+            document_id = str(existing["_id"])
+            logger.info(f"Duplicate upload {upload_id}, already stored as {document_id}")
+            return {"message": "File uploaded successfully", "location": existing.get("location", location), "document_id": document_id}, 200
 
-        socketio.emit('new_file', {'location': location, 'document_id': document_id})
+        document_id = store_upload(file.read(), location, upload_id, request.form.get('capture_time'),
+                                   request.form.get('phash'), request.form.get('encoding'),
+                                   request.form.get('quality'))
         return {"message": "File uploaded successfully", "location": location, "document_id": document_id}, 200
     except Exception as e:
         logger.error(f"Error processing upload: {str(e)}")
         return {"error": f"Upload failed: {str(e)}"}, 500
 
+@app.route('/upload-batch', methods=['POST'])
+def upload_batch():
+    # Several captures in one multipart request: "files" parts in the same order as the JSON
+    # "items" field. Every item gets its own result, so one bad file doesn't fail the rest.
+    files = request.files.getlist('files')
+    try:
+        items = json.loads(request.form.get('items', '[]'))
+    except ValueError:
+        return {"error": "Malformed items"}, 400
+    if not files or len(files) != len(items):
+        logger.error(f"Batch has {len(files)} files for {len(items)} items")
+        return {"error": "Files and items do not match"}, 400
+
+    logger.info(f"Received batch of {len(items)} from {request.remote_addr}")
+    results = []
+    for file, item in zip(files, items):
+        upload_id = item.get('upload_id')
+        location = item.get('location', 'Unknown')
+        try:
+            existing = find_existing_upload(upload_id)
+            if existing:
+                results.append({"upload_id": upload_id, "document_id": str(existing["_id"]),
+                                "message": "File uploaded successfully"})
+                continue
+            if item.get('phash') and item.get('check_duplicate'):
+                match = find_similar(item['phash'], location, int(item.get('max_distance', 10)),
+                                     float(item.get('window', 600)))
+                if match:
+                    results.append({"upload_id": upload_id, "document_id": match[0], "duplicate": True,
+                                    "message": "Similar image already uploaded"})
+                    continue
+            document_id = store_upload(file.read(), location, upload_id, item.get('capture_time'),
+                                       item.get('phash'), item.get('encoding'), item.get('quality'))
+            results.append({"upload_id": upload_id, "document_id": document_id, "message": "File uploaded successfully"})
+        except Exception as e:
+            logger.error(f"Error processing batch item {upload_id}: {str(e)}")
+            results.append({"upload_id": upload_id, "error": str(e), "status": 500})
+    return jsonify({"results": results}), 200
+
+# Resumable uploads: the client opens a session keyed by its upload_id, sends the file in
+# chunks at explicit offsets with a CRC32 each, asks for the committed offset after a dropped
+# connection, and finishes the session to store the file. Sessions live on disk so they
+# survive a restart; abandoned ones are removed after UPLOAD_SESSION_TTL.
+UPLOAD_SESSION_DIR = "upload_sessions"
+UPLOAD_SESSION_TTL = 24 * 60 * 60
+MAX_UPLOAD_SIZE = 64 * 1024 * 1024
+upload_session_lock = threading.Lock()
+os.makedirs(UPLOAD_SESSION_DIR, exist_ok=True)
+
+def session_paths(session_id):
+    # upload_ids are client UUIDs; anything else could escape the session directory.
+    try:
+        session_id = str(uuid.UUID(session_id))
+    except (TypeError, ValueError):
+        return None
+    base = os.path.join(UPLOAD_SESSION_DIR, session_id)
+    return base + ".json", base + ".part"
+
+def load_session(session_id):
+    paths = session_paths(session_id)
+    if paths is None or not os.path.exists(paths[0]):
+        return None, paths
+    with open(paths[0]) as f:
+        return json.load(f), paths
+
+def expire_sessions():
+    cutoff = time.time() - UPLOAD_SESSION_TTL
+    for name in os.listdir(UPLOAD_SESSION_DIR):
+        path = os.path.join(UPLOAD_SESSION_DIR, name)
+        if os.path.getmtime(path) < cutoff:
+            os.remove(path)
+
+def create_session(meta):
+    # Reopening an existing session keeps its bytes as long as it describes the same file; the
+    # rest of the metadata (e.g. a corrected location) is taken from the latest request.
+    with upload_session_lock:
+        expire_sessions()
+        session, paths = load_session(meta.get("upload_id"))
+        if paths is None:
+            raise ValueError("upload_id must be a UUID")
+        if session and (session["size"] != meta["size"] or session["crc32"] != meta["crc32"]):
+            logger.info(f"Session {meta['upload_id']} restarted, file changed")
+            session = None
+        if session is None:
+            open(paths[1], "wb").close()
+        with open(paths[0], "w") as f:
+            json.dump(dict(meta, created=session["created"] if session else time.time()), f)
+        return os.path.getsize(paths[1])
+
+def append_chunk(session_id, offset, crc, data):
+    # Returns (status, committed offset). A chunk is only appended at the committed offset and
+    # when its CRC32 matches, so a retried or truncated chunk can never corrupt the file.
+    with upload_session_lock:
+        session, paths = load_session(session_id)
+        if session is None:
+            return 404, 0
+        committed = os.path.getsize(paths[1])
+        if offset != committed:
+            return 409, committed
+        if zlib.crc32(data) & 0xFFFFFFFF != crc:
+            return 422, committed
+        if committed + len(data) > session["size"]:
+            return 413, committed
+        with open(paths[1], "ab") as f:
+            f.write(data)
+            f.flush()
+            os.fsync(f.fileno())
+        return 200, committed + len(data)
+
+def read_session_file(session_id):
+    # Returns (session, file bytes, status): 200 once every byte is in and the whole-file CRC32
+    # matches, 409 while bytes are missing, 422 when the file is corrupt (the session is then
+    # discarded so the client starts over).
+    with upload_session_lock:
+        session, paths = load_session(session_id)
+        if session is None:
+            return None, None, 404
+        with open(paths[1], "rb") as f:
+            data = f.read()
+        if len(data) != session["size"]:
+            return session, None, 409
+        if zlib.crc32(data) & 0xFFFFFFFF != session["crc32"]:
+            logger.error(f"Session {session_id} failed its file checksum, discarding")
+            discard_session(paths)
+            return session, None, 422
+        return session, data, 200
+
+def discard_session(paths):
+    for path in paths:
+        if os.path.exists(path):
+            os.remove(path)
+
+@app.route('/upload-session', methods=['POST', 'GET'])
+def upload_session():
+    if request.method == 'GET':
+        session_id = request.args.get('id')
+        session, paths = load_session(session_id)
+        if session is None:
+            existing = find_existing_upload(session_id)
+            if existing:
+                return jsonify({"complete": True, "document_id": str(existing["_id"])}), 200
+            return jsonify({"error": "Unknown session"}), 404
+        return jsonify({"offset": os.path.getsize(paths[1]), "size": session["size"]}), 200
+
+    data = request.get_json(silent=True) or {}
+    upload_id = data.get('upload_id')
+    existing = find_existing_upload(upload_id)
+    if existing:
+        return jsonify({"complete": True, "document_id": str(existing["_id"])}), 200
+    try:
+        size = int(data.get('size', -1))
+        crc = int(data.get('crc32', -1))
+        if size <= 0 or size > MAX_UPLOAD_SIZE or crc < 0:
+            return jsonify({"error": "size and crc32 are required"}), 400
+        meta = {key: data.get(key) for key in ("upload_id", "location", "capture_time", "phash")}
+        for key in ("encoding", "quality"):
+            if data.get(key) is not None:
+                meta[key] = data[key] if isinstance(data[key], str) else json.dumps(data[key])
+        meta.update(size=size, crc32=crc)
+        offset = create_session(meta)
+        logger.info(f"Upload session {upload_id} open at {offset}/{size}")
+        return jsonify({"offset": offset, "size": size}), 200
+    except ValueError as e:
+        return jsonify({"error": str(e)}), 400
+    except Exception as e:
+        logger.error(f"Error opening upload session: {str(e)}")
+        return jsonify({"error": str(e)}), 500
+
+@app.route('/upload-chunk', methods=['POST'])
+def upload_chunk():
+    try:
+        session_id = request.args.get('id')
+        offset = int(request.args.get('offset', -1))
+        crc = int(request.args.get('crc32', -1))
+        status, committed = append_chunk(session_id, offset, crc, request.get_data(cache=False))
+        if status != 200:
+            logger.warning(f"Chunk for {session_id} at {offset} rejected ({status}), committed {committed}")
+        return jsonify({"offset": committed}), status
+    except ValueError:
+        return jsonify({"error": "offset and crc32 must be integers"}), 400
+    except Exception as e:
+        logger.error(f"Error storing chunk: {str(e)}")
+        return jsonify({"error": str(e)}), 500
+
+def finished_upload(existing):
+    return {"message": "File uploaded successfully", "location": existing.get("location"),
+            "document_id": str(existing["_id"])}, 200
+
+@app.route('/upload-finish', methods=['POST'])
+def upload_finish():
+    # Idempotent: a retried or concurrent finish of a stored session gets the stored document.
+    session_id = (request.get_json(silent=True) or {}).get('id')
+    existing = find_existing_upload(session_id)
+    if existing:
+        return finished_upload(existing)
+    try:
+        session, file_bytes, status = read_session_file(session_id)
+        if status == 404:
+            # Another finish may have stored it and discarded the session in the meantime.
+            existing = find_existing_upload(session_id)
+            if existing:
+                return finished_upload(existing)
+            return jsonify({"error": "Unknown session"}), 404
+        if status != 200:
+            return jsonify({"error": "Upload incomplete" if status == 409 else "Checksum mismatch"}), status
+        location = session.get('location') or 'Unknown'
+        document_id = store_upload(file_bytes, location, session_id, session.get('capture_time'),
+                                   session.get('phash'), session.get('encoding'), session.get('quality'))
+        with upload_session_lock:
+            discard_session(session_paths(session_id))
+        return {"message": "File uploaded successfully", "location": location, "document_id": document_id}, 200
+    except Exception as e:
+        logger.error(f"Error finishing upload {session_id}: {str(e)}")
+        return jsonify({"error": f"Upload failed: {str(e)}"}), 500
+
 @app.route('/get-inference-count', methods=['GET'])
 def get_inference_count():
     try:
@@ -61,35 +348,233 @@ def get_inference_count():
         logger.error(f"Error fetching count: {str(e)}")
         return jsonify({"error": str(e)}), 500
 
+MAX_HASH_CANDIDATES = 200
+
+def find_similar(phash, location, max_distance, window):
+    # Nearest recent capture at this location by Hamming distance between 64-bit perceptual
+    # hashes (hex), as (document_id, distance), or None.
+    target = int(phash, 16)
+    query = {"location": location, "phash": {"$exists": True}, "upload_time": {"$gte": time.time() - window}}
+    candidates = collection.find(query, {"_id": 1, "phash": 1}).sort("upload_time", -1).limit(MAX_HASH_CANDIDATES)
+    best = None
+    for doc in candidates:
+        distance = bin(target ^ int(doc["phash"], 16)).count('1')
+        if distance <= max_distance and (best is None or distance < best[1]):
+            best = (str(doc["_id"]), distance)
+    return best
+
+@app.route('/check-hash', methods=['GET'])
+def check_hash():
+    # Answers "has a near-identical capture of this location been stored recently?"
+    try:
+        phash = request.args.get('hash')
+        if not phash:
+            return jsonify({"error": "No hash provided"}), 400
+        location = request.args.get('location', 'Unknown')
+        best = find_similar(phash, location, int(request.args.get('max_distance', 10)),
+                            float(request.args.get('window', 600)))
+        if best is None:
+            return jsonify({"duplicate": False}), 200
+        logger.info(f"Hash {phash} at {location} matches {best[0]} (distance {best[1]})")
+        return jsonify({"duplicate": True, "document_id": best[0], "distance": best[1]}), 200
+    except Exception as e:
+        logger.error(f"Error checking hash: {str(e)}")
+        return jsonify({"error": str(e)}), 500
+
+@app.route('/update-location', methods=['POST'])
+def update_location():
+    # Clients upload with a cached or provisional locality and correct it once geocoded.
+    try:
+        data = request.get_json(silent=True) or request.form
+        document_id = data.get('document_id')
+        location = data.get('location')
+        if not document_id or not location or not ObjectId.is_valid(document_id):
+            return jsonify({"error": "document_id and location are required"}), 400
+        result = collection.update_one({"_id": ObjectId(document_id)}, {"$set": {"location": location}})
+        if result.matched_count == 0:
+            return jsonify({"error": "Document not found"}), 404
+        logger.info(f"Location of {document_id} set to {location}")
+        emit_event('location_updated', {'document_id': document_id, 'location': location})
+        return jsonify({"message": "Location updated"}), 200
+    except Exception as e:
+        logger.error(f"Error updating location: {str(e)}")
+        return jsonify({"error": str(e)}), 500
+
+# Cache policies. A record can change after processing too (/update-location), so items are
+# always revalidated; the ETag is over the whole body, so any change gives a 200. List pages may
+# be shown from cache while being revalidated.
+CACHE_REVALIDATE = "no-cache"
+CACHE_LIST_PAGE = "max-age=0, stale-while-revalidate=300"
+
+def cacheable_json(payload, cache_control):
+    # ETag over the body, so a client whose copy still matches gets an empty 304 instead.
+    response = jsonify(payload)
+    response.set_etag(hashlib.sha1(response.get_data()).hexdigest()[:20])
+    response.headers['Cache-Control'] = cache_control
+    response = response.make_conditional(request)
+    if response.status_code == 304:
+        logger.info(f"Not modified: {request.full_path}")
+    return response
+
+BATCH_PROJECTION = {"_id": 1, "location": 1, "upload_time": 1, "processed": 1, "summary": 1}
+MAX_BATCH_LIMIT = 500
+MAX_LOOKAHEAD = 16
+
+# A jump to an arbitrary row (start=) is resolved without skip(), which walks every document
+# before the offset. Every BATCH_MARK_STRIDE-th _id is kept in memory instead, from one _id-only
+# index scan that is extended as records arrive (always at the end of the _id order), so a jump
+# walks at most BATCH_MARK_STRIDE index keys from the nearest mark. A collection smaller than the
+# marks were built for has lost records, and the marks are rebuilt.
+BATCH_MARK_STRIDE = 1000
+batch_marks = []
+batch_marks_count = 0
+batch_marks_lock = threading.Lock()
+
+def extend_batch_marks(count):
+    global batch_marks, batch_marks_count
+    if count < batch_marks_count:
+        batch_marks, batch_marks_count = [], 0
+    if count <= batch_marks_count:
+        return
+    position = (len(batch_marks) - 1) * BATCH_MARK_STRIDE if batch_marks else 0
+    query = {"_id": {"$gte": batch_marks[-1]}} if batch_marks else {}
+    for doc in collection.find(query, {"_id": 1}).sort("_id", 1):
+        if position == len(batch_marks) * BATCH_MARK_STRIDE:
+            batch_marks.append(doc["_id"])
+        position += 1
+    batch_marks_count = position
+
+def seek_position(start):
+    # The _id at position start - 1, to page after; None for position 0. Returns False when
+    # start is past the end.
+    if start <= 0:
+        return None
+    target = start - 1
+    with batch_marks_lock:
+        extend_batch_marks(collection.estimated_document_count())
+        mark = target // BATCH_MARK_STRIDE
+        if mark >= len(batch_marks):
+            return False
+        mark_id = batch_marks[mark]
+    walk = target - mark * BATCH_MARK_STRIDE
+    ids = list(collection.find({"_id": {"$gte": mark_id}}, {"_id": 1}).sort("_id", 1).limit(walk + 1))
+    return ids[-1]["_id"] if len(ids) == walk + 1 else False
+
 @app.route('/get-inference-batch', methods=['GET'])
 def get_inference_batch():
     try:
-        start = int(request.args.get('start', 0))
-        limit = int(request.args.get('limit', 10))
-        items = list(collection.find({}, {"_id": 1, "location": 1, "upload_time": 1}).skip(start).limit(limit))
+        limit = min(int(request.args.get('limit', 10)), MAX_BATCH_LIMIT)
+        after = request.args.get('after')
+        # count=1 adds the collection size, for clients that show placeholders for unloaded rows.
+        extra = {"total": collection.estimated_document_count()} if request.args.get('count') else {}
+        after_id = ObjectId(after) if after else None
+        if after is None and 'start' in request.args:
+            # Positional page (a jump to an arbitrary row), turned into a keyset page after the
+            # record just before it.
+            after_id = seek_position(int(request.args.get('start', 0)))
+
+        # Keyset pagination on _id. When "ahead" is given, also return the cursors of the
+        # following pages (every "stride" ids, from an _id-only index scan) so the client
+        # can request them in parallel instead of one round trip at a time.
+        ahead = min(int(request.args.get('ahead', 0)), MAX_LOOKAHEAD)
+        stride = min(int(request.args.get('stride', limit)), MAX_BATCH_LIMIT)
+        if after_id is False:
+            items = []
+        else:
+            query = {"_id": {"$gt": after_id}} if after_id else {}
+            items = list(collection.find(query, BATCH_PROJECTION).sort("_id", 1).limit(limit))
+
+        cursors = []
+        if ahead > 0 and len(items) == limit:
+            last_id = items[-1]["_id"]
+            cursors.append(str(last_id))
+            if ahead > 1:
+                ids = collection.find({"_id": {"$gt": last_id}}, {"_id": 1}).sort("_id", 1).limit(stride * (ahead - 1))
+                for position, doc in enumerate(ids, 1):
+                    if position % stride == 0:
+                        cursors.append(str(doc["_id"]))
+
         for item in items:
-            item["_id"] = str(item["_id"])  # Convert ObjectId to string
-        logger.info(f"Returning batch: start={start}, limit={limit}, items={len(items)}")
-        return jsonify({"items": items}), 200
+            item["_id"] = str(item["_id"])
+        logger.info(f"Returning batch: after={after}, start={request.args.get('start')}, limit={limit}, "
+                    f"items={len(items)}, cursors={len(cursors)}")
+        return cacheable_json({"items": items, "cursors": cursors, **extra}, CACHE_LIST_PAGE)
     except Exception as e:
         logger.error(f"Error fetching batch: {str(e)}")
         return jsonify({"error": str(e)}), 500
 
+IMAGE_FIELDS = ("image", "imageData")
+MAX_THUMBNAIL_EDGE = 1024
+
+def make_thumbnail(image_bytes, edge):
+    # JPEG draft mode lets the decoder scale by 1/2..1/8 while decoding, so a thumbnail costs a
+    # fraction of a full decode.
+    with Image.open(io.BytesIO(image_bytes)) as img:
+        img.draft('RGB', (edge, edge))
+        img = img.convert('RGB')
+        img.thumbnail((edge, edge))
+        out = io.BytesIO()
+        img.save(out, format='JPEG', quality=80)
+        return out.getvalue()
+
 @app.route('/get-inference-item', methods=['GET'])
 def get_inference_item():
     try:
         item_id = request.args.get('id')
         if not item_id:
             return jsonify({"error": "No id provided"}), 400
-        item = collection.find_one({"_id": ObjectId(item_id)}, {"_id": 0})
+        projection = {"_id": 0}
+        if request.args.get('fields') == 'meta':
+            projection.update({field: 0 for field in IMAGE_FIELDS})
+        item = collection.find_one({"_id": ObjectId(item_id)}, projection)
         if not item:
             return jsonify({"error": "Item not found"}), 404
         logger.info(f"Returning item with id: {item_id}")
-        return jsonify({"item": item}), 200
+        return cacheable_json({"item": item}, CACHE_REVALIDATE)
     except Exception as e:
         logger.error(f"Error fetching item: {str(e)}")
         return jsonify({"error": str(e)}), 500
 
+@app.route('/get-inference-image', methods=['GET'])
+def get_inference_image():
+    try:
+        item_id = request.args.get('id')
+        if not item_id:
+            return jsonify({"error": "No id provided"}), 400
+        variant = request.args.get('variant')
+        if variant is not None and variant not in IMAGE_FIELDS:
+            return jsonify({"error": f"Unknown variant: {variant}"}), 400
+        fields = (variant,) if variant else IMAGE_FIELDS
+        item = collection.find_one({"_id": ObjectId(item_id)}, {field: 1 for field in fields})
+        if not item:
+            return jsonify({"error": "Item not found"}), 404
+        served = next((field for field in fields if item.get(field)), None)
+        if served is None:
+            return jsonify({"error": "No image data"}), 404
+
+        # Raw image bytes instead of base64-in-JSON; send_file handles If-None-Match and Range.
+        image_bytes = base64.b64decode(item[served])
+        mimetype = 'image/webp' if image_bytes[:4] == b'RIFF' and image_bytes[8:12] == b'WEBP' else 'image/jpeg'
+        etag = f"{item_id}-{served}"
+        edge = request.args.get('w', type=int)
+        if edge and Image is not None:
+            edge = max(16, min(edge, MAX_THUMBNAIL_EDGE))
+            image_bytes = make_thumbnail(image_bytes, edge)
+            mimetype = 'image/jpeg'
+            etag = f"{etag}-w{edge}"
+        else:
+            edge = None
+        response = send_file(io.BytesIO(image_bytes), mimetype=mimetype,
+                             etag=etag, conditional=True, max_age=0)
+        response.headers['X-Image-Variant'] = served
+        if edge:
+            response.headers['X-Thumbnail-Edge'] = str(edge)
+        logger.info(f"Returning {served} image for id: {item_id}")
+        return response
+    except Exception as e:
+        logger.error(f"Error fetching image: {str(e)}")
+        return jsonify({"error": str(e)}), 500
+
 @socketio.on('connect')
 def handle_connect():
     logger.info("Client connected via Socket.IO")
@@ -98,5 +583,26 @@ def handle_connect():
 def handle_disconnect():
     logger.info("Client disconnected from Socket.IO")
 
+@socketio.on('replay')
+def handle_replay(data):
+    # Resends the events after the client's cursor, or 'replay_gap' when they are no longer
+    # all held (or the cursor is from before a restart). Always ends with the current cursor.
+    data = data or {}
+    after = data.get('after')
+    with event_lock:
+        history = list(event_history)
+        current = event_seq
+    if after is not None:
+        after = int(after)
+        if data.get('epoch') != EVENT_EPOCH or (history and history[0][1]['seq'] > after + 1):
+            logger.info(f"Replay after {after} not possible, sending gap")
+            emit('replay_gap', {'epoch': EVENT_EPOCH, 'seq': current})
+        else:
+            missed = [(name, payload) for name, payload in history if payload['seq'] > after]
+            logger.info(f"Replaying {len(missed)} events after {after}")
+            for name, payload in missed:
+                emit(name, payload)
+    emit('cursor', {'epoch': EVENT_EPOCH, 'seq': current})
+
 if __name__ == '__main__':
     socketio.run(app, host="0.0.0.0", port=5000, debug=True)
\ No newline at end of file
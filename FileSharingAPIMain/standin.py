@@ -0,0 +1,547 @@
+# Runs app.py without a MongoDB server: the collection is swapped for an in-memory stand-in
+# seeded with sample records, so the Android client can be pointed at a development machine
+#     python3 standin.py [--port 5000] [--records 300]
+# and the HTTP caching paths (ETag revalidation of records, including after a location change,
+# list pages served stale while revalidating, thumbnails), list paging by cursor and by position,
+# single and batched uploads retried by
+# the client's queue, and resumable upload sessions under dropped connections can be checked end
+# to end with
+#     python3 standin.py --check
+# Needs the same packages as app.py (Flask, Flask-SocketIO, pymongo for bson).
+import argparse
+import base64
+import contextlib
+import io
+import json
+import random
+import os
+import struct
+import sys
+import threading
+import time
+import uuid
+import zlib
+
+import pymongo
+from bson.objectid import ObjectId
+from pymongo.errors import DuplicateKeyError
+
+LOCATIONS = ["Gate A", "Gate B", "Depot", "Harbour", "Market Square"]
+CLASSES = ["Garbage", "Tilted_Bin", "Upright_Bin"]
+
+
+def matches(doc, query):
+    for field, condition in query.items():
+        value = doc.get(field)
+        if isinstance(condition, dict):
+            for op, operand in condition.items():
+                if op == "$exists":
+                    if (field in doc) != operand:
+                        return False
+                elif value is None:
+                    return False
+                elif op == "$gt" and not value > operand:
+                    return False
+                elif op == "$gte" and not value >= operand:
+                    return False
+        elif value != condition:
+            return False
+    return True
+
+
+def project(doc, projection):
+    if not projection:
+        return dict(doc)
+    included = {field for field, flag in projection.items() if flag and field != "_id"}
+    if included:
+        result = {field: doc[field] for field in included if field in doc}
+    else:
+        result = {field: value for field, value in doc.items() if projection.get(field, 1)}
+    if projection.get("_id", 1):
+        result["_id"] = doc["_id"]
+    else:
+        result.pop("_id", None)
+    return result
+
+
+class MemoryCursor:
+    def __init__(self, docs, projection):
+        self.docs = docs
+        self.projection = projection
+        self.skipped = 0
+        self.limited = None
+
+    def sort(self, field, direction=1):
+        self.docs = sorted(self.docs, key=lambda doc: doc.get(field), reverse=direction < 0)
+        return self
+
+    def skip(self, count):
+        self.skipped = count
+        return self
+
+    def limit(self, count):
+        self.limited = count or None
+        return self
+
+    def __iter__(self):
+        end = self.skipped + self.limited if self.limited else None
+        return iter([project(doc, self.projection) for doc in self.docs[self.skipped:end]])
+
+
+class UpdateResult:
+    def __init__(self, matched_count):
+        self.matched_count = matched_count
+
+
+class InsertResult:
+    def __init__(self, inserted_id):
+        self.inserted_id = inserted_id
+
+
+class MemoryCollection:
+    def __init__(self):
+        self.docs = []
+        # Stands in for the unique upload_id index, which MongoDB checks atomically.
+        self.insert_lock = threading.Lock()
+
+    def create_index(self, *args, **kwargs):
+        pass
+
+    def find(self, query=None, projection=None):
+        return MemoryCursor([doc for doc in self.docs if matches(doc, query or {})], projection)
+
+    def find_one(self, query=None, projection=None):
+        for doc in self.docs:
+            if matches(doc, query or {}):
+                return project(doc, projection)
+        return None
+
+    def insert_one(self, doc):
+        with self.insert_lock:
+            if doc.get("upload_id") and self.find_one({"upload_id": doc["upload_id"]}):
+                raise DuplicateKeyError("upload_id")
+            doc.setdefault("_id", ObjectId())
+            self.docs.append(doc)
+            return InsertResult(doc["_id"])
+
+    def update_one(self, query, update):
+        for doc in self.docs:
+            if matches(doc, query):
+                doc.update(update.get("$set", {}))
+                return UpdateResult(1)
+        return UpdateResult(0)
+
+    def count_documents(self, query):
+        return sum(1 for doc in self.docs if matches(doc, query))
+
+    def estimated_document_count(self):
+        return len(self.docs)
+
+
+class MemoryDatabase(dict):
+    def __missing__(self, name):
+        self[name] = MemoryCollection()
+        return self[name]
+
+
+class MemoryClient(dict):
+    def __init__(self, *args, **kwargs):
+        super().__init__()
+
+    def __missing__(self, name):
+        self[name] = MemoryDatabase()
+        return self[name]
+
+
+pymongo.MongoClient = MemoryClient
+import app  # noqa: E402 (must follow the patch above)
+
+
+def png(width, height, seed):
+    # A diagonal gradient, tinted per record so images are told apart on screen.
+    tint = random.Random(seed)
+    base = [tint.randrange(256) for _ in range(3)]
+    rows = bytearray()
+    for y in range(height):
+        rows.append(0)
+        for x in range(width):
+            shade = (x + y) * 255 // (width + height)
+            rows.extend((channel + shade) % 256 for channel in base)
+
+    def chunk(kind, data):
+        return struct.pack(">I", len(data)) + kind + data + struct.pack(">I", zlib.crc32(kind + data))
+
+    return (b"\x89PNG\r\n\x1a\n" + chunk(b"IHDR", struct.pack(">IIBBBBB", width, height, 8, 2, 0, 0, 0))
+            + chunk(b"IDAT", zlib.compress(bytes(rows), 6)) + chunk(b"IEND", b""))
+
+
+def seed(count):
+    # Oldest first, as _ids are ascending in upload order. The newest fifth is left unprocessed.
+    rng = random.Random(42)
+    now = time.time()
+    images = [base64.b64encode(png(320, 240, i)).decode("ascii") for i in range(16)]
+    for i in range(count):
+        image = images[i % len(images)]
+        doc = {
+            "_id": ObjectId(),
+            "location": rng.choice(LOCATIONS),
+            "upload_time": now - (count - i) * 3600 * rng.uniform(0.5, 1.5),
+            "imageData": image,
+            "processed": i < count * 4 // 5,
+        }
+        if doc["processed"]:
+            summary = {name: rng.randrange(5) for name in CLASSES}
+            doc["summary"] = summary
+            doc["detected_objects"] = ", ".join(name for name, n in summary.items() if n)
+            doc["image"] = image
+        app.collection.insert_one(doc)
+
+
+def check():
+    client = app.app.test_client()
+    failures = []
+
+    def expect(label, condition):
+        print(("ok    " if condition else "FAIL  ") + label)
+        if not condition:
+            failures.append(label)
+
+    check_caching(client, expect)
+    check_paging(client, expect)
+    check_upload(client, expect)
+    check_upload_batch(client, expect)
+    check_batch_throughput(client, expect)
+    check_hash(client, expect)
+    check_upload_sessions(client, expect)
+    return not failures
+
+
+def check_caching(client, expect):
+    saved = 0
+
+    def revalidate(label, url, response):
+        nonlocal saved
+        again = client.get(url, headers={"If-None-Match": response.headers["ETag"]})
+        expect(label + ": 304 with an empty body", again.status_code == 304 and not again.data)
+        if again.status_code == 304:
+            saved += len(response.data)
+
+    processed = app.collection.find_one({"processed": True})
+    pending = app.collection.find_one({"processed": False})
+
+    url = f"/get-inference-item?id={processed['_id']}&fields=meta"
+    first = client.get(url)
+    expect("processed item: 200 with an ETag", first.status_code == 200 and "ETag" in first.headers)
+    expect("processed item: always revalidated", first.headers.get("Cache-Control") == "no-cache")
+    revalidate("processed item", url, first)
+    moved = client.post("/update-location", json={"document_id": str(processed["_id"]), "location": "Harbour East"})
+    relocated = client.get(url, headers={"If-None-Match": first.headers["ETag"]})
+    expect("processed item moved since: 200 with a new ETag",
+           moved.status_code == 200 and relocated.status_code == 200
+           and relocated.headers["ETag"] != first.headers["ETag"])
+
+    url = f"/get-inference-item?id={pending['_id']}&fields=meta"
+    first = client.get(url)
+    expect("unprocessed item: always revalidated", first.headers.get("Cache-Control") == "no-cache")
+    revalidate("unprocessed item", url, first)
+    app.collection.update_one({"_id": pending["_id"]}, {"$set": {"processed": True, "summary": {"Garbage": 1}}})
+    changed = client.get(url, headers={"If-None-Match": first.headers["ETag"]})
+    expect("item processed since: 200 with a new ETag",
+           changed.status_code == 200 and changed.headers["ETag"] != first.headers["ETag"])
+
+    url = "/get-inference-batch?limit=100&count=1"
+    first = client.get(url)
+    expect("list page: stale-while-revalidate", "stale-while-revalidate" in first.headers.get("Cache-Control", ""))
+    revalidate("list page", url, first)
+    app.store_upload(png(64, 48, 0), "Depot")
+    grown = client.get(url, headers={"If-None-Match": first.headers["ETag"]})
+    expect("list page after an upload: 200 (total changed)", grown.status_code == 200)
+
+    url = f"/get-inference-image?id={processed['_id']}&variant=image&w=320"
+    first = client.get(url)
+    expect("thumbnail: 200", first.status_code == 200)
+    # Clients skip thumbnail prefetches when a reply isn't marked as scaled.
+    expect("thumbnail: X-Thumbnail-Edge only when scaled",
+           first.headers.get("X-Thumbnail-Edge") == (None if app.Image is None else "320"))
+    revalidate("thumbnail", url, first)
+    if app.Image is None:
+        print("note  Pillow not installed, thumbnails are served full size")
+
+    print(f"{saved} bytes saved by 304s")
+
+
+def check_paging(client, expect):
+    # Jumps (start=) must land on the same records as walking the keyset pages, through the
+    # in-memory _id marks rather than skip(). A small mark stride puts several marks in range.
+    app.BATCH_MARK_STRIDE = 7
+    app.batch_marks, app.batch_marks_count = [], 0
+    ids = [str(doc["_id"]) for doc in app.collection.find({}, {"_id": 1}).sort("_id", 1)]
+
+    def page(query):
+        body = client.get("/get-inference-batch?" + query).get_json()
+        return [item["_id"] for item in body["items"]], body.get("cursors", [])
+
+    jumps = [0, 1, 6, 7, 8, 13, 14, len(ids) - 3, len(ids) - 1]
+    expect("paging: start= lands on the record at that position",
+           all(page(f"start={start}&limit=5")[0] == ids[start:start + 5] for start in jumps))
+    expect("paging: start= past the end is empty", page(f"start={len(ids) + 5}&limit=5")[0] == [])
+    items, cursors = page("start=3&limit=4&ahead=3&stride=4")
+    expect("paging: a jump returns the cursors of the pages after it",
+           items == ids[3:7] and cursors == [ids[6], ids[10], ids[14]])
+    following = [page(f"after={cursor}&limit=4")[0] for cursor in cursors]
+    expect("paging: cursors continue where the jump ended", following == [ids[7:11], ids[11:15], ids[15:19]])
+    walked = []
+    items, cursors = page("limit=6&ahead=2&stride=6")
+    while items:
+        walked += items
+        items, cursors = page(f"after={walked[-1]}&limit=6")
+    expect("paging: keyset pages walk every record once, in _id order", walked == ids)
+    app.store_upload(png(64, 48, 1), "Depot")
+    newest = str(next(iter(app.collection.find({}, {"_id": 1}).sort("_id", -1).limit(1)))["_id"])
+    expect("paging: marks extended for records added since", page(f"start={len(ids)}&limit=5")[0] == [newest])
+    expect("paging: marks cover the collection with one id per stride",
+           len(app.batch_marks) == (len(ids) + 1 + 6) // 7 and str(app.batch_marks[1]) == ids[7])
+    app.BATCH_MARK_STRIDE = 1000
+    app.batch_marks, app.batch_marks_count = [], 0
+
+
+def check_upload(client, expect):
+    # The upload queue resends an entry whose response it never saw, so a repeated upload_id
+    # must come back as the document already stored.
+    data = png(64, 48, 7)
+    upload_id = str(uuid.uuid4())
+
+    def upload(fields):
+        form = {"file": (io.BytesIO(data), "capture.jpg"), "location": "Gate A", "upload_id": upload_id}
+        form.update(fields)
+        return client.post("/upload", data=form)
+
+    first = upload({"capture_time": "1700000000000"})
+    body = first.get_json()
+    stored = app.collection.find_one({"upload_id": upload_id})
+    expect("upload: 200 with the stored document id",
+           first.status_code == 200 and stored is not None and body.get("document_id") == str(stored["_id"]))
+    expect("upload: bytes, location and capture time stored",
+           base64.b64decode(stored["imageData"]) == data and stored["location"] == "Gate A"
+           and stored["capture_time"] == 1700000000000 and stored["processed"] is False)
+    app.collection.update_one({"_id": stored["_id"]}, {"$set": {"location": "Gate B"}})
+    again = upload({})
+    expect("upload: resend answered with the same document and its current location",
+           again.status_code == 200 and again.get_json().get("document_id") == str(stored["_id"])
+           and again.get_json().get("location") == "Gate B")
+    expect("upload: resend stored nothing new", app.collection.count_documents({"upload_id": upload_id}) == 1)
+    # Two retries in flight at once can both miss the lookup; the second then loses the insert.
+    with lookup_race():
+        raced = upload({})
+    expect("upload: resend that raced the first insert answered with the same document",
+           raced.status_code == 200 and raced.get_json().get("document_id") == str(stored["_id"])
+           and app.collection.count_documents({"upload_id": upload_id}) == 1)
+    expect("upload: no file part is 400", client.post("/upload", data={"location": "Gate A"}).status_code == 400)
+    expect("upload: empty file name is 400",
+           client.post("/upload", data={"file": (io.BytesIO(data), "")}).status_code == 400)
+
+
+def check_upload_batch(client, expect):
+    # A drain sends up to 8 entries per request. Entries already stored come back with their
+    # document, and an entry flagged check_duplicate is dropped when a near-identical capture of
+    # the same location is already stored.
+    captures = [png(64, 48, 20 + i) for i in range(3)]
+    ids = [str(uuid.uuid4()) for _ in captures]
+
+    def batch(entries):
+        items = [dict({"upload_id": upload_id, "location": "Depot"}, **fields) for upload_id, _, fields in entries]
+        files = [(io.BytesIO(data), f"capture{i}.jpg") for i, (_, data, _) in enumerate(entries)]
+        return client.post("/upload-batch", data={"files": files, "items": json.dumps(items)})
+
+    first = batch([(ids[0], captures[0], {"phash": "00000000000000ff"}), (ids[1], captures[1], {})])
+    results = first.get_json().get("results", [])
+    stored = [app.collection.find_one({"upload_id": upload_id}) for upload_id in ids[:2]]
+    expect("batch: one result per item, in order, each with its stored document",
+           first.status_code == 200 and None not in stored
+           and [r.get("document_id") for r in results] == [str(doc["_id"]) for doc in stored])
+    expect("batch: each file stored with its own bytes",
+           [base64.b64decode(doc["imageData"]) for doc in stored] == captures[:2])
+
+    near = {"phash": "00000000000000fe", "check_duplicate": True}
+    again = batch([(ids[1], captures[1], {}), (ids[2], captures[2], near)])
+    results = again.get_json().get("results", [])
+    expect("batch: resent item answered with the document already stored",
+           len(results) == 2 and results[0].get("document_id") == str(stored[1]["_id"])
+           and app.collection.count_documents({"upload_id": ids[1]}) == 1)
+    expect("batch: near-duplicate of the same location dropped and matched",
+           len(results) == 2 and results[1].get("duplicate") is True
+           and results[1].get("document_id") == str(stored[0]["_id"])
+           and app.collection.find_one({"upload_id": ids[2]}) is None)
+    elsewhere = batch([(ids[2], captures[2], dict(near, location="Harbour"))])
+    expect("batch: the same hash at another location is stored",
+           elsewhere.get_json()["results"][0].get("duplicate") is None
+           and app.collection.count_documents({"upload_id": ids[2]}) == 1)
+
+    with lookup_race():
+        raced = batch([(ids[0], captures[0], {})])
+    expect("batch: resend that raced the first insert answered with the same document",
+           raced.get_json()["results"][0].get("document_id") == str(stored[0]["_id"])
+           and app.collection.count_documents({"upload_id": ids[0]}) == 1)
+    expect("batch: files and items that don't match are 400",
+           client.post("/upload-batch", data={"files": [(io.BytesIO(captures[0]), "a.jpg")],
+                                              "items": "[]"}).status_code == 400)
+
+
+def check_batch_throughput(client, expect, count=8):
+    # The same captures sent the way a burst drains (one /upload-batch of up to 8) and one
+    # /upload each. Over the test client this measures only the per-request server cost; on a
+    # phone every single upload also pays its own round trip.
+    captures = [png(320, 240, 40 + i) for i in range(count)]
+
+    def batch():
+        items = [{"upload_id": str(uuid.uuid4()), "location": "Depot"} for _ in captures]
+        files = [(io.BytesIO(data), f"capture{i}.jpg") for i, data in enumerate(captures)]
+        response = client.post("/upload-batch", data={"files": files, "items": json.dumps(items)})
+        return [result.get("document_id") for result in response.get_json()["results"]]
+
+    def singles():
+        return [client.post("/upload", data={"file": (io.BytesIO(data), "capture.jpg"), "location": "Depot",
+                                             "upload_id": str(uuid.uuid4())}).get_json().get("document_id")
+                for data in captures]
+
+    timings = {}
+    for label, send in (("batch", batch), ("single", singles)):
+        started = time.perf_counter()
+        ids = send()
+        timings[label] = (time.perf_counter() - started) * 1000
+        expect(f"throughput: {count} captures stored by {label} upload",
+               None not in ids and len(set(ids)) == count)
+    print(f"{count} captures: one batch {timings['batch']:.1f} ms, {count} single uploads {timings['single']:.1f} ms")
+
+
+def check_hash(client, expect):
+    # The client asks before uploading whether a near-identical capture of the same location
+    # was stored in the last few minutes. Hashes are 64-bit hex; near means a small Hamming
+    # distance.
+    stored = app.store_upload(png(64, 48, 60), "Market Square", phash="f0f0f0f0f0f0f0f0")
+    stale = app.store_upload(png(64, 48, 61), "Market Square", phash="0123456789abcdef")
+    app.collection.update_one({"_id": ObjectId(stale)}, {"$set": {"upload_time": time.time() - 3600}})
+
+    def ask(phash, location="Market Square", **params):
+        query = "&".join(f"{key}={value}" for key, value in dict(params, hash=phash, location=location).items())
+        return client.get("/check-hash?" + query.replace(" ", "%20")).get_json()
+
+    seen = ask("f0f0f0f0f0f0f0f0")
+    expect("check-hash: stored hash seen at distance 0",
+           seen.get("duplicate") is True and seen.get("document_id") == stored and seen.get("distance") == 0)
+    near = ask("f0f0f0f0f0f0f0f3")
+    expect("check-hash: hash 2 bits away seen", near.get("duplicate") is True and near.get("distance") == 2)
+    expect("check-hash: near hash unseen under a tighter max_distance",
+           ask("f0f0f0f0f0f0f0f3", max_distance=1).get("duplicate") is False)
+    expect("check-hash: unseen hash", ask("0f0f0f0f0f0f0f0f").get("duplicate") is False)
+    expect("check-hash: same hash at another location unseen",
+           ask("f0f0f0f0f0f0f0f0", location="Gate A").get("duplicate") is False)
+    expect("check-hash: capture older than the window unseen", ask("0123456789abcdef").get("duplicate") is False)
+    expect("check-hash: older capture seen with a longer window",
+           ask("0123456789abcdef", window=7200).get("document_id") == stale)
+    expect("check-hash: no hash is 400", client.get("/check-hash?location=Depot").status_code == 400)
+
+
+@contextlib.contextmanager
+def lookup_race():
+    # Makes the handler's first lookup miss the stored upload, as a concurrent retry does when
+    # it looks between the other request's lookup and insert.
+    lookup = app.find_existing_upload
+    missed = []
+
+    def late_lookup(upload_id):
+        if not missed:
+            missed.append(upload_id)
+            return None
+        return lookup(upload_id)
+
+    app.find_existing_upload = late_lookup
+    try:
+        yield
+    finally:
+        app.find_existing_upload = lookup
+
+
+def check_upload_sessions(client, expect):
+    # Drops the connection the ways a phone does: a chunk cut off mid-body, a chunk stored but
+    # its acknowledgement lost, and the app restarting mid-upload. Then several finishes race.
+    chunk = 64 * 1024
+    data = os.urandom(3 * chunk + 1000)
+    upload_id = str(uuid.uuid4())
+    session = {"upload_id": upload_id, "location": "Depot", "size": len(data), "crc32": zlib.crc32(data)}
+
+    def send(offset, body, crc=None):
+        crc = zlib.crc32(body) if crc is None else crc
+        response = client.post(f"/upload-chunk?id={upload_id}&offset={offset}&crc32={crc}", data=body)
+        return response.status_code, response.get_json().get("offset")
+
+    def committed():
+        return client.get(f"/upload-session?id={upload_id}").get_json().get("offset")
+
+    expect("session: opens at 0", client.post("/upload-session", json=session).get_json().get("offset") == 0)
+    expect("session: first chunk stored", send(0, data[:chunk]) == (200, chunk))
+
+    cut = data[chunk:2 * chunk]
+    expect("session: chunk cut off mid-body rejected by its CRC",
+           send(chunk, cut[:1000], zlib.crc32(cut)) == (422, chunk) and committed() == chunk)
+
+    expect("session: resent chunk stored", send(chunk, cut) == (200, 2 * chunk))
+    # The acknowledgement was lost, so the client sends the same chunk again.
+    expect("session: repeat of a stored chunk answered with the committed offset",
+           send(chunk, cut) == (409, 2 * chunk) and committed() == 2 * chunk)
+
+    reopened = client.post("/upload-session", json=session).get_json()
+    expect("session: reopened after a restart at the committed offset", reopened.get("offset") == 2 * chunk)
+    expect("session: finish before the last byte is 409",
+           client.post("/upload-finish", json={"id": upload_id}).status_code == 409)
+    expect("session: rest stored", send(2 * chunk, data[2 * chunk:]) == (200, len(data)))
+
+    results = []
+    racers = 4
+    start = threading.Barrier(racers)
+
+    def finish():
+        start.wait()
+        response = client.post("/upload-finish", json={"id": upload_id})
+        results.append((response.status_code, response.get_json().get("document_id")))
+
+    threads = [threading.Thread(target=finish) for _ in range(racers)]
+    for thread in threads:
+        thread.start()
+    for thread in threads:
+        thread.join()
+    stored = app.collection.find_one({"upload_id": upload_id})
+    expect("session: concurrent finishes all 200 with the one stored document",
+           stored is not None and results == [(200, str(stored["_id"]))] * racers)
+    expect("session: stored exactly once", app.collection.count_documents({"upload_id": upload_id}) == 1)
+    expect("session: stored bytes intact", base64.b64decode(stored["imageData"]) == data)
+    expect("session: finish after the session is gone still 200",
+           client.post("/upload-finish", json={"id": upload_id}).get_json().get("document_id") == str(stored["_id"]))
+    expect("session: reported complete afterwards",
+           client.get(f"/upload-session?id={upload_id}").get_json().get("complete") is True)
+
+    corrupt_id = str(uuid.uuid4())
+    client.post("/upload-session", json=dict(session, upload_id=corrupt_id, crc32=zlib.crc32(data) ^ 1))
+    client.post(f"/upload-chunk?id={corrupt_id}&offset=0&crc32={zlib.crc32(data)}", data=data)
+    expect("session: whole-file checksum mismatch is 422 and discards the session",
+           client.post("/upload-finish", json={"id": corrupt_id}).status_code == 422
+           and client.get(f"/upload-session?id={corrupt_id}").status_code == 404)
+
+
+def main():
+    parser = argparse.ArgumentParser()
+    parser.add_argument("--host", default="0.0.0.0")
+    parser.add_argument("--port", type=int, default=5000)
+    parser.add_argument("--records", type=int, default=300)
+    parser.add_argument("--check", action="store_true", help="exercise the caching and upload paths and exit")
+    args = parser.parse_args()
+
+    seed(args.records)
+    if args.check:
+        sys.exit(0 if check() else 1)
+    app.logger.info(f"Stand-in server with {args.records} in-memory records")
+    app.socketio.run(app.app, host=args.host, port=args.port)
+
+
+if __name__ == "__main__":
+    main()
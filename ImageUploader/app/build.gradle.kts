@@ -0,0 +1,45 @@
+// The Android app. Sources keep this project's app/main layout rather than app/src/main.
+plugins {
+    alias(libs.plugins.android.application)
+}
+
+android {
+    namespace = "com.example.imageuploader"
+    compileSdk = 35
+
+    defaultConfig {
+        applicationId = "com.example.imageuploader"
+        // registerDefaultNetworkCallback (UploadQueue) needs 24.
+        minSdk = 24
+        targetSdk = 35
+        versionCode = 1
+        versionName = "1.0"
+    }
+
+    sourceSets {
+        getByName("main") {
+            manifest.srcFile("main/AndroidManifest.xml")
+            java.setSrcDirs(listOf("main/java"))
+            res.setSrcDirs(listOf("main/res"))
+        }
+    }
+
+    compileOptions {
+        sourceCompatibility = JavaVersion.VERSION_11
+        targetCompatibility = JavaVersion.VERSION_11
+    }
+}
+
+dependencies {
+    implementation(project(":core"))
+    implementation(libs.androidx.activity)
+    implementation(libs.androidx.appcompat)
+    implementation(libs.androidx.core)
+    implementation(libs.androidx.recyclerview)
+    implementation(libs.material)
+    implementation(libs.play.services.location)
+    // Volley runs over OkHttpStack; 3.12 is the line socket.io-client 2.x is built against.
+    implementation(libs.volley)
+    implementation(libs.okhttp)
+    implementation(libs.socket.io.client)
+}
@@ -0,0 +1,137 @@
+package com.example.imageuploader;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// Picks the upload resolution and quality from the current uplink estimate so a capture is
+// expected to reach the server within the latency budget. Resolution never drops below the
+// detector's input edge; quality gives way first, then size.
+class AdaptiveEncoder {
+
+    private static final String TAG = "AdaptiveEncoder";
+    static final int DETECTOR_INPUT_EDGE = 640;
+    static final long DEFAULT_BUDGET_MS = 4000;
+    private static final int[] EDGES = {1600, 1280, 1024, 800, DETECTOR_INPUT_EDGE};
+    private static final int[] QUALITIES = {85, 75, 65, 55};
+    // Typical JPEG bytes per pixel for camera scenes at each of QUALITIES, corrected from real encodes.
+    private static final double[] JPEG_BYTES_PER_PIXEL = {0.30, 0.22, 0.18, 0.15};
+    private static final double WEBP_SIZE_RATIO = 0.75;
+    private static final double ALPHA = 0.3;
+
+    static class Params {
+        final int maxEdge;
+        final int quality;
+        final Bitmap.CompressFormat format;
+        final long predictedBytes;
+        final long predictedMs;
+
+        Params(int maxEdge, int quality, Bitmap.CompressFormat format, long predictedBytes, long predictedMs) {
+            this.maxEdge = maxEdge;
+            this.quality = quality;
+            this.format = format;
+            this.predictedBytes = predictedBytes;
+            this.predictedMs = predictedMs;
+        }
+
+        String formatName() {
+            return format == Bitmap.CompressFormat.JPEG ? "jpeg" : "webp";
+        }
+    }
+
+    private static AdaptiveEncoder instance;
+
+    private final BandwidthEstimator bandwidth;
+    private final Bitmap.CompressFormat format;
+    private long budgetMs = DEFAULT_BUDGET_MS;
+    private double sizeCorrection = 1.0;
+    private long encodes;
+    private long sourceBytesTotal;
+    private long encodedBytesTotal;
+
+    static synchronized AdaptiveEncoder getInstance(Context context) {
+        if (instance == null) {
+            instance = new AdaptiveEncoder(HttpClient.getInstance(context).getBandwidthEstimator());
+        }
+        return instance;
+    }
+
+    AdaptiveEncoder(BandwidthEstimator bandwidth) {
+        this.bandwidth = bandwidth;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            format = Bitmap.CompressFormat.WEBP_LOSSY;
+        } else {
+            format = Bitmap.CompressFormat.JPEG;
+        }
+    }
+
+    String fileExtension() {
+        return format == Bitmap.CompressFormat.JPEG ? ".jpg" : ".webp";
+    }
+
+    synchronized void setBudgetMs(long budgetMs) {
+        this.budgetMs = budgetMs;
+    }
+
+    // Highest resolution, then highest quality, whose predicted upload time fits the budget.
+    synchronized Params choose(int sourceWidth, int sourceHeight) {
+        int sourceEdge = Math.max(sourceWidth, sourceHeight);
+        double formatRatio = format == Bitmap.CompressFormat.JPEG ? 1.0 : WEBP_SIZE_RATIO;
+        Params fallback = null;
+        int previousEdge = -1;
+        for (int edge : EDGES) {
+            int maxEdge = Math.min(edge, sourceEdge);
+            if (maxEdge == previousEdge) continue;
+            previousEdge = maxEdge;
+            float scale = ImagePreparer.scaleFor(sourceWidth, sourceHeight, maxEdge);
+            long pixels = (long) (sourceWidth * scale) * (long) (sourceHeight * scale);
+            for (int q = 0; q < QUALITIES.length; q++) {
+                long bytes = Math.round(pixels * JPEG_BYTES_PER_PIXEL[q] * sizeCorrection * formatRatio);
+                Params params = new Params(maxEdge, QUALITIES[q], format, bytes, bandwidth.predictUploadMs(bytes));
+                if (params.predictedMs <= budgetMs) {
+                    return params;
+                }
+                fallback = params;
+            }
+        }
+        return fallback;
+    }
+
+    // Feeds the actual encoded size back into the size model.
+    synchronized void recordEncode(Params params, long sourceBytes, long encodedBytes) {
+        if (params.predictedBytes > 0) {
+            double ratio = sizeCorrection * encodedBytes / params.predictedBytes;
+            sizeCorrection = Math.max(0.25, Math.min(4.0, sizeCorrection + ALPHA * (ratio - sizeCorrection)));
+        }
+        encodes++;
+        if (sourceBytes > 0) {
+            sourceBytesTotal += sourceBytes;
+            encodedBytesTotal += encodedBytes;
+        }
+    }
+
+    synchronized void logStats() {
+        Log.d(TAG, "Encodes=" + encodes + ", bytes saved=" + (sourceBytesTotal - encodedBytesTotal)
+                + " (" + encodedBytesTotal + "/" + sourceBytesTotal + "), size correction=" + String.format("%.2f", sizeCorrection)
+                + ", budget=" + budgetMs + "ms");
+    }
+
+    // Per-upload record sent with the capture, so detections can be compared against encode settings.
+    static JSONObject describe(Params params, int width, int height, long sourceBytes, long encodedBytes) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("format", params.formatName());
+        json.put("quality", params.quality);
+        json.put("max_edge", params.maxEdge);
+        json.put("width", width);
+        json.put("height", height);
+        json.put("bytes", encodedBytes);
+        json.put("source_bytes", sourceBytes);
+        json.put("bytes_saved", sourceBytes > 0 ? sourceBytes - encodedBytes : 0);
+        json.put("predicted_ms", params.predictedMs);
+        return json;
+    }
+}
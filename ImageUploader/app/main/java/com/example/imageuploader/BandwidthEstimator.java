@@ -0,0 +1,49 @@
+package com.example.imageuploader;
+
+import android.util.Log;
+
+// Smoothed uplink throughput and request turnaround, fed from OkHttp call timings. Turnaround is
+// the time from the last request byte to the first response byte (RTT plus server time).
+class BandwidthEstimator {
+
+    private static final String TAG = "BandwidthEstimator";
+    private static final double ALPHA = 0.3;
+    // Bodies smaller than this mostly land in socket buffers, so their write time says little.
+    private static final long MIN_THROUGHPUT_SAMPLE_BYTES = 16 * 1024;
+    private static final double DEFAULT_BYTES_PER_MS = 64;
+    private static final double DEFAULT_TURNAROUND_MS = 400;
+
+    private double bytesPerMs = DEFAULT_BYTES_PER_MS;
+    private double turnaroundMs = DEFAULT_TURNAROUND_MS;
+    private int throughputSamples;
+    private int turnaroundSamples;
+
+    synchronized void recordUpload(long bytes, long writeMs) {
+        if (bytes < MIN_THROUGHPUT_SAMPLE_BYTES) return;
+        double sample = (double) bytes / Math.max(1, writeMs);
+        bytesPerMs = throughputSamples == 0 ? sample : bytesPerMs + ALPHA * (sample - bytesPerMs);
+        throughputSamples++;
+    }
+
+    synchronized void recordTurnaround(long ms) {
+        turnaroundMs = turnaroundSamples == 0 ? ms : turnaroundMs + ALPHA * (ms - turnaroundMs);
+        turnaroundSamples++;
+    }
+
+    synchronized double getBytesPerMs() {
+        return bytesPerMs;
+    }
+
+    synchronized double getTurnaroundMs() {
+        return turnaroundMs;
+    }
+
+    synchronized long predictUploadMs(long bytes) {
+        return Math.round(turnaroundMs + bytes / bytesPerMs);
+    }
+
+    synchronized void logStats() {
+        Log.d(TAG, "Uplink: " + Math.round(bytesPerMs * 8) + " kbit/s (" + throughputSamples + " samples), turnaround="
+                + Math.round(turnaroundMs) + "ms (" + turnaroundSamples + " samples)");
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.imageuploader;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Recycled ARGB_8888 bitmaps bucketed by allocation size, handed to BitmapFactory as inBitmap
+// so back-to-back captures and detail views reuse pixel memory instead of allocating it.
+class BitmapPool implements ComponentCallbacks2 {
+
+    private static final String TAG = "BitmapPool";
+    private static final int BYTES_PER_PIXEL = 4;
+    private static final int MAX_SIZE_MULTIPLE = 2;
+
+    private static BitmapPool instance;
+
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> buckets = new TreeMap<>();
+    private final LinkedHashSet<Bitmap> lru = new LinkedHashSet<>();
+    private final long maxBytes;
+    private long currentBytes;
+    private long hits;
+    private long misses;
+    private long bytesReused;
+    private long evictions;
+
+    static synchronized BitmapPool getInstance(Context context) {
+        if (instance == null) {
+            instance = new BitmapPool(Runtime.getRuntime().maxMemory() / 8);
+            context.getApplicationContext().registerComponentCallbacks(instance);
+        }
+        return instance;
+    }
+
+    BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            return;
+        }
+        int size = bitmap.getAllocationByteCount();
+        if (size > maxBytes / 2 || lru.contains(bitmap)) {
+            return;
+        }
+        buckets.computeIfAbsent(size, k -> new ArrayDeque<>()).addLast(bitmap);
+        lru.add(bitmap);
+        currentBytes += size;
+        trimToSize(maxBytes);
+    }
+
+    // Returns a pooled bitmap whose allocation can hold width x height pixels, or null.
+    synchronized Bitmap get(int width, int height) {
+        int needed = width * height * BYTES_PER_PIXEL;
+        Map.Entry<Integer, ArrayDeque<Bitmap>> entry = buckets.ceilingEntry(needed);
+        if (entry == null || entry.getKey() > needed * MAX_SIZE_MULTIPLE) {
+            misses++;
+            return null;
+        }
+        Bitmap bitmap = entry.getValue().pollLast();
+        if (entry.getValue().isEmpty()) {
+            buckets.remove(entry.getKey());
+        }
+        lru.remove(bitmap);
+        currentBytes -= entry.getKey();
+        hits++;
+        bytesReused += needed;
+        return bitmap;
+    }
+
+    // Points the decode at a pooled bitmap of at least the sampled size of the source.
+    void applyInBitmap(BitmapFactory.Options options, int sourceWidth, int sourceHeight) {
+        int sampleSize = Math.max(1, options.inSampleSize);
+        int width = (sourceWidth + sampleSize - 1) / sampleSize;
+        int height = (sourceHeight + sampleSize - 1) / sampleSize;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inBitmap = get(width, height);
+    }
+
+    synchronized void trimToSize(long targetBytes) {
+        Iterator<Bitmap> oldest = lru.iterator();
+        while (currentBytes > targetBytes && oldest.hasNext()) {
+            Bitmap bitmap = oldest.next();
+            oldest.remove();
+            int size = bitmap.getAllocationByteCount();
+            ArrayDeque<Bitmap> bucket = buckets.get(size);
+            if (bucket != null) {
+                bucket.remove(bitmap);
+                if (bucket.isEmpty()) {
+                    buckets.remove(size);
+                }
+            }
+            currentBytes -= size;
+            evictions++;
+            bitmap.recycle();
+        }
+    }
+
+    synchronized void logStats() {
+        long requests = hits + misses;
+        Log.d(TAG, "Bitmap pool: reuse rate=" + (requests > 0 ? hits * 100 / requests : 0) + "% (" + hits + "/" + requests
+                + "), bytes saved=" + bytesReused + ", evictions=" + evictions
+                + ", pooled=" + currentBytes + "/" + maxBytes + " bytes");
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimToSize(0);
+        } else if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_LOW) {
+            synchronized (this) {
+                trimToSize(currentBytes / 2);
+            }
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        trimToSize(0);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.imageuploader;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.Button;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Live view of Metrics, refreshed every second while visible.
+public class DiagnosticsActivity extends AppCompatActivity {
+
+    private static final long REFRESH_INTERVAL_MS = 1000;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService exportExecutor = Executors.newSingleThreadExecutor();
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            metricsText.setText(Metrics.report());
+            mainHandler.postDelayed(this, REFRESH_INTERVAL_MS);
+        }
+    };
+    private TextView metricsText;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_diagnostics);
+        setTitle("Diagnostics");
+
+        metricsText = findViewById(R.id.metricsText);
+        Button btnRefresh = findViewById(R.id.btnRefresh);
+        Button btnExport = findViewById(R.id.btnExport);
+
+        btnRefresh.setOnClickListener(v -> metricsText.setText(Metrics.report()));
+        btnExport.setOnClickListener(v -> exportExecutor.execute(() -> {
+            File file = Metrics.exportNow();
+            mainHandler.post(() -> Toast.makeText(this,
+                    file != null ? "Exported to " + file.getAbsolutePath() : "Export failed",
+                    Toast.LENGTH_LONG).show());
+        }));
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        refresh.run();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        mainHandler.removeCallbacks(refresh);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        exportExecutor.shutdown();
+    }
+}
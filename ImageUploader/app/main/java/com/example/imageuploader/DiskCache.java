@@ -0,0 +1,124 @@
+package com.example.imageuploader;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+// Size-bounded directory of files evicted least-recently-used first (by last-modified time,
+// which is bumped on every read).
+class DiskCache {
+
+    private static final String TAG = "DiskCache";
+    private static final String PARTIAL_SUFFIX = ".part";
+    private static final long PARTIAL_MAX_AGE_MS = 24 * 60 * 60 * 1000;
+
+    private final File directory;
+    private final long maxBytes;
+    private long totalBytes;
+
+    DiskCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.e(TAG, "Could not create cache directory " + directory);
+        }
+        File[] files = directory.listFiles();
+        long now = System.currentTimeMillis();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(".tmp")) {
+                    file.delete();
+                } else if (isPartial(file.getName())) {
+                    if (now - file.lastModified() > PARTIAL_MAX_AGE_MS) {
+                        file.delete();
+                    }
+                } else {
+                    totalBytes += file.length();
+                }
+            }
+        }
+    }
+
+    synchronized File get(String key) {
+        File file = new File(directory, key);
+        if (!file.exists()) return null;
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    synchronized byte[] getBytes(String key) {
+        File file = get(key);
+        if (file == null) return null;
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] data = new byte[(int) file.length()];
+            int offset = 0;
+            int bytesRead;
+            while (offset < data.length && (bytesRead = in.read(data, offset, data.length - offset)) != -1) {
+                offset += bytesRead;
+            }
+            return offset == data.length ? data : null;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read cache entry " + key + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    synchronized void put(String key, byte[] data) {
+        File tmp = new File(directory, key + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            fos.write(data);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write cache entry " + key + ": " + e.getMessage());
+            tmp.delete();
+            return;
+        }
+        commit(key, tmp);
+    }
+
+    // Holds the bytes of an interrupted download so it can be resumed with a Range request.
+    File partialFile(String key) {
+        return new File(directory, key + PARTIAL_SUFFIX);
+    }
+
+    synchronized void commit(String key, File tmp) {
+        File file = new File(directory, key);
+        totalBytes -= file.length();
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            return;
+        }
+        totalBytes += file.length();
+        trimToSize(maxBytes);
+    }
+
+    synchronized void remove(String key) {
+        File file = new File(directory, key);
+        totalBytes -= file.length();
+        file.delete();
+    }
+
+    synchronized long size() {
+        return totalBytes;
+    }
+
+    synchronized void trimToSize(long targetBytes) {
+        if (totalBytes <= targetBytes) return;
+        File[] files = directory.listFiles((dir, name) -> !name.endsWith(".tmp") && !isPartial(name));
+        if (files == null) return;
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (totalBytes <= targetBytes) break;
+            totalBytes -= file.length();
+            file.delete();
+        }
+    }
+
+    private static boolean isPartial(String name) {
+        return name.endsWith(PARTIAL_SUFFIX) || name.endsWith(PARTIAL_SUFFIX + ".etag");
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.imageuploader;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+// Recent capture hashes per location tag, used to skip near-duplicate shots of the same spot.
+class DuplicateIndex {
+
+    private static final String TAG = "DuplicateIndex";
+    private static final String PREFS_NAME = "duplicate_index";
+    private static final String KEY_ENTRIES = "entries";
+    static final int DEFAULT_MAX_DISTANCE = 10;
+    static final long DEFAULT_WINDOW_MS = 10 * 60 * 1000;
+    private static final int MAX_ENTRIES_PER_LOCATION = 64;
+
+    private static DuplicateIndex instance;
+
+    static class Match {
+        final long hash;
+        final long capturedAt;
+        final int distance;
+
+        Match(long hash, long capturedAt, int distance) {
+            this.hash = hash;
+            this.capturedAt = capturedAt;
+            this.distance = distance;
+        }
+    }
+
+    private final SharedPreferences prefs;
+    private final Map<String, ArrayDeque<long[]>> entries = new HashMap<>();
+    private int maxDistance = DEFAULT_MAX_DISTANCE;
+    private long windowMs = DEFAULT_WINDOW_MS;
+
+    static synchronized DuplicateIndex getInstance(Context context) {
+        if (instance == null) {
+            instance = new DuplicateIndex(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private DuplicateIndex(Context context) {
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        load();
+    }
+
+    synchronized void configure(int maxDistance, long windowMs) {
+        this.maxDistance = maxDistance;
+        this.windowMs = windowMs;
+    }
+
+    synchronized int getMaxDistance() {
+        return maxDistance;
+    }
+
+    synchronized long getWindowMs() {
+        return windowMs;
+    }
+
+    synchronized Match findDuplicate(String location, long hash, long now) {
+        ArrayDeque<long[]> recent = entries.get(location);
+        if (recent == null) return null;
+        Match best = null;
+        for (long[] entry : recent) {
+            if (now - entry[1] > windowMs) continue;
+            int distance = PerceptualHash.distance(hash, entry[0]);
+            if (distance <= maxDistance && (best == null || distance < best.distance)) {
+                best = new Match(entry[0], entry[1], distance);
+            }
+        }
+        return best;
+    }
+
+    synchronized void record(String location, long hash, long now) {
+        ArrayDeque<long[]> recent = entries.get(location);
+        if (recent == null) {
+            recent = new ArrayDeque<>();
+            entries.put(location, recent);
+        }
+        recent.addLast(new long[]{hash, now});
+        while (recent.size() > MAX_ENTRIES_PER_LOCATION) {
+            recent.removeFirst();
+        }
+        prune(now);
+        save();
+    }
+
+    // Moves a capture recorded under a provisional location tag to the corrected one.
+    synchronized void relocate(String from, String to, long hash) {
+        ArrayDeque<long[]> recent = entries.get(from);
+        if (recent == null || from.equals(to)) return;
+        for (Iterator<long[]> it = recent.iterator(); it.hasNext(); ) {
+            long[] entry = it.next();
+            if (entry[0] != hash) continue;
+            it.remove();
+            if (recent.isEmpty()) {
+                entries.remove(from);
+            }
+            ArrayDeque<long[]> target = entries.get(to);
+            if (target == null) {
+                target = new ArrayDeque<>();
+                entries.put(to, target);
+            }
+            target.addLast(entry);
+            while (target.size() > MAX_ENTRIES_PER_LOCATION) {
+                target.removeFirst();
+            }
+            save();
+            return;
+        }
+    }
+
+    private void prune(long now) {
+        Iterator<Map.Entry<String, ArrayDeque<long[]>>> locations = entries.entrySet().iterator();
+        while (locations.hasNext()) {
+            ArrayDeque<long[]> recent = locations.next().getValue();
+            while (!recent.isEmpty() && now - recent.peekFirst()[1] > windowMs) {
+                recent.removeFirst();
+            }
+            if (recent.isEmpty()) {
+                locations.remove();
+            }
+        }
+    }
+
+    private void load() {
+        String json = prefs.getString(KEY_ENTRIES, null);
+        if (json == null) return;
+        try {
+            JSONObject root = new JSONObject(json);
+            Iterator<String> locations = root.keys();
+            while (locations.hasNext()) {
+                String location = locations.next();
+                JSONArray list = root.getJSONArray(location);
+                ArrayDeque<long[]> recent = new ArrayDeque<>();
+                for (int i = 0; i < list.length(); i++) {
+                    JSONArray pair = list.getJSONArray(i);
+                    recent.addLast(new long[]{PerceptualHash.fromHex(pair.getString(0)), pair.getLong(1)});
+                }
+                entries.put(location, recent);
+            }
+        } catch (JSONException | RuntimeException e) {
+            Log.w(TAG, "Discarding unreadable duplicate index: " + e.getMessage());
+            entries.clear();
+        }
+    }
+
+    private void save() {
+        try {
+            JSONObject root = new JSONObject();
+            for (Map.Entry<String, ArrayDeque<long[]>> location : entries.entrySet()) {
+                JSONArray list = new JSONArray();
+                for (long[] entry : location.getValue()) {
+                    list.put(new JSONArray().put(PerceptualHash.toHex(entry[0])).put(entry[1]));
+                }
+                root.put(location.getKey(), list);
+            }
+            prefs.edit().putString(KEY_ENTRIES, root.toString()).apply();
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to save duplicate index: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.imageuploader;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+// Merges bursts of socket events into one handler call. Events are collected until none has
+// arrived for the debounce window (but no longer than maxDelayMs after the first), then handed
+// over as one batch on the main thread. Only one batch is outstanding at a time: the handler
+// calls done() when its fetch finishes, and events arriving meanwhile wait for the next batch.
+// A handler that takes longer than the window widens it (up to MAX_WINDOW_MS), so a slow
+// viewer is fed fewer, larger batches; fast ones shrink it back.
+class EventCoalescer {
+
+    private static final String TAG = "EventCoalescer";
+    static final long DEFAULT_WINDOW_MS = 500;
+    static final long DEFAULT_MAX_DELAY_MS = 3000;
+    private static final long MAX_WINDOW_MS = 5000;
+    private static final int MAX_PENDING_IDS = 256;
+
+    static class Batch {
+        // Distinct ids in arrival order; empty when catchUp is set.
+        final Set<String> ids;
+        // The ids are incomplete (too many, or events may have been missed while disconnected),
+        // so the handler should sync everything since its last known record.
+        final boolean catchUp;
+        final int events;
+
+        Batch(Set<String> ids, boolean catchUp, int events) {
+            this.ids = ids;
+            this.catchUp = catchUp;
+            this.events = events;
+        }
+    }
+
+    private final String name;
+    private final long baseWindowMs;
+    private final long maxDelayMs;
+    private final Consumer<Batch> handler;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable flush = this::flush;
+    private LinkedHashSet<String> pending = new LinkedHashSet<>();
+    private boolean catchUp;
+    private int pendingEvents;
+    private long firstEventAt;
+    private long windowMs;
+    private boolean busy;
+    private boolean closed;
+    private long batchStartedAt;
+    private long eventsReceived;
+    private long duplicateEvents;
+    private long batchesIssued;
+    private long overflows;
+    private int largestBatch;
+    private long handlerMsTotal;
+
+    EventCoalescer(String name, long windowMs, long maxDelayMs, Consumer<Batch> handler) {
+        this.name = name;
+        this.baseWindowMs = windowMs;
+        this.windowMs = windowMs;
+        this.maxDelayMs = maxDelayMs;
+        this.handler = handler;
+    }
+
+    // Safe to call from the socket thread. A null id just asks for a batch.
+    synchronized void offer(String id) {
+        if (closed) return;
+        eventsReceived++;
+        pendingEvents++;
+        if (id == null || catchUp) {
+            // Nothing to merge by.
+        } else if (!pending.add(id)) {
+            duplicateEvents++;
+        } else if (pending.size() > MAX_PENDING_IDS) {
+            overflows++;
+            catchUp = true;
+            pending.clear();
+        }
+        schedule();
+    }
+
+    // Events may have been missed (e.g. after a reconnect); the next batch is a catch-up.
+    synchronized void requestCatchUp() {
+        if (closed) return;
+        catchUp = true;
+        pending.clear();
+        schedule();
+    }
+
+    // Called by the handler, on the main thread, once the batch has been dealt with.
+    void done() {
+        synchronized (this) {
+            if (!busy) return;
+            busy = false;
+            long elapsed = SystemClock.elapsedRealtime() - batchStartedAt;
+            handlerMsTotal += elapsed;
+            windowMs = elapsed > windowMs ? Math.min(MAX_WINDOW_MS, windowMs * 2) : Math.max(baseWindowMs, windowMs / 2);
+            if (pendingEvents > 0 || catchUp) {
+                schedule();
+            }
+        }
+    }
+
+    void close() {
+        synchronized (this) {
+            closed = true;
+            pending.clear();
+        }
+        mainHandler.removeCallbacks(flush);
+    }
+
+    synchronized void logStats() {
+        Log.d(TAG, name + ": events=" + eventsReceived + " duplicates=" + duplicateEvents + " batches=" + batchesIssued
+                + " overflows=" + overflows + " largest batch=" + largestBatch
+                + " events per batch=" + (batchesIssued > 0 ? eventsReceived / batchesIssued : 0)
+                + " avg handler ms=" + (batchesIssued > 0 ? handlerMsTotal / batchesIssued : 0) + " window ms=" + windowMs);
+    }
+
+    // Restarts the debounce timer, capped at maxDelayMs after the first pending event. While a
+    // batch is outstanding nothing is scheduled; done() picks the events up.
+    private void schedule() {
+        if (busy) return;
+        long now = SystemClock.elapsedRealtime();
+        if (firstEventAt == 0) {
+            firstEventAt = now;
+        }
+        long due = Math.min(now + windowMs, firstEventAt + Math.max(windowMs, maxDelayMs));
+        mainHandler.removeCallbacks(flush);
+        mainHandler.postAtTime(flush, due);
+    }
+
+    private void flush() {
+        Batch batch;
+        synchronized (this) {
+            if (busy || closed || pendingEvents == 0 && !catchUp) return;
+            batch = new Batch(Collections.unmodifiableSet(pending), catchUp, pendingEvents);
+            pending = new LinkedHashSet<>();
+            catchUp = false;
+            pendingEvents = 0;
+            firstEventAt = 0;
+            busy = true;
+            batchStartedAt = SystemClock.elapsedRealtime();
+            batchesIssued++;
+            largestBatch = Math.max(largestBatch, batch.events);
+        }
+        handler.accept(batch);
+    }
+}
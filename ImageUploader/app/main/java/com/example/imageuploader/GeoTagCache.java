@@ -0,0 +1,236 @@
+package com.example.imageuploader;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.location.Address;
+import android.location.Geocoder;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+// Reverse-geocoded locality names bucketed by geohash cell (precision 6, about 1.2 x 0.6 km,
+// well inside a locality), so repeated captures around the same place never wait on the
+// Geocoder. Entries expire after TTL_MS and are kept across restarts; lookups run on a
+// background thread.
+class GeoTagCache {
+
+    private static final String TAG = "GeoTagCache";
+    private static final String PREFS_NAME = "geo_tag_cache";
+    private static final String KEY_ENTRIES = "entries";
+    static final int PRECISION = 6;
+    static final long TTL_MS = 7L * 24 * 60 * 60 * 1000;
+    private static final int MAX_ENTRIES = 256;
+    private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+
+    private static GeoTagCache instance;
+
+    static class Lookup {
+        final String cell;
+        final String tag;
+        final boolean fresh;
+
+        Lookup(String cell, String tag, boolean fresh) {
+            this.cell = cell;
+            this.tag = tag;
+            this.fresh = fresh;
+        }
+    }
+
+    private static final class Entry {
+        final String tag;
+        final long resolvedAt;
+
+        Entry(String tag, long resolvedAt) {
+            this.tag = tag;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+
+    private final Context context;
+    private final SharedPreferences prefs;
+    // cell -> resolved tag, oldest first.
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    // cell -> callbacks waiting on its lookup.
+    private final Map<String, List<Consumer<String>>> resolving = new HashMap<>();
+    private final ExecutorService geocodeExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private long hits;
+    private long staleHits;
+    private long misses;
+    private long resolves;
+    private long failures;
+    private long resolveMsTotal;
+    private long resolveMsMax;
+
+    static synchronized GeoTagCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new GeoTagCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private GeoTagCache(Context context) {
+        this.context = context;
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        load();
+    }
+
+    // Cached tag for the cell containing this point, or null. A stale result is still returned
+    // (and flagged) since an old locality name beats "Unknown" while a fresh one resolves.
+    synchronized Lookup lookup(double latitude, double longitude, long now) {
+        String cell = geohash(latitude, longitude, PRECISION);
+        Entry entry = entries.get(cell);
+        if (entry == null) {
+            misses++;
+            Metrics.GEO_TAG_MISSES.increment();
+            return new Lookup(cell, null, false);
+        }
+        boolean fresh = now - entry.resolvedAt <= TTL_MS;
+        Metrics.GEO_TAG_HITS.increment();
+        if (fresh) {
+            hits++;
+        } else {
+            staleHits++;
+        }
+        return new Lookup(cell, entry.tag, fresh);
+    }
+
+    // Geocodes the point off the main thread and caches the locality for its cell; the callback
+    // gets the name on the main thread, or null if it couldn't be resolved. A cell that is
+    // already being resolved isn't resolved twice; the later callback waits for the same result.
+    void resolve(double latitude, double longitude, Consumer<String> callback) {
+        String cell = geohash(latitude, longitude, PRECISION);
+        synchronized (this) {
+            List<Consumer<String>> waiting = resolving.get(cell);
+            if (waiting != null) {
+                waiting.add(callback);
+                return;
+            }
+            waiting = new ArrayList<>();
+            waiting.add(callback);
+            resolving.put(cell, waiting);
+        }
+        geocodeExecutor.execute(() -> {
+            long start = SystemClock.elapsedRealtime();
+            String tag = null;
+            try {
+                if (Geocoder.isPresent()) {
+                    Geocoder geocoder = new Geocoder(context, Locale.getDefault());
+                    List<Address> addresses = geocoder.getFromLocation(latitude, longitude, 1);
+                    if (addresses != null && !addresses.isEmpty() && addresses.get(0).getLocality() != null) {
+                        tag = addresses.get(0).getLocality();
+                    }
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                Log.e(TAG, "Geocoder failed: " + e.getMessage());
+            }
+            long elapsed = SystemClock.elapsedRealtime() - start;
+            List<Consumer<String>> callbacks;
+            synchronized (this) {
+                callbacks = resolving.remove(cell);
+                resolves++;
+                resolveMsTotal += elapsed;
+                resolveMsMax = Math.max(resolveMsMax, elapsed);
+                if (tag != null) {
+                    entries.remove(cell);
+                    entries.put(cell, new Entry(tag, System.currentTimeMillis()));
+                    trim();
+                    save();
+                } else {
+                    failures++;
+                }
+            }
+            String result = tag;
+            mainHandler.post(() -> {
+                for (Consumer<String> waiting : callbacks) {
+                    waiting.accept(result);
+                }
+            });
+        });
+    }
+
+    synchronized void logStats() {
+        long lookups = hits + staleHits + misses;
+        Log.d(TAG, "lookups=" + lookups + " hits=" + hits + " stale=" + staleHits + " misses=" + misses
+                + " hit rate=" + (lookups > 0 ? (hits + staleHits) * 100 / lookups : 0) + "%"
+                + " resolves=" + resolves + " failures=" + failures
+                + " avg resolve ms=" + (resolves > 0 ? resolveMsTotal / resolves : 0) + " max=" + resolveMsMax
+                + " cells=" + entries.size());
+    }
+
+    static String geohash(double latitude, double longitude, int precision) {
+        double[] lat = {-90, 90};
+        double[] lon = {-180, 180};
+        StringBuilder hash = new StringBuilder(precision);
+        boolean even = true;
+        int bits = 0;
+        int value = 0;
+        while (hash.length() < precision) {
+            double[] range = even ? lon : lat;
+            double coordinate = even ? longitude : latitude;
+            double mid = (range[0] + range[1]) / 2;
+            if (coordinate >= mid) {
+                value = value << 1 | 1;
+                range[0] = mid;
+            } else {
+                value <<= 1;
+                range[1] = mid;
+            }
+            even = !even;
+            if (++bits == 5) {
+                hash.append(BASE32.charAt(value));
+                bits = 0;
+                value = 0;
+            }
+        }
+        return hash.toString();
+    }
+
+    private void trim() {
+        Iterator<String> oldest = entries.keySet().iterator();
+        while (entries.size() > MAX_ENTRIES) {
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    private void load() {
+        String json = prefs.getString(KEY_ENTRIES, null);
+        if (json == null) return;
+        try {
+            JSONArray list = new JSONArray(json);
+            for (int i = 0; i < list.length(); i++) {
+                JSONArray entry = list.getJSONArray(i);
+                entries.put(entry.getString(0), new Entry(entry.getString(1), entry.getLong(2)));
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "Discarding unreadable geotag cache: " + e.getMessage());
+            entries.clear();
+        }
+    }
+
+    private void save() {
+        JSONArray list = new JSONArray();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            list.put(new JSONArray().put(entry.getKey()).put(entry.getValue().tag).put(entry.getValue().resolvedAt));
+        }
+        prefs.edit().putString(KEY_ENTRIES, list.toString()).apply();
+    }
+}
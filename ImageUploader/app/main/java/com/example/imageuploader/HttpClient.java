@@ -0,0 +1,211 @@
+package com.example.imageuploader;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.volley.RequestQueue;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.DiskBasedCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Cache;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+// Process-wide networking layer: one OkHttp connection pool (HTTP/2 where the server negotiates it,
+// keep-alive otherwise) shared by the Volley queue used for JSON requests and by the upload path.
+// Responses are cached on disk per transport, and the two caches never hold the same URL:
+// - Volley's DiskBasedCache holds only list pages (/get-inference-batch). They are served
+//   stale-while-revalidate, and only Volley delivers a stale copy at once and the revalidated one
+//   after it; OkHttp's cache ignores stale-while-revalidate and would make the list wait.
+// - An OkHttp Cache on a second client (same pool and dispatcher) holds item metadata
+//   (/get-inference-item?fields=meta), fetched by direct OkHttp calls off Volley's threads.
+// Both follow the server's Cache-Control and revalidate with If-None-Match; 304s are counted.
+class HttpClient {
+
+    private static final String TAG = "HttpClient";
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+    // The Dispatcher limits only cover enqueue() (image, metadata and prefetch loads). Blocking
+    // execute() calls run on the threads that make them, so those are bounded by thread count:
+    // NETWORK_THREADS for Volley, and UploadQueue's upload executor for uploads.
+    private static final int MAX_REQUESTS = 16;
+    private static final int MAX_REQUESTS_PER_HOST = 6;
+    private static final int NETWORK_THREADS = 4;
+    // A 100-row list page is about 16 KB, so this keeps some 250 pages. Older pages aren't needed
+    // for a fast start: InferenceMirror keeps every row in SQLite.
+    private static final int VOLLEY_CACHE_BYTES = 4 * 1024 * 1024;
+    // A metadata response is about 200 bytes plus headers, so this holds several thousand items.
+    private static final long HTTP_CACHE_BYTES = 10L * 1024 * 1024;
+
+    private static HttpClient instance;
+
+    private final OkHttpClient okHttpClient;
+    private final OkHttpClient cachingClient;
+    private final Cache httpCache;
+    private final RequestQueue requestQueue;
+    private final AtomicLong connectionsAcquired = new AtomicLong();
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private final AtomicLong http2Connections = new AtomicLong();
+    private final BandwidthEstimator bandwidthEstimator = new BandwidthEstimator();
+
+    static synchronized HttpClient getInstance(Context context) {
+        if (instance == null) {
+            instance = new HttpClient(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private HttpClient(Context context) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+
+        okHttpClient = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .dispatcher(dispatcher)
+                .eventListenerFactory(call -> new CallTimer())
+                .build();
+        httpCache = new Cache(new File(context.getCacheDir(), "http"), HTTP_CACHE_BYTES);
+        cachingClient = okHttpClient.newBuilder()
+                .cache(httpCache)
+                .addInterceptor(new CacheAccounting())
+                .build();
+
+        requestQueue = new RequestQueue(
+                new DiskBasedCache(new File(context.getCacheDir(), "volley"), VOLLEY_CACHE_BYTES),
+                new BasicNetwork(new OkHttpStack(okHttpClient)),
+                NETWORK_THREADS);
+        requestQueue.start();
+    }
+
+    OkHttpClient getOkHttpClient() {
+        return okHttpClient;
+    }
+
+    // For small JSON responses worth caching; large bodies (images, uploads) use getOkHttpClient().
+    OkHttpClient getCachingClient() {
+        return cachingClient;
+    }
+
+    // Drops cached responses whose URL contains fragment, e.g. those of a record that changed.
+    // Reads the cache journal, so not on the main thread.
+    void evictCached(String fragment) {
+        try {
+            for (Iterator<String> urls = httpCache.urls(); urls.hasNext(); ) {
+                if (urls.next().contains(fragment)) {
+                    urls.remove();
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "HTTP cache eviction failed: " + e.getMessage());
+        }
+    }
+
+    BandwidthEstimator getBandwidthEstimator() {
+        return bandwidthEstimator;
+    }
+
+    RequestQueue getRequestQueue() {
+        return requestQueue;
+    }
+
+    long getPoolHits() {
+        return Math.max(0, connectionsAcquired.get() - connectionsOpened.get());
+    }
+
+    long getNewConnections() {
+        return connectionsOpened.get();
+    }
+
+    long getHttp2Acquisitions() {
+        return http2Connections.get();
+    }
+
+    void logStats() {
+        Log.d(TAG, "Connections: acquired=" + connectionsAcquired.get() + ", new=" + connectionsOpened.get()
+                + ", pool hits=" + getPoolHits() + ", http2=" + http2Connections.get()
+                + ", idle=" + okHttpClient.connectionPool().idleConnectionCount());
+        Log.d(TAG, "HTTP cache: requests=" + httpCache.requestCount() + ", network=" + httpCache.networkCount()
+                + ", hits=" + httpCache.hitCount() + ", not modified=" + Metrics.HTTP_NOT_MODIFIED.get()
+                + ", bytes saved=" + Metrics.HTTP_BYTES_SAVED.get());
+        bandwidthEstimator.logStats();
+    }
+
+    // Sees the final response: served from cache alone, or from cache after a 304.
+    private static class CacheAccounting implements Interceptor {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Response response = chain.proceed(chain.request());
+            Response cached = response.cacheResponse();
+            Response network = response.networkResponse();
+            if (cached != null && network == null) {
+                Metrics.HTTP_CACHE_HITS.increment();
+            } else if (cached != null && network.code() == 304) {
+                ResponseBody body = response.body();
+                Metrics.HTTP_NOT_MODIFIED.increment();
+                Metrics.HTTP_BYTES_SAVED.add(body != null ? Math.max(0, body.contentLength()) : 0);
+            }
+            return response;
+        }
+    }
+
+    // One instance per call, so the timestamps need no synchronization.
+    private class CallTimer extends EventListener {
+        private long requestSentAt;
+        private long bodyStartAt;
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            connectionsOpened.incrementAndGet();
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            connectionsAcquired.incrementAndGet();
+            if (connection.protocol() == Protocol.HTTP_2) {
+                http2Connections.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void requestHeadersEnd(Call call, Request request) {
+            requestSentAt = SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void requestBodyStart(Call call) {
+            bodyStartAt = SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void requestBodyEnd(Call call, long byteCount) {
+            requestSentAt = SystemClock.elapsedRealtime();
+            bandwidthEstimator.recordUpload(byteCount, requestSentAt - bodyStartAt);
+        }
+
+        @Override
+        public void responseHeadersStart(Call call) {
+            if (requestSentAt > 0) {
+                bandwidthEstimator.recordTurnaround(SystemClock.elapsedRealtime() - requestSentAt);
+            }
+        }
+    }
+}
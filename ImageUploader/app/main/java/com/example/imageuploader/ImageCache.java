@@ -0,0 +1,261 @@
+package com.example.imageuploader;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+// Decoded bitmaps in a memory LRU in front of a disk cache of the compressed bytes. A record's
+// images never change once processed, so entries are keyed by item _id and image variant only.
+// Processed metadata is pinned in a store of its own, so image churn never evicts it and it isn't
+// refetched while it stays current. Its location can still be corrected afterwards, so the copy
+// is dropped on location_updated, and everything is dropped when those events may have been
+// missed (a replay gap).
+class ImageCache implements ComponentCallbacks2 {
+
+    private static final String TAG = "ImageCache";
+    static final String VARIANT_PROCESSED = "image";
+    static final String VARIANT_ORIGINAL = "imageData";
+    static final String VARIANT_META = "meta";
+    private static final String THUMBNAIL_SUFFIX = "_thumb";
+    static final String EVENT_LOCATION_UPDATED = "location_updated";
+    private static final long DISK_CACHE_BYTES = 64L * 1024 * 1024;
+    // A processed record's metadata is well under 1 KB.
+    private static final long RECORD_STORE_BYTES = 8L * 1024 * 1024;
+    private static final int METADATA_MEMORY_ENTRIES = 256;
+
+    private static ImageCache instance;
+
+    interface Callback {
+        void onBitmap(Bitmap bitmap);
+    }
+
+    private final LruCache<String, Bitmap> memoryCache;
+    // Processed metadata only; an unprocessed record can still change, so it always goes through
+    // the HTTP cache and revalidates.
+    private final LruCache<String, String> metadataMemory = new LruCache<>(METADATA_MEMORY_ENTRIES);
+    private final DiskCache diskCache;
+    private final DiskCache recordStore;
+    private final BitmapPool bitmapPool;
+    private final HttpClient httpClient;
+    // Pin counts; a key shown on two screens stays pinned until both let go.
+    private final Map<String, Integer> pins = new HashMap<>();
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    static synchronized ImageCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new ImageCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    static String key(String itemId, String variant) {
+        return itemId + "_" + variant;
+    }
+
+    static String thumbnailKey(String itemId, String variant) {
+        return key(itemId, variant) + THUMBNAIL_SUFFIX;
+    }
+
+    private ImageCache(Context context) {
+        bitmapPool = BitmapPool.getInstance(context);
+        int memoryBytes = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+        memoryCache = new LruCache<String, Bitmap>(memoryBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                // Bitmaps still on screen are owned by their view; everything else goes back to the pool
+                if (evicted && !isPinned(key)) {
+                    bitmapPool.put(oldValue);
+                }
+            }
+        };
+        diskCache = new DiskCache(new File(context.getCacheDir(), "images"), DISK_CACHE_BYTES);
+        recordStore = new DiskCache(new File(context.getFilesDir(), "records"), RECORD_STORE_BYTES);
+        httpClient = HttpClient.getInstance(context);
+        context.registerComponentCallbacks(this);
+        RealtimeConnection realtime = RealtimeConnection.getInstance();
+        realtime.addListener(EVENT_LOCATION_UPDATED, (event, payload) -> {
+            String itemId = payload != null ? payload.optString("document_id", null) : null;
+            if (itemId != null) forgetMetadata(itemId);
+        });
+        realtime.addListener(RealtimeConnection.EVENT_GAP, (event, payload) -> forgetAllMetadata());
+    }
+
+    void getBitmap(String key, Callback callback) {
+        getBitmap(key, false, callback);
+    }
+
+    // For bitmaps about to be displayed: a non-null result comes pinned, with the pin taken
+    // before the entry can be evicted, and the caller unpins it once it's no longer shown.
+    void getPinnedBitmap(String key, Callback callback) {
+        getBitmap(key, true, callback);
+    }
+
+    private void getBitmap(String key, boolean pin, Callback callback) {
+        if (pin) pin(key);
+        Bitmap cached = memoryCache.get(key);
+        if (cached != null) {
+            Metrics.IMAGE_MEMORY_HITS.increment();
+            callback.onBitmap(cached);
+            return;
+        }
+        diskExecutor.execute(() -> {
+            Bitmap bitmap = decodeFromDisk(key);
+            if (bitmap != null) {
+                Metrics.IMAGE_DISK_HITS.increment();
+                memoryCache.put(key, bitmap);
+            } else {
+                Metrics.IMAGE_MISSES.increment();
+                if (pin) unpin(key);
+            }
+            mainHandler.post(() -> callback.onBitmap(bitmap));
+        });
+    }
+
+    Bitmap decodeFromDisk(String key) {
+        File file = diskCache.get(key);
+        if (file == null) return null;
+        String path = file.getAbsolutePath();
+        long start = SystemClock.elapsedRealtimeNanos();
+        try {
+            return decodeFile(path);
+        } finally {
+            Metrics.BITMAP_DECODE_US.recordMicrosSince(start);
+        }
+    }
+
+    private Bitmap decodeFile(String path) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+        options.inJustDecodeBounds = false;
+        bitmapPool.applyInBitmap(options, options.outWidth, options.outHeight);
+        try {
+            return BitmapFactory.decodeFile(path, options);
+        } catch (IllegalArgumentException e) {
+            bitmapPool.put(options.inBitmap);
+            options.inBitmap = null;
+            return BitmapFactory.decodeFile(path, options);
+        }
+    }
+
+    // Pinned entries are displayed somewhere and must not be recycled into the pool on eviction.
+    // Each pin is matched by one unpin.
+    void pin(String key) {
+        synchronized (pins) {
+            pins.merge(key, 1, Integer::sum);
+        }
+    }
+
+    void unpin(String key) {
+        synchronized (pins) {
+            pins.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    private boolean isPinned(String key) {
+        synchronized (pins) {
+            return pins.containsKey(key);
+        }
+    }
+
+    void putBitmap(String key, Bitmap bitmap) {
+        memoryCache.put(key, bitmap);
+    }
+
+    // Inserts a bitmap that is about to be displayed, pinned first; the caller unpins it.
+    void putPinnedBitmap(String key, Bitmap bitmap) {
+        pin(key);
+        memoryCache.put(key, bitmap);
+    }
+
+    DiskCache getDiskCache() {
+        return diskCache;
+    }
+
+    void getMetadata(String itemId, Consumer<String> callback) {
+        String cached = metadataMemory.get(itemId);
+        if (cached != null) {
+            callback.accept(cached);
+            return;
+        }
+        diskExecutor.execute(() -> {
+            byte[] data = recordStore.getBytes(key(itemId, VARIANT_META));
+            String json = data != null ? new String(data, StandardCharsets.UTF_8) : null;
+            if (json != null) {
+                metadataMemory.put(itemId, json);
+            }
+            mainHandler.post(() -> callback.accept(json));
+        });
+    }
+
+    // For processed records, whose metadata is final: kept in memory and on disk.
+    void putMetadata(String itemId, String json) {
+        metadataMemory.put(itemId, json);
+        diskExecutor.execute(() -> recordStore.put(key(itemId, VARIANT_META), json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    // On the disk executor, so a read already queued can't put the old copy back afterwards.
+    void forgetMetadata(String itemId) {
+        diskExecutor.execute(() -> {
+            metadataMemory.remove(itemId);
+            recordStore.remove(key(itemId, VARIANT_META));
+            httpClient.evictCached("get-inference-item?id=" + itemId + "&");
+        });
+    }
+
+    private void forgetAllMetadata() {
+        diskExecutor.execute(() -> {
+            metadataMemory.evictAll();
+            recordStore.trimToSize(0);
+        });
+    }
+
+    void logStats() {
+        Log.d(TAG, "Image cache: memory hits=" + Metrics.IMAGE_MEMORY_HITS.get() + ", disk hits=" + Metrics.IMAGE_DISK_HITS.get()
+                + ", misses=" + Metrics.IMAGE_MISSES.get() + ", memory=" + memoryCache.size() + "/" + memoryCache.maxSize()
+                + " bytes, disk=" + diskCache.size() + " bytes, records=" + recordStore.size() + " bytes");
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            memoryCache.evictAll();
+            metadataMemory.evictAll();
+        } else if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_LOW) {
+            memoryCache.trimToSize(memoryCache.size() / 2);
+        }
+        Log.d(TAG, "onTrimMemory(" + level + "), memory cache now " + memoryCache.size() + " bytes");
+    }
+
+    @Override
+    public void onLowMemory() {
+        memoryCache.evictAll();
+        metadataMemory.evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+}
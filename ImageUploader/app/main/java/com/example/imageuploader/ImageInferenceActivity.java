@@ -1,25 +1,18 @@
 package com.example.imageuploader;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
-import android.util.Base64;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.View;
 import android.widget.ImageView;
 import android.widget.ProgressBar;
+import android.widget.RadioGroup;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
 
-import com.android.volley.Request;
-import com.android.volley.RequestQueue;
-import com.android.volley.Response;
-import com.android.volley.VolleyError;
-import com.android.volley.toolbox.JsonObjectRequest;
-import com.android.volley.toolbox.Volley;
-
 import org.json.JSONObject;
 
 public class ImageInferenceActivity extends AppCompatActivity {
@@ -28,17 +21,27 @@ public class ImageInferenceActivity extends AppCompatActivity {
     private ImageView imageView;
     private TextView inferenceText;
     private ProgressBar progressBar;
-    private RequestQueue queue;
     private String serverUrl;
+    private InferenceItemLoader itemLoader;
+    private String displayedKey;
+    private TrendChartView trendChart;
+    private RadioGroup trendResolution;
+    private String location;
+    private String thumbnailKey;
+    private long openedAt;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        openedAt = SystemClock.elapsedRealtime();
         setContentView(R.layout.activity_image_inference);
 
         imageView = findViewById(R.id.imageView);
         inferenceText = findViewById(R.id.inferenceText);
         progressBar = findViewById(R.id.progressBar);
+        trendChart = findViewById(R.id.trendChart);
+        trendResolution = findViewById(R.id.trendResolution);
+        trendResolution.setOnCheckedChangeListener((group, checkedId) -> loadTrend());
 
         String itemId = getIntent().getStringExtra("itemId");
         serverUrl = getIntent().getStringExtra("serverUrl");
@@ -50,73 +53,129 @@ public class ImageInferenceActivity extends AppCompatActivity {
             return;
         }
 
-        queue = Volley.newRequestQueue(this);
-        fetchItemData(itemId);
+        itemLoader = new InferenceItemLoader(this, serverUrl);
+        // Waits for (and hurries along) any prefetch of this item, so what it fetched is used
+        // rather than requested a second time.
+        progressBar.setVisibility(View.VISIBLE);
+        ItemPrefetcher.getInstance(this).promote(itemId, () -> {
+            if (!isDestroyed()) fetchItemData(itemId);
+        });
     }
 
     private void fetchItemData(String itemId) {
         progressBar.setVisibility(View.VISIBLE);
-        String url = serverUrl.endsWith("/") ? serverUrl + "get-inference-item?id=" + itemId : serverUrl + "/get-inference-item?id=" + itemId;
-
-        JsonObjectRequest request = new JsonObjectRequest(Request.Method.GET, url, null,
-                response -> {
-                    try {
-                        JSONObject inferenceData = response.getJSONObject("item");
-                        Log.d(TAG, "Received item data: " + inferenceData.toString());
-
-                        // Display inference data as text
-                        StringBuilder displayText = new StringBuilder();
-                        displayText.append("Location: ").append(inferenceData.optString("location", "Unknown")).append("\n");
-                        displayText.append("Detected Objects: ").append(inferenceData.optString("detected_objects", "None")).append("\n");
-                        displayText.append("Summary: ").append(inferenceData.optString("summary", "None"));
-                        inferenceText.setText(displayText.toString());
-                        Log.d(TAG, "Text set: " + displayText.toString());
-
-                        // Load the processed image if available, otherwise the original image
-                        String base64Image = inferenceData.optString("image", "");
-                        if (base64Image.isEmpty()) {
-                            base64Image = inferenceData.optString("imageData", "");  // Fallback to original image
-                        }
-
-                        if (!base64Image.isEmpty()) {
-                            loadImageFromBase64(base64Image);
-                        } else {
-                            Log.w(TAG, "No image data found in inference");
-                            Toast.makeText(this, "No image data in inference", Toast.LENGTH_SHORT).show();
-                        }
-                    } catch (Exception e) {
-                        Log.e(TAG, "Parse error: " + e.getMessage(), e);
-                        Toast.makeText(this, "Error parsing data: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                    } finally {
-                        progressBar.setVisibility(View.GONE);
-                    }
-                },
-                error -> {
-                    String errorMsg = error.getMessage() != null ? error.getMessage() : "Unknown error";
-                    Log.e(TAG, "Fetch error: " + errorMsg, error);
-                    Toast.makeText(this, "Failed to fetch data: " + errorMsg, Toast.LENGTH_LONG).show();
-                    progressBar.setVisibility(View.GONE);
-                });
-        queue.add(request);
+        itemLoader.loadMetadata(itemId, new InferenceItemLoader.MetadataCallback() {
+            @Override
+            public void onMetadata(JSONObject inferenceData) {
+                Log.d(TAG, "Received item data: " + inferenceData.toString());
+                showInferenceText(inferenceData);
+                location = inferenceData.optString("location", null);
+                loadTrend();
+                // Load the processed image if available, otherwise the original image; a prefetched
+                // thumbnail stands in until it arrives.
+                String variant = InferenceItemLoader.variantFor(inferenceData);
+                showThumbnail(itemId, variant);
+                loadImage(itemId, variant);
+            }
+
+            @Override
+            public void onError(String message) {
+                Log.e(TAG, "Fetch error: " + message);
+                Toast.makeText(ImageInferenceActivity.this, message, Toast.LENGTH_LONG).show();
+                progressBar.setVisibility(View.GONE);
+            }
+        });
+    }
+
+    private void showThumbnail(String itemId, String variant) {
+        String key = ImageCache.thumbnailKey(itemId, variant);
+        ImageCache.getInstance(this).getPinnedBitmap(key, thumbnail -> {
+            if (thumbnail == null) return;
+            if (displayedKey != null || isDestroyed()) {
+                ImageCache.getInstance(this).unpin(key);
+                return;
+            }
+            thumbnailKey = key;
+            imageView.setImageBitmap(thumbnail);
+            imageView.setVisibility(View.VISIBLE);
+            recordTimeToImage();
+        });
     }
 
-    private void loadImageFromBase64(String base64Image) {
-        try {
-            Log.d(TAG, "Decoding Base64 image of length: " + base64Image.length());
-            byte[] decodedBytes = Base64.decode(base64Image, Base64.DEFAULT);
-            Log.d(TAG, "Decoded bytes length: " + decodedBytes.length);
-            Bitmap bitmap = BitmapFactory.decodeByteArray(decodedBytes, 0, decodedBytes.length);
-            if (bitmap != null) {
-                imageView.setImageBitmap(bitmap);
-                imageView.setVisibility(View.VISIBLE);
-                Log.d(TAG, "Image loaded successfully: " + bitmap.getWidth() + "x" + bitmap.getHeight());
-            } else {
-                Log.w(TAG, "Bitmap is null - failed to decode image");
-                Toast.makeText(this, "Failed to decode image", Toast.LENGTH_SHORT).show();
+    private void loadImage(String itemId, String variant) {
+        itemLoader.loadImage(itemId, variant, new InferenceItemLoader.ImageCallback() {
+            @Override
+            public void onImage(Bitmap bitmap) {
+                // Already pinned by the loader.
+                displayedKey = ImageCache.key(itemId, variant);
+                showBitmap(bitmap);
+            }
+
+            @Override
+            public void onError(String message) {
+                Log.w(TAG, "Image error: " + message);
+                Toast.makeText(ImageInferenceActivity.this, message, Toast.LENGTH_SHORT).show();
+                progressBar.setVisibility(View.GONE);
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Image decode error: " + e.getMessage(), e);
-            Toast.makeText(this, "Error decoding image: " + e.getMessage(), Toast.LENGTH_LONG).show();
+        });
+    }
+
+    private void showInferenceText(JSONObject inferenceData) {
+        StringBuilder displayText = new StringBuilder();
+        displayText.append("Location: ").append(inferenceData.optString("location", "Unknown")).append("\n");
+        displayText.append("Detected Objects: ").append(inferenceData.optString("detected_objects", "None")).append("\n");
+        displayText.append("Summary: ").append(inferenceData.optString("summary", "None"));
+        inferenceText.setText(displayText.toString());
+        Log.d(TAG, "Text set: " + displayText.toString());
+    }
+
+    // Trend of the record's location at the selected resolution, from the synced mirror.
+    private void loadTrend() {
+        if (location == null) return;
+        int checked = trendResolution.getCheckedRadioButtonId();
+        int resolution = checked == R.id.trendHour ? SummaryRollups.HOUR
+                : checked == R.id.trendWeek ? SummaryRollups.WEEK : SummaryRollups.DAY;
+        String requested = location;
+        InferenceMirror.getInstance(this, serverUrl).loadTrend(location, resolution, trend -> {
+            if (isDestroyed() || !requested.equals(location)) return;
+            trendChart.setTrend(trend, "No synced history for " + requested);
+        });
+    }
+
+    private void showBitmap(Bitmap bitmap) {
+        if (isDestroyed()) return;
+        imageView.setImageBitmap(bitmap);
+        imageView.setVisibility(View.VISIBLE);
+        progressBar.setVisibility(View.GONE);
+        recordTimeToImage();
+        if (thumbnailKey != null) {
+            ImageCache.getInstance(this).unpin(thumbnailKey);
+            thumbnailKey = null;
+        }
+        Log.d(TAG, "Image loaded successfully: " + bitmap.getWidth() + "x" + bitmap.getHeight());
+        ImageCache.getInstance(this).logStats();
+        BitmapPool.getInstance(this).logStats();
+    }
+
+    private void recordTimeToImage() {
+        if (openedAt == 0) return;
+        Metrics.TIME_TO_IMAGE_MS.recordMillisSince(openedAt);
+        openedAt = 0;
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (itemLoader != null) {
+            itemLoader.cancel();
+        }
+        if (displayedKey != null) {
+            imageView.setImageDrawable(null);
+            ImageCache.getInstance(this).unpin(displayedKey);
+        }
+        if (thumbnailKey != null) {
+            imageView.setImageDrawable(null);
+            ImageCache.getInstance(this).unpin(thumbnailKey);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,308 @@
+package com.example.imageuploader;
+
+import android.content.ContentResolver;
+import android.content.res.AssetFileDescriptor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Turns a camera capture or gallery pick into the preview bitmap and the upload file in one
+// background pass: bounds first, subsampled decode, one scale+rotate, one encode. Size and
+// quality come from the adaptive encoder.
+class ImagePreparer {
+
+    private static final String TAG = "ImagePreparer";
+
+    interface Callback {
+        void onPrepared(Result result);
+
+        void onError(String message);
+    }
+
+    static class Result {
+        Bitmap preview;
+        String uploadPath;
+        int sourceWidth;
+        int sourceHeight;
+        long sourceBytes;
+        long encodedBytes;
+        AdaptiveEncoder.Params params;
+        long boundsMs;
+        long decodeMs;
+        long transformMs;
+        long encodeMs;
+        long analyzeMs;
+        long perceptualHash;
+        CaptureQualityGate.Report quality;
+
+        long totalMs() {
+            return boundsMs + decodeMs + transformMs + encodeMs + analyzeMs;
+        }
+
+        @Override
+        public String toString() {
+            return sourceWidth + "x" + sourceHeight + " -> " + preview.getWidth() + "x" + preview.getHeight()
+                    + " " + params.formatName() + " q" + params.quality + " " + sourceBytes + " -> " + encodedBytes + " bytes"
+                    + " (predicted " + params.predictedBytes + ", " + params.predictedMs + "ms upload)"
+                    + " bounds=" + boundsMs + "ms decode=" + decodeMs + "ms transform=" + transformMs
+                    + "ms encode=" + encodeMs + "ms analyze=" + analyzeMs + "ms total=" + totalMs() + "ms quality=" + quality;
+        }
+    }
+
+    private interface StreamOpener {
+        InputStream open() throws IOException;
+
+        // Size of the original in bytes, or -1 if the provider doesn't say.
+        long length();
+    }
+
+    private final ContentResolver contentResolver;
+    private final BitmapPool bitmapPool;
+    private final AdaptiveEncoder encoder;
+    private final ExecutorService executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadLocal<PerceptualHash> hasher = ThreadLocal.withInitial(PerceptualHash::new);
+    private final ThreadLocal<CaptureQualityGate> qualityGate = ThreadLocal.withInitial(CaptureQualityGate::new);
+    private final ThreadLocal<int[]> rowBuffer = new ThreadLocal<>();
+
+    ImagePreparer(ContentResolver contentResolver, BitmapPool bitmapPool, AdaptiveEncoder encoder) {
+        this(contentResolver, bitmapPool, encoder, 1);
+    }
+
+    // Each thread holds up to two full-size bitmaps while it works, so keep threads small.
+    ImagePreparer(ContentResolver contentResolver, BitmapPool bitmapPool, AdaptiveEncoder encoder, int threads) {
+        this.contentResolver = contentResolver;
+        this.bitmapPool = bitmapPool;
+        this.encoder = encoder;
+        this.executor = Executors.newFixedThreadPool(threads);
+    }
+
+    void prepareFile(String path, File output, Callback callback) {
+        prepare(new StreamOpener() {
+            @Override
+            public InputStream open() throws IOException {
+                return new FileInputStream(path);
+            }
+
+            @Override
+            public long length() {
+                return new File(path).length();
+            }
+        }, output, callback);
+    }
+
+    void prepareUri(Uri uri, File output, Callback callback) {
+        prepare(new StreamOpener() {
+            @Override
+            public InputStream open() throws IOException {
+                InputStream in = contentResolver.openInputStream(uri);
+                if (in == null) throw new IOException("Cannot open " + uri);
+                return in;
+            }
+
+            @Override
+            public long length() {
+                try (AssetFileDescriptor fd = contentResolver.openAssetFileDescriptor(uri, "r")) {
+                    return fd != null ? fd.getLength() : -1;
+                } catch (IOException e) {
+                    return -1;
+                }
+            }
+        }, output, callback);
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void prepare(StreamOpener opener, File output, Callback callback) {
+        executor.execute(() -> {
+            try {
+                Result result = prepareSync(opener, output);
+                Log.d(TAG, "Prepared " + output.getName() + ": " + result);
+                mainHandler.post(() -> callback.onPrepared(result));
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Preparation failed: " + e.getMessage(), e);
+                output.delete();
+                mainHandler.post(() -> callback.onError(e.getMessage() != null ? e.getMessage() : "Unknown error"));
+            }
+        });
+    }
+
+    private Result prepareSync(StreamOpener opener, File output) throws IOException {
+        Result result = new Result();
+
+        long start = SystemClock.elapsedRealtime();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = opener.open()) {
+            BitmapFactory.decodeStream(in, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Failed to decode image");
+        }
+        result.sourceWidth = options.outWidth;
+        result.sourceHeight = options.outHeight;
+        result.sourceBytes = opener.length();
+        AdaptiveEncoder.Params params = encoder.choose(result.sourceWidth, result.sourceHeight);
+        result.params = params;
+        int orientation;
+        try (InputStream in = opener.open()) {
+            orientation = new ExifInterface(in).getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        }
+        long boundsDone = SystemClock.elapsedRealtime();
+        result.boundsMs = boundsDone - start;
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, params.maxEdge);
+        bitmapPool.applyInBitmap(options, result.sourceWidth, result.sourceHeight);
+        long decodeStart = SystemClock.elapsedRealtimeNanos();
+        Bitmap decoded;
+        try (InputStream in = opener.open()) {
+            decoded = BitmapFactory.decodeStream(in, null, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap could not take this decode; fall back to a fresh allocation
+            bitmapPool.put(options.inBitmap);
+            options.inBitmap = null;
+            try (InputStream in = opener.open()) {
+                decoded = BitmapFactory.decodeStream(in, null, options);
+            }
+        }
+        if (decoded == null) {
+            throw new IOException("Failed to decode image");
+        }
+        Metrics.BITMAP_DECODE_US.recordMicrosSince(decodeStart);
+        long decodeDone = SystemClock.elapsedRealtime();
+        result.decodeMs = decodeDone - boundsDone;
+
+        Bitmap prepared = scaleAndRotate(decoded, params.maxEdge, orientation);
+        long transformDone = SystemClock.elapsedRealtime();
+        result.transformMs = transformDone - decodeDone;
+
+        try (FileOutputStream fos = new FileOutputStream(output)) {
+            prepared.compress(params.format, params.quality, fos);
+            fos.flush();
+        }
+        long encodeDone = SystemClock.elapsedRealtime();
+        result.encodeMs = encodeDone - transformDone;
+        result.encodedBytes = output.length();
+        encoder.recordEncode(params, result.sourceBytes, result.encodedBytes);
+
+        analyze(prepared, result);
+        result.analyzeMs = SystemClock.elapsedRealtime() - encodeDone;
+        result.preview = prepared;
+        result.uploadPath = output.getAbsolutePath();
+        return result;
+    }
+
+    // One pass over the prepared pixels feeds both the perceptual hash and the quality gate. Both,
+    // and the row buffer, are per preparer thread and reused across captures.
+    private void analyze(Bitmap bitmap, Result result) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] row = rowBuffer.get();
+        if (row == null || row.length < width) {
+            row = new int[width];
+            rowBuffer.set(row);
+        }
+        PerceptualHash perceptualHash = hasher.get();
+        CaptureQualityGate gate = qualityGate.get();
+        perceptualHash.reset(width, height);
+        gate.reset(width, height);
+        for (int y = 0; y < height; y++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            perceptualHash.addRow(row, 0, y);
+            gate.addRow(row, 0, y);
+        }
+        result.perceptualHash = perceptualHash.finish();
+        result.quality = gate.finish();
+    }
+
+    // Largest power of two that keeps the longer edge at or above maxEdge.
+    static int calculateInSampleSize(int width, int height, int maxEdge) {
+        int longEdge = Math.max(width, height);
+        int sampleSize = 1;
+        while (longEdge / (sampleSize * 2) >= maxEdge) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    static float scaleFor(int width, int height, int maxEdge) {
+        return Math.min(1f, Math.min((float) maxEdge / width, (float) maxEdge / height));
+    }
+
+    // Draws the decoded image into a pooled bitmap of the final size with one scale+orientation matrix.
+    private Bitmap scaleAndRotate(Bitmap source, int maxEdge, int orientation) {
+        Matrix matrix = new Matrix();
+        float scale = scaleFor(source.getWidth(), source.getHeight(), maxEdge);
+        if (scale < 1f) {
+            matrix.postScale(scale, scale);
+        }
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.postRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.postRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.postRotate(270);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.postScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.postRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.postRotate(270);
+                matrix.postScale(-1, 1);
+                break;
+            default:
+                break;
+        }
+        if (matrix.isIdentity() && source.isMutable()) {
+            return source;
+        }
+
+        RectF bounds = new RectF(0, 0, source.getWidth(), source.getHeight());
+        matrix.mapRect(bounds);
+        matrix.postTranslate(-bounds.left, -bounds.top);
+        int width = Math.max(1, Math.round(bounds.width()));
+        int height = Math.max(1, Math.round(bounds.height()));
+
+        Bitmap target = bitmapPool.get(width, height);
+        if (target != null) {
+            target.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+            target.eraseColor(Color.TRANSPARENT);
+        } else {
+            target = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        new Canvas(target).drawBitmap(source, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        bitmapPool.put(source);
+        return target;
+    }
+}
@@ -8,45 +8,84 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
-import org.json.JSONObject;
-
-import java.util.List;
+import java.util.TimeZone;
 import java.util.function.Consumer;
 
+// Binds straight from the windowed record pages into per-holder char buffers, so scrolling
+// does no boxing or string building. Rows whose page isn't resident bind as placeholders.
 public class InferenceAdapter extends RecyclerView.Adapter<InferenceAdapter.ViewHolder> {
 
-    private final List<JSONObject> dataList;
-    private final Consumer<JSONObject> onItemClick;
+    private static final char[] LOCATION_PREFIX = "Location: ".toCharArray();
+    private static final char[] UPLOADED_PREFIX = "Uploaded: ".toCharArray();
+    private static final char[] UNKNOWN_TIME = "Unknown Time".toCharArray();
+    private static final String LOADING = "Loading…";
+
+    private final WindowedInferenceSource source;
+    private final Consumer<String> onItemClick;
+    private final TimeZone timeZone = TimeZone.getDefault();
 
-    public InferenceAdapter(List<JSONObject> dataList, Consumer<JSONObject> onItemClick) {
-        this.dataList = dataList;
+    public InferenceAdapter(WindowedInferenceSource source, Consumer<String> onItemClick) {
+        this.source = source;
         this.onItemClick = onItemClick;
+        setHasStableIds(true);
     }
 
     @NonNull
     @Override
     public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         View view = LayoutInflater.from(parent.getContext()).inflate(android.R.layout.simple_list_item_2, parent, false);
-        return new ViewHolder(view);
+        ViewHolder holder = new ViewHolder(view);
+        view.setOnClickListener(v -> {
+            int position = holder.getBindingAdapterPosition();
+            if (position != RecyclerView.NO_POSITION && source.isLoaded(position)) {
+                onItemClick.accept(source.idHex(position));
+            }
+        });
+        return holder;
     }
 
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        JSONObject item = dataList.get(position);
-        String location = item.optString("location", "Unknown Location");
-        String uploadTime = item.optString("upload_time", "Unknown Time");
-        holder.text1.setText("Location: " + location);
-        holder.text2.setText("Uploaded: " + uploadTime);
-        holder.itemView.setOnClickListener(v -> onItemClick.accept(item));
+        source.onBind(position);
+        if (!source.isLoaded(position)) {
+            holder.text1.setText(LOADING);
+            holder.text2.setText(null);
+            return;
+        }
+        String location = source.location(position);
+        int length = LOCATION_PREFIX.length + location.length();
+        if (holder.line1.length < length) {
+            holder.line1 = new char[length * 2];
+        }
+        System.arraycopy(LOCATION_PREFIX, 0, holder.line1, 0, LOCATION_PREFIX.length);
+        location.getChars(0, location.length(), holder.line1, LOCATION_PREFIX.length);
+        holder.text1.setText(holder.line1, 0, length);
+
+        System.arraycopy(UPLOADED_PREFIX, 0, holder.line2, 0, UPLOADED_PREFIX.length);
+        long uploadTime = source.uploadTime(position);
+        if (uploadTime > 0) {
+            length = UPLOADED_PREFIX.length + UploadTimeFormat.format(uploadTime + timeZone.getOffset(uploadTime), holder.line2, UPLOADED_PREFIX.length);
+        } else {
+            System.arraycopy(UNKNOWN_TIME, 0, holder.line2, UPLOADED_PREFIX.length, UNKNOWN_TIME.length);
+            length = UPLOADED_PREFIX.length + UNKNOWN_TIME.length;
+        }
+        holder.text2.setText(holder.line2, 0, length);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return source.stableId(position);
     }
 
     @Override
     public int getItemCount() {
-        return dataList.size();
+        return source.size();
     }
 
     static class ViewHolder extends RecyclerView.ViewHolder {
         TextView text1, text2;
+        char[] line1 = new char[64];
+        final char[] line2 = new char[UPLOADED_PREFIX.length + UploadTimeFormat.LENGTH];
 
         ViewHolder(View itemView) {
             super(itemView);
@@ -54,4 +93,4 @@ public class InferenceAdapter extends RecyclerView.Adapter<InferenceAdapter.View
             text2 = itemView.findViewById(android.R.id.text2);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,60 @@
+package com.example.imageuploader;
+
+import android.os.SystemClock;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+// Parses /get-inference-batch responses into columnar pages on Volley's network thread, so the
+// main thread only appends arrays. List pages are served stale-while-revalidate, so a cached page
+// is delivered first and the revalidated one after it; listeners are told which is which.
+class InferenceBatchRequest extends Request<InferenceRecordStore.Page> {
+
+    interface Listener {
+        // fromCache: Volley's stored copy, up to the server's stale-while-revalidate window old,
+        // with the network's answer still to come (or an error). A stored copy that needs no
+        // refresh is final, so it isn't flagged.
+        void onPage(InferenceRecordStore.Page page, boolean fromCache);
+    }
+
+    private final InferencePageParser parser;
+    private final Listener listener;
+    // Volley parses a stored copy before it attaches the cache entry to the request, and attaches
+    // it before delivering that copy as an intermediate response. Network responses (304s
+    // included) are parsed with the entry already attached, or with none at all on a first fetch.
+    private volatile InferenceRecordStore.Page parsedWithoutEntry;
+
+    InferenceBatchRequest(String url, InferenceRecordStore.Dictionary dictionary,
+                          Listener listener, Response.ErrorListener errorListener) {
+        super(Method.GET, url, errorListener);
+        parser = new InferencePageParser(dictionary);
+        this.listener = listener;
+    }
+
+    @Override
+    protected Response<InferenceRecordStore.Page> parseNetworkResponse(NetworkResponse response) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        try {
+            InferenceRecordStore.Page page = parser.parse(new ByteArrayInputStream(response.data));
+            if (getCacheEntry() == null && !response.notModified) {
+                parsedWithoutEntry = page;
+            }
+            return Response.success(page, HttpHeaderParser.parseCacheHeaders(response));
+        } catch (IOException | RuntimeException e) {
+            return Response.error(new ParseError(e));
+        } finally {
+            Metrics.JSON_PARSE_US.recordMicrosSince(start);
+        }
+    }
+
+    @Override
+    protected void deliverResponse(InferenceRecordStore.Page page) {
+        listener.onPage(page, page == parsedWithoutEntry && getCacheEntry() != null);
+    }
+}
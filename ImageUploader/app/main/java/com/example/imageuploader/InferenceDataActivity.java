@@ -2,6 +2,7 @@ package com.example.imageuploader;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.View;
 import android.widget.ProgressBar;
@@ -12,24 +13,9 @@ import androidx.appcompat.widget.Toolbar;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.android.volley.Request;
 import com.android.volley.RequestQueue;
-import com.android.volley.Response;
-import com.android.volley.VolleyError;
-import com.android.volley.toolbox.JsonObjectRequest;
-import com.android.volley.toolbox.Volley;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
-import java.util.ArrayList;
-import java.util.List;
-
-import io.socket.client.IO;
-import io.socket.client.Socket;
-import io.socket.emitter.Emitter;
-
 public class InferenceDataActivity extends AppCompatActivity {
 
     private static final String TAG = "InferenceDataActivity";
@@ -37,17 +23,22 @@ public class InferenceDataActivity extends AppCompatActivity {
     private ProgressBar progressBar;
     private FloatingActionButton btnRefresh;
     private InferenceAdapter adapter;
-    private List<JSONObject> inferenceDataList;
+    private final InferenceRecordStore.Dictionary dictionary = new InferenceRecordStore.Dictionary();
     private RequestQueue queue;
     private String serverUrl;
-    private int totalItems = 0;
-    private int fetchedItems = 0;
-    private static final int BATCH_SIZE = 10;
-    private Socket socket;
+    private WindowedInferenceSource source;
+    private EventCoalescer newFileEvents;
+    private long createdAt;
+    private RealtimeConnection realtime;
+    private ItemPrefetcher prefetcher;
+    private final RealtimeConnection.Listener newFileListener =
+            (event, payload) -> newFileEvents.offer(payload != null ? payload.optString("document_id", null) : null);
+    private final RealtimeConnection.Listener gapListener = (event, payload) -> newFileEvents.requestCatchUp();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        createdAt = SystemClock.elapsedRealtime();
         setContentView(R.layout.activity_inference_data);
 
         Toolbar toolbar = findViewById(R.id.toolbar);
@@ -60,11 +51,6 @@ public class InferenceDataActivity extends AppCompatActivity {
         recyclerView = findViewById(R.id.recyclerView);
         progressBar = findViewById(R.id.progressBar);
         btnRefresh = findViewById(R.id.btnRefresh);
-        inferenceDataList = new ArrayList<>();
-        adapter = new InferenceAdapter(inferenceDataList, this::onItemClick);
-
-        recyclerView.setLayoutManager(new LinearLayoutManager(this));
-        recyclerView.setAdapter(adapter);
 
         serverUrl = getIntent().getStringExtra("serverUrl");
         if (serverUrl == null || serverUrl.isEmpty()) {
@@ -74,131 +60,103 @@ public class InferenceDataActivity extends AppCompatActivity {
             return;
         }
 
-        queue = Volley.newRequestQueue(this);
+        queue = HttpClient.getInstance(this).getRequestQueue();
+        source = new WindowedInferenceSource(queue, serverUrl, this, dictionary,
+                InferenceMirror.getInstance(this, serverUrl), new SourceListener());
+        adapter = new InferenceAdapter(source, this::onItemClick);
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        recyclerView.setAdapter(adapter);
+        prefetcher = ItemPrefetcher.getInstance(this);
+        prefetcher.attach(recyclerView, serverUrl,
+                position -> position < source.size() && source.isLoaded(position) ? source.idHex(position) : null);
+
+        newFileEvents = new EventCoalescer(TAG, EventCoalescer.DEFAULT_WINDOW_MS, EventCoalescer.DEFAULT_MAX_DELAY_MS,
+                this::onNewFiles);
         setupSocket();
-        fetchData();
+        source.start();
 
-        btnRefresh.setOnClickListener(v -> {
-            inferenceDataList.clear();
-            adapter.notifyDataSetChanged();
-            fetchedItems = 0;
-            fetchData();
-        });
+        btnRefresh.setOnClickListener(v -> refresh());
     }
 
+    // Events come straight from the socket thread; the coalescer hands batches to the main
+    // thread. Events missed while disconnected are replayed by the connection, and only a gap
+    // it can't replay needs a catch-up sync.
     private void setupSocket() {
-        try {
-            socket = IO.socket(serverUrl);
-            socket.on(Socket.EVENT_CONNECT, new Emitter.Listener() {
-                @Override
-                public void call(Object... args) {
-                    runOnUiThread(() -> Log.d(TAG, "Socket.IO connected"));
-                }
-            });
-            socket.on("new_file", new Emitter.Listener() {
-                @Override
-                public void call(Object... args) {
-                    runOnUiThread(() -> {
-                        Toast.makeText(InferenceDataActivity.this, "New file uploaded", Toast.LENGTH_SHORT).show();
-                        fetchData();
-                    });
-                }
-            });
-            socket.on(Socket.EVENT_DISCONNECT, new Emitter.Listener() {
-                @Override
-                public void call(Object... args) {
-                    runOnUiThread(() -> Log.d(TAG, "Socket.IO disconnected"));
-                }
-            });
-            socket.connect();
-        } catch (Exception e) {
-            Log.e(TAG, "Socket.IO setup error: " + e.getMessage(), e);
-        }
+        realtime = RealtimeConnection.getInstance();
+        realtime.addListener("new_file", newFileListener);
+        realtime.addListener(RealtimeConnection.EVENT_GAP, gapListener);
+        realtime.connect(serverUrl);
     }
 
-    private void fetchData() {
-        fetchTotalCount();
+    // One tail sync per batch of new_file events, skipped when every id is already shown.
+    private void onNewFiles(EventCoalescer.Batch batch) {
+        int unseen = 0;
+        for (String documentId : batch.ids) {
+            if (!source.contains(documentId)) {
+                unseen++;
+            }
+        }
+        if (!batch.catchUp && unseen == 0 && !batch.ids.isEmpty()) {
+            newFileEvents.done();
+            return;
+        }
+        if (unseen > 0) {
+            Toast.makeText(this, unseen == 1 ? "New file uploaded" : unseen + " new files uploaded", Toast.LENGTH_SHORT).show();
+        }
+        source.syncTail(() -> {
+            newFileEvents.done();
+            newFileEvents.logStats();
+        });
     }
 
-    private void fetchTotalCount() {
-        String url = serverUrl.endsWith("/") ? serverUrl + "get-inference-count" : serverUrl + "/get-inference-count";
-        JsonObjectRequest request = new JsonObjectRequest(Request.Method.GET, url, null,
-                response -> {
-                    try {
-                        totalItems = response.getInt("count");
-                        Log.d(TAG, "Total items: " + totalItems);
-                        if (totalItems == 0) {
-                            Toast.makeText(this, "No data available", Toast.LENGTH_SHORT).show();
-                            progressBar.setVisibility(View.GONE);
-                            return;
-                        }
-                        progressBar.setMax(totalItems);
-                        progressBar.setProgress(0);
-                        progressBar.setVisibility(View.VISIBLE);
-                        fetchBatch(0);
-                    } catch (Exception e) {
-                        Log.e(TAG, "Count error: " + e.getMessage(), e);
-                        Toast.makeText(this, "Error fetching count: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                        progressBar.setVisibility(View.GONE);
-                    }
-                },
-                error -> {
-                    String errorMsg = error.getMessage() != null ? error.getMessage() : "Unknown error";
-                    Log.e(TAG, "Count fetch error: " + errorMsg, error);
-                    Toast.makeText(this, "Failed to fetch count: " + errorMsg, Toast.LENGTH_LONG).show();
-                    progressBar.setVisibility(View.GONE);
-                });
-        queue.add(request);
+    private void refresh() {
+        source.logStats();
+        HttpClient.getInstance(this).logStats();
+        source.refresh();
     }
 
-    private void fetchBatch(int startIndex) {
-        if (startIndex >= totalItems) {
-            progressBar.setVisibility(View.GONE);
-            Log.d(TAG, "All items fetched");
-            return;
+    // Rows stay in place as records only ever arrive at the end, so pages landing and a total
+    // that grew are plain change and insert notifications; no list-wide diff is needed.
+    private class SourceListener implements WindowedInferenceSource.Listener {
+        @Override
+        public void onRangeChanged(int start, int count) {
+            adapter.notifyItemRangeChanged(start, count);
+            prefetcher.refresh();
+        }
+
+        @Override
+        public void onCountChanged(int oldCount, int newCount) {
+            if (newCount > oldCount) {
+                adapter.notifyItemRangeInserted(oldCount, newCount - oldCount);
+            } else {
+                adapter.notifyItemRangeRemoved(newCount, oldCount - newCount);
+            }
+            if (newCount == 0) {
+                Toast.makeText(InferenceDataActivity.this, "No data available", Toast.LENGTH_SHORT).show();
+            }
+            Log.d(TAG, "Item count: " + oldCount + " -> " + newCount);
+        }
+
+        @Override
+        public void onLoadingChanged(boolean loading) {
+            progressBar.setIndeterminate(true);
+            progressBar.setVisibility(loading ? View.VISIBLE : View.GONE);
         }
 
-        int limit = Math.min(BATCH_SIZE, totalItems - startIndex);
-        String url = serverUrl.endsWith("/")
-                ? serverUrl + "get-inference-batch?start=" + startIndex + "&limit=" + limit
-                : serverUrl + "/get-inference-batch?start=" + startIndex + "&limit=" + limit;
-
-        JsonObjectRequest request = new JsonObjectRequest(Request.Method.GET, url, null,
-                response -> {
-                    try {
-                        JSONArray items = response.getJSONArray("items");
-                        int itemsFetched = items.length();
-                        for (int i = 0; i < itemsFetched; i++) {
-                            inferenceDataList.add(items.getJSONObject(i));
-                        }
-                        adapter.notifyItemRangeInserted(fetchedItems, itemsFetched);
-                        fetchedItems += itemsFetched;
-                        progressBar.setProgress(fetchedItems);
-                        Log.d(TAG, "Fetched batch: " + itemsFetched + " items, total: " + fetchedItems);
-                        fetchBatch(startIndex + itemsFetched);
-                    } catch (Exception e) {
-                        Log.e(TAG, "Batch parse error: " + e.getMessage(), e);
-                        Toast.makeText(this, "Error parsing batch: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                        fetchBatch(startIndex + BATCH_SIZE);
-                    }
-                },
-                error -> {
-                    String errorMsg = error.getMessage() != null ? error.getMessage() : "Unknown error";
-                    Log.e(TAG, "Batch fetch error: " + errorMsg, error);
-                    Toast.makeText(this, "Failed to fetch batch: " + errorMsg, Toast.LENGTH_LONG).show();
-                    fetchBatch(startIndex + BATCH_SIZE);
-                });
-        queue.add(request);
+        @Override
+        public void onFirstRows(String from) {
+            Log.d(TAG, "Time to first row: " + (SystemClock.elapsedRealtime() - createdAt) + " ms (from " + from + ")");
+            reportFullyDrawn();
+        }
+
+        @Override
+        public void onError(String message) {
+            Toast.makeText(InferenceDataActivity.this, message, Toast.LENGTH_LONG).show();
+        }
     }
 
-    private void onItemClick(JSONObject item) {
+    private void onItemClick(String itemId) {
         try {
-            String itemId = item.optString("_id", null);
-            if (itemId == null) {
-                Log.e(TAG, "No _id found in item: " + item.toString());
-                Toast.makeText(this, "Invalid item data", Toast.LENGTH_SHORT).show();
-                return;
-            }
             Log.d(TAG, "Item clicked, _id: " + itemId);
             Intent intent = new Intent(this, ImageInferenceActivity.class);
             intent.putExtra("itemId", itemId);
@@ -213,9 +171,22 @@ public class InferenceDataActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (socket != null) {
-            socket.disconnect();
-            socket.off();
+        if (newFileEvents != null) {
+            newFileEvents.close();
+        }
+        if (source != null) {
+            source.cancel();
+        }
+        if (prefetcher != null) {
+            prefetcher.detach(recyclerView);
+        }
+        if (queue != null) {
+            queue.cancelAll(this);
+        }
+        if (realtime != null) {
+            realtime.removeListener("new_file", newFileListener);
+            realtime.removeListener(RealtimeConnection.EVENT_GAP, gapListener);
+            realtime.logStats();
         }
     }
 
@@ -0,0 +1,408 @@
+package com.example.imageuploader;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+// Loads item detail as two requests: small metadata parsed with a streaming JsonReader, and
+// the image as raw bytes decoded straight from the socket while being written to the disk cache.
+// Metadata goes through the HTTP cache, so an unchanged unprocessed record costs a 304.
+class InferenceItemLoader {
+
+    private static final String TAG = "InferenceItemLoader";
+    private static final int DRAIN_BUFFER_SIZE = 8 * 1024;
+    private static final int BOUNDS_MARK_LIMIT = 64 * 1024;
+
+    interface MetadataCallback {
+        void onMetadata(JSONObject metadata);
+
+        void onError(String message);
+    }
+
+    interface ImageCallback {
+        // The bitmap comes pinned under ImageCache.key(itemId, variant); unpin it once it's no
+        // longer shown.
+        void onImage(Bitmap bitmap);
+
+        void onError(String message);
+    }
+
+    private final OkHttpClient client;
+    private final OkHttpClient metadataClient;
+    private final ImageCache imageCache;
+    private final BitmapPool bitmapPool;
+    private final String serverUrl;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Call> calls = new ArrayList<>();
+    private volatile boolean cancelled;
+
+    InferenceItemLoader(Context context, String serverUrl) {
+        this.client = HttpClient.getInstance(context).getOkHttpClient();
+        this.metadataClient = HttpClient.getInstance(context).getCachingClient();
+        this.imageCache = ImageCache.getInstance(context);
+        this.bitmapPool = BitmapPool.getInstance(context);
+        this.serverUrl = serverUrl.endsWith("/") ? serverUrl : serverUrl + "/";
+    }
+
+    static String variantFor(JSONObject metadata) {
+        return metadata.optBoolean("processed", false) ? ImageCache.VARIANT_PROCESSED : ImageCache.VARIANT_ORIGINAL;
+    }
+
+    void loadMetadata(String itemId, MetadataCallback callback) {
+        imageCache.getMetadata(itemId, cached -> {
+            if (cancelled) return;
+            if (cached != null) {
+                try {
+                    callback.onMetadata(new JSONObject(cached));
+                    return;
+                } catch (JSONException e) {
+                    Log.w(TAG, "Ignoring unreadable cached metadata: " + e.getMessage());
+                }
+            }
+            fetchMetadata(itemId, callback);
+        });
+    }
+
+    private void fetchMetadata(String itemId, MetadataCallback callback) {
+        Request request = new Request.Builder()
+                .url(serverUrl + "get-inference-item?id=" + itemId + "&fields=meta")
+                .build();
+        enqueue(metadataClient, request, new okhttp3.Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                postError(callback::onError, "Failed to fetch data: " + e.getMessage());
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    ResponseBody body = r.body();
+                    if (!r.isSuccessful() || body == null) {
+                        postError(callback::onError, "Failed to fetch data (Status: " + r.code() + ")");
+                        return;
+                    }
+                    JSONObject metadata = parseItem(body.byteStream());
+                    if (metadata == null) {
+                        postError(callback::onError, "No item in response");
+                        return;
+                    }
+                    // Processed records are final, so their metadata can be served from cache next time
+                    if (metadata.optBoolean("processed", false)) {
+                        imageCache.putMetadata(itemId, metadata.toString());
+                    }
+                    mainHandler.post(() -> {
+                        if (!cancelled) callback.onMetadata(metadata);
+                    });
+                } catch (IOException | JSONException e) {
+                    Log.e(TAG, "Parse error: " + e.getMessage(), e);
+                    postError(callback::onError, "Error parsing data: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    void loadImage(String itemId, String variant, ImageCallback callback) {
+        String key = ImageCache.key(itemId, variant);
+        imageCache.getPinnedBitmap(key, bitmap -> {
+            if (cancelled) {
+                if (bitmap != null) imageCache.unpin(key);
+                return;
+            }
+            if (bitmap != null) {
+                callback.onImage(bitmap);
+            } else {
+                fetchImage(itemId, variant, key, callback, true);
+            }
+        });
+    }
+
+    private void fetchImage(String itemId, String variant, String key, ImageCallback callback, boolean allowResume) {
+        DiskCache diskCache = imageCache.getDiskCache();
+        File partial = diskCache.partialFile(key);
+        File etagFile = new File(partial.getPath() + ".etag");
+        long resumeFrom = allowResume && partial.exists() && etagFile.exists() ? partial.length() : 0;
+
+        Request.Builder builder = new Request.Builder()
+                .url(serverUrl + "get-inference-image?id=" + itemId + "&variant=" + variant);
+        if (resumeFrom > 0) {
+            String etag = readSmallFile(etagFile);
+            if (etag != null) {
+                builder.header("Range", "bytes=" + resumeFrom + "-");
+                builder.header("If-Range", etag);
+            } else {
+                resumeFrom = 0;
+            }
+        }
+        long offset = resumeFrom;
+
+        enqueue(client, builder.build(), new okhttp3.Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                postError(callback::onError, "Failed to fetch image: " + e.getMessage());
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    ResponseBody body = r.body();
+                    if (r.code() == 416 && offset > 0) {
+                        partial.delete();
+                        fetchImage(itemId, variant, key, callback, false);
+                        return;
+                    }
+                    if (!r.isSuccessful() || body == null) {
+                        postError(callback::onError, "Failed to fetch image (Status: " + r.code() + ")");
+                        return;
+                    }
+                    boolean append = r.code() == 206 && offset > 0;
+                    String etag = r.header("ETag");
+                    if (!append) {
+                        if (etag != null) {
+                            writeSmallFile(etagFile, etag);
+                        } else {
+                            etagFile.delete();
+                        }
+                    }
+
+                    Bitmap bitmap;
+                    try (OutputStream out = new FileOutputStream(partial, append)) {
+                        InputStream source = new TeeInputStream(body.byteStream(), out);
+                        if (append) {
+                            source = new SequenceInputStream(new FileInputStream(partial), source);
+                        }
+                        bitmap = decodePooled(new BufferedInputStream(source, BOUNDS_MARK_LIMIT));
+                        // The decoder may stop before the end of the stream; keep the full file for the cache
+                        byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+                        while (source.read(buffer) != -1) {
+                            // drain
+                        }
+                        source.close();
+                    }
+                    etagFile.delete();
+                    diskCache.commit(key, partial);
+                    Log.d(TAG, "Fetched " + variant + " for " + itemId + (append ? " (resumed at " + offset + ")" : ""));
+                    if (bitmap == null) {
+                        bitmap = imageCache.decodeFromDisk(key);
+                    }
+
+                    if (bitmap == null) {
+                        postError(callback::onError, "Failed to decode image");
+                        return;
+                    }
+                    imageCache.putPinnedBitmap(key, bitmap);
+                    mainHandler.post(() -> {
+                        if (cancelled) {
+                            imageCache.unpin(key);
+                        } else {
+                            callback.onImage(bitmap);
+                        }
+                    });
+                } catch (IOException e) {
+                    Log.w(TAG, "Image download interrupted, " + partial.length() + " bytes kept: " + e.getMessage());
+                    postError(callback::onError, "Failed to fetch image: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    // Reads the bounds from the buffered head of the stream, then decodes into a pooled bitmap.
+    // Returns null if the header did not fit in the mark window; the caller decodes from disk instead.
+    private Bitmap decodePooled(BufferedInputStream in) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        try {
+            return decodeMarked(in);
+        } finally {
+            Metrics.BITMAP_DECODE_US.recordMicrosSince(start);
+        }
+    }
+
+    private Bitmap decodeMarked(BufferedInputStream in) {
+        in.mark(BOUNDS_MARK_LIMIT);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeStream(in, null, options);
+        try {
+            in.reset();
+        } catch (IOException e) {
+            return null;
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+        options.inJustDecodeBounds = false;
+        bitmapPool.applyInBitmap(options, options.outWidth, options.outHeight);
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } catch (IllegalArgumentException e) {
+            bitmapPool.put(options.inBitmap);
+            return null;
+        }
+    }
+
+    void cancel() {
+        cancelled = true;
+        synchronized (calls) {
+            for (Call call : calls) {
+                call.cancel();
+            }
+            calls.clear();
+        }
+    }
+
+    private void enqueue(OkHttpClient via, Request request, okhttp3.Callback callback) {
+        Call call = via.newCall(request);
+        synchronized (calls) {
+            if (cancelled) return;
+            calls.add(call);
+        }
+        call.enqueue(callback);
+    }
+
+    private void postError(Consumer<String> onError, String message) {
+        mainHandler.post(() -> {
+            if (!cancelled) onError.accept(message);
+        });
+    }
+
+    // Reads {"item": {...}} without ever materializing the base64 image fields.
+    static JSONObject parseItem(InputStream in) throws IOException, JSONException {
+        JSONObject item = null;
+        try (JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("item") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    item = new JSONObject();
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String name = reader.nextName();
+                        if (name.equals(ImageCache.VARIANT_PROCESSED) || name.equals(ImageCache.VARIANT_ORIGINAL)) {
+                            reader.skipValue();
+                        } else {
+                            item.put(name, readValue(reader));
+                        }
+                    }
+                    reader.endObject();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        return item;
+    }
+
+    private static Object readValue(JsonReader reader) throws IOException, JSONException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                JSONObject object = new JSONObject();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    object.put(reader.nextName(), readValue(reader));
+                }
+                reader.endObject();
+                return object;
+            case BEGIN_ARRAY:
+                JSONArray array = new JSONArray();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    array.put(readValue(reader));
+                }
+                reader.endArray();
+                return array;
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NUMBER:
+                String number = reader.nextString();
+                if (number.indexOf('.') >= 0 || number.indexOf('e') >= 0 || number.indexOf('E') >= 0) {
+                    return Double.parseDouble(number);
+                }
+                return Long.parseLong(number);
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            default:
+                return reader.nextString();
+        }
+    }
+
+    private static String readSmallFile(File file) {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] data = new byte[(int) Math.min(file.length(), 256)];
+            int length = in.read(data);
+            return length > 0 ? new String(data, 0, length, StandardCharsets.UTF_8) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeSmallFile(File file, String value) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(value.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    // Copies everything read from the network into the cache file as the decoder consumes it.
+    private static class TeeInputStream extends FilterInputStream {
+        private final OutputStream copy;
+
+        TeeInputStream(InputStream in, OutputStream copy) {
+            super(in);
+            this.copy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) copy.write(b);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int bytesRead = super.read(buffer, offset, length);
+            if (bytesRead > 0) copy.write(buffer, offset, bytesRead);
+            return bytesRead;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(n, DRAIN_BUFFER_SIZE)];
+            int bytesRead = read(buffer, 0, buffer.length);
+            return Math.max(bytesRead, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package com.example.imageuploader;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+// Local copy of the inference list metadata, so the list renders before (or without) the
+// server. Rows are keyed by the hex _id, which sorts like the ObjectId itself, so pages read
+// from here line up with /get-inference-batch pages. Every page fetched from the server is
+// reconciled into it: rows in the id range it covers are replaced wholesale, which also
+// drops records deleted on the server. The per-location summary rollups are kept in step:
+// built from the table once at startup, then updated by each reconcile. Each server gets its own
+// database file, named after a hash of its normalized URL, so rows and the sweep cursor from one
+// server never show up for another. All database work runs on one background thread.
+class InferenceMirror extends SQLiteOpenHelper {
+
+    private static final String TAG = "InferenceMirror";
+    private static final String DATABASE_PREFIX = "inference_mirror_";
+    // The single, unkeyed database of earlier versions.
+    private static final String LEGACY_DATABASE_NAME = "inference_mirror.db";
+    private static final int DATABASE_VERSION = 1;
+    private static final String SWEEP_CURSOR = "sweep_cursor";
+    private static final String[] PAGE_COLUMNS = {"_id", "location", "upload_time", "processed", "summary"};
+
+    private static InferenceMirror instance;
+    // Shared by the mirrors of every server, so switching servers doesn't leave a thread behind.
+    private static final ExecutorService dbExecutor = Executors.newSingleThreadExecutor();
+
+    private final String serverKey;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicLong pageReads = new AtomicLong();
+    private final AtomicLong readMs = new AtomicLong();
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private final AtomicLong rowsDeleted = new AtomicLong();
+    private final SummaryRollups rollups = new SummaryRollups(TimeZone.getDefault());
+    private final byte[] idScratch = new byte[InferenceRecordStore.ID_BYTES];
+
+    // The mirror of the given server. Opening another server's closes the previous one; its file
+    // stays, for when that server is used again.
+    static synchronized InferenceMirror getInstance(Context context, String serverUrl) {
+        String key = serverKey(serverUrl);
+        if (instance == null) {
+            context.deleteDatabase(LEGACY_DATABASE_NAME);
+        } else if (!instance.serverKey.equals(key)) {
+            dbExecutor.execute(instance::close);
+            instance = null;
+        }
+        if (instance == null) {
+            instance = new InferenceMirror(context.getApplicationContext(), key);
+        }
+        return instance;
+    }
+
+    private InferenceMirror(Context context, String serverKey) {
+        super(context, DATABASE_PREFIX + serverKey + ".db", null, DATABASE_VERSION);
+        this.serverKey = serverKey;
+        dbExecutor.execute(this::loadRollups);
+    }
+
+    // Server URLs are a scheme, host and port, none of them case-sensitive, and a trailing slash
+    // doesn't change the server, so "HTTP://Host:5000/" and "http://host:5000" share a mirror.
+    static String serverKey(String serverUrl) {
+        String normalized = serverUrl.trim().toLowerCase(Locale.ROOT);
+        while (normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(normalized.getBytes(StandardCharsets.UTF_8));
+            return InferenceRecordStore.toHex(digest, 0);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE records ("
+                + "_id TEXT PRIMARY KEY NOT NULL, "
+                + "location TEXT NOT NULL, "
+                + "upload_time INTEGER NOT NULL, "
+                + "processed INTEGER NOT NULL DEFAULT 0, "
+                + "summary TEXT)");
+        db.execSQL("CREATE INDEX records_upload_time ON records (upload_time)");
+        db.execSQL("CREATE INDEX records_location ON records (location, upload_time)");
+        db.execSQL("CREATE TABLE meta (key TEXT PRIMARY KEY NOT NULL, value TEXT)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Everything here can be refetched, so an old schema is simply dropped.
+        db.execSQL("DROP TABLE IF EXISTS records");
+        db.execSQL("DROP TABLE IF EXISTS meta");
+        onCreate(db);
+    }
+
+    void count(IntConsumer callback) {
+        dbExecutor.execute(() -> {
+            int count;
+            try {
+                count = (int) DatabaseUtils.queryNumEntries(getReadableDatabase(), "records");
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Count failed: " + e.getMessage(), e);
+                count = 0;
+            }
+            int result = count;
+            mainHandler.post(() -> callback.accept(result));
+        });
+    }
+
+    // Reads the records after afterHex, or from offset when no id is known; delivers null when
+    // there's nothing stored for that range.
+    void readPage(String afterHex, int offset, int limit, InferenceRecordStore.Dictionary dictionary,
+                  Consumer<InferenceRecordStore.Page> callback) {
+        dbExecutor.execute(() -> {
+            long start = SystemClock.elapsedRealtime();
+            InferenceRecordStore.Page page = null;
+            String selection = afterHex != null ? "_id > ?" : null;
+            String[] args = afterHex != null ? new String[]{afterHex} : null;
+            String limitClause = afterHex != null ? String.valueOf(limit) : offset + "," + limit;
+            try (Cursor cursor = getReadableDatabase().query("records", PAGE_COLUMNS, selection, args,
+                    null, null, "_id", limitClause)) {
+                page = toPage(cursor, dictionary);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Page read failed: " + e.getMessage(), e);
+            }
+            pageReads.incrementAndGet();
+            readMs.addAndGet(SystemClock.elapsedRealtime() - start);
+            InferenceRecordStore.Page result = page;
+            mainHandler.post(() -> callback.accept(result));
+        });
+    }
+
+    // Replaces the stored rows in the range a server page covers. A page fetched by cursor
+    // covers everything after afterHex (or from the start when it's null and the page wasn't
+    // fetched by offset); an offset page covers from its first record. A short page was the
+    // end of the collection, so its range is open-ended.
+    void reconcile(String afterHex, boolean byOffset, InferenceRecordStore.Page page, int limit,
+                   InferenceRecordStore.Dictionary dictionary) {
+        dbExecutor.execute(() -> {
+            try {
+                write(afterHex, byOffset, page, limit, dictionary, false);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Reconcile failed: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    // Background pass over the whole collection, one page at a time and resumable across
+    // launches, so records that are never scrolled to still converge (e.g. once processed).
+    void loadSweepCursor(Consumer<String> callback) {
+        dbExecutor.execute(() -> {
+            String cursor = null;
+            try (Cursor c = getReadableDatabase().query("meta", new String[]{"value"}, "key = ?",
+                    new String[]{SWEEP_CURSOR}, null, null, null)) {
+                if (c.moveToFirst()) {
+                    cursor = c.getString(0);
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Sweep cursor read failed: " + e.getMessage(), e);
+            }
+            String result = cursor;
+            mainHandler.post(() -> callback.accept(result));
+        });
+    }
+
+    // Reconciles one sweep page and moves the cursor past it; a short page ends the pass, and
+    // the next one starts from the beginning.
+    void reconcileSweep(String afterHex, InferenceRecordStore.Page page, int limit,
+                        InferenceRecordStore.Dictionary dictionary) {
+        dbExecutor.execute(() -> {
+            try {
+                write(afterHex, false, page, limit, dictionary, true);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Sweep reconcile failed: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    // Delivers the location's summary trend, or null if nothing is stored for it. Queued behind
+    // the startup load and any pending reconciles, so it reflects everything synced so far.
+    void loadTrend(String location, int resolution, Consumer<SummaryRollups.Trend> callback) {
+        dbExecutor.execute(() -> {
+            SummaryRollups.Trend trend = rollups.trend(location, resolution);
+            mainHandler.post(() -> callback.accept(trend));
+        });
+    }
+
+    void logStats() {
+        long reads = pageReads.get();
+        Log.d(TAG, "page reads=" + reads + " avg read ms=" + (reads > 0 ? readMs.get() / reads : 0)
+                + " rows written=" + rowsWritten.get() + " rows deleted=" + rowsDeleted.get()
+                + " rollups: " + rollups.describe());
+    }
+
+    private void loadRollups() {
+        long start = SystemClock.elapsedRealtime();
+        try (Cursor cursor = getReadableDatabase().query("records", new String[]{"_id", "location", "upload_time", "summary"},
+                null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                Long key = rollupKey(cursor.getString(0));
+                if (key != null) {
+                    rollups.fold(key, cursor.getString(1), cursor.getLong(2), cursor.isNull(3) ? null : cursor.getString(3));
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Rollup load failed: " + e.getMessage(), e);
+        }
+        Log.d(TAG, "Rollups built from " + rollups.size() + " records in " + (SystemClock.elapsedRealtime() - start) + " ms");
+    }
+
+    private Long rollupKey(String idHex) {
+        if (!InferenceRecordStore.parseHex(idHex, idScratch, 0)) return null;
+        return InferenceRecordStore.stableId(idScratch, 0);
+    }
+
+    private void write(String afterHex, boolean byOffset, InferenceRecordStore.Page page, int limit,
+                       InferenceRecordStore.Dictionary dictionary, boolean sweep) {
+        if (byOffset && page.size == 0) return;
+        SQLiteDatabase db = getWritableDatabase();
+        StringBuilder where = new StringBuilder();
+        String lower = byOffset ? page.idHex(0) : afterHex;
+        String upper = page.size == limit ? page.idHex(page.size - 1) : null;
+        String[] args = lower != null && upper != null ? new String[]{lower, upper}
+                : lower != null ? new String[]{lower} : upper != null ? new String[]{upper} : null;
+        if (lower != null) {
+            where.append(byOffset ? "_id >= ?" : "_id > ?");
+        }
+        if (upper != null) {
+            where.append(where.length() > 0 ? " AND " : "").append("_id <= ?");
+        }
+
+        String selection = where.length() > 0 ? where.toString() : null;
+        List<String> replaced = new ArrayList<>();
+        boolean committed = false;
+        db.beginTransaction();
+        try {
+            try (Cursor cursor = db.query("records", new String[]{"_id"}, selection, args, null, null, null)) {
+                while (cursor.moveToNext()) {
+                    replaced.add(cursor.getString(0));
+                }
+            }
+            int deleted = db.delete("records", selection, args);
+            SQLiteStatement insert = db.compileStatement(
+                    "INSERT OR REPLACE INTO records (_id, location, upload_time, processed, summary) VALUES (?, ?, ?, ?, ?)");
+            for (int i = 0; i < page.size; i++) {
+                insert.clearBindings();
+                insert.bindString(1, page.idHex(i));
+                insert.bindString(2, dictionary.name(page.locations[i]));
+                insert.bindLong(3, page.uploadTimes[i]);
+                insert.bindLong(4, page.processed[i] ? 1 : 0);
+                if (page.summaries[i] != null) {
+                    insert.bindString(5, page.summaries[i]);
+                }
+                insert.executeInsert();
+            }
+            insert.close();
+            if (sweep) {
+                ContentValues values = new ContentValues();
+                values.put("key", SWEEP_CURSOR);
+                values.put("value", upper);
+                db.insertWithOnConflict("meta", null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+            committed = true;
+            rowsDeleted.addAndGet(Math.max(0, deleted - page.size));
+            rowsWritten.addAndGet(page.size);
+        } finally {
+            db.endTransaction();
+        }
+        if (!committed) return;
+        // Everything the range held comes out of the rollups and the page goes back in, which
+        // drops deleted records and replaces changed ones.
+        for (String idHex : replaced) {
+            Long key = rollupKey(idHex);
+            if (key != null) {
+                rollups.remove(key);
+            }
+        }
+        for (int i = 0; i < page.size; i++) {
+            rollups.fold(InferenceRecordStore.stableId(page.ids, i * InferenceRecordStore.ID_BYTES),
+                    dictionary.name(page.locations[i]), page.uploadTimes[i], page.summaries[i]);
+        }
+    }
+
+    private static InferenceRecordStore.Page toPage(Cursor cursor, InferenceRecordStore.Dictionary dictionary) {
+        int size = cursor.getCount();
+        if (size == 0) return null;
+        byte[] ids = new byte[size * InferenceRecordStore.ID_BYTES];
+        long[] uploadTimes = new long[size];
+        int[] locations = new int[size];
+        boolean[] processed = new boolean[size];
+        String[] summaries = new String[size];
+        int count = 0;
+        while (cursor.moveToNext()) {
+            if (!InferenceRecordStore.parseHex(cursor.getString(0), ids, count * InferenceRecordStore.ID_BYTES)) continue;
+            locations[count] = dictionary.intern(cursor.getString(1));
+            uploadTimes[count] = cursor.getLong(2);
+            processed[count] = cursor.getInt(3) != 0;
+            summaries[count] = cursor.isNull(4) ? null : cursor.getString(4);
+            count++;
+        }
+        return new InferenceRecordStore.Page(count, ids, uploadTimes, locations, processed, summaries, new String[0], -1);
+    }
+}
@@ -0,0 +1,280 @@
+package com.example.imageuploader;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+// Keyset pager for /get-inference-batch, fetching runs of a list's fixed-size pages. A run's head
+// request asks the server for the cursors of the requests after it (ahead/stride), which then go
+// out in parallel; the last of them is the next head. Each request spans whole list pages, how
+// many adapting to measured latency, and network pages are delivered in list order.
+class InferencePager {
+
+    private static final String TAG = "InferencePager";
+    static final int DEFAULT_WINDOW = 4;
+    static final int MAX_ATTEMPTS = 3;
+    private static final int MAX_PAGES_PER_REQUEST = 4;
+    private static final long TARGET_REQUEST_LATENCY_MS = 400;
+
+    interface Listener {
+        // One list page. after is the id it follows, null for the first page or one fetched by
+        // position (byOffset). fromCache as in InferenceBatchRequest: a stored copy, delivered as
+        // soon as it's read, with the network's copy still to come in order.
+        void onPage(Run run, int page, String after, boolean byOffset, InferenceRecordStore.Page records,
+                    boolean fromCache);
+
+        // Every request finished. Pages past the end of the list are never delivered.
+        void onDone(Run run);
+
+        void onError(Run run, String message);
+    }
+
+    // A contiguous range of list pages; lastPage is Integer.MAX_VALUE to run to the end.
+    class Run {
+        final int firstPage;
+        final int lastPage;
+        private final boolean count;
+        private final int maxAttempts;
+        private final Listener listener;
+        private final TreeMap<Integer, Chunk> completed = new TreeMap<>();
+        private final List<Chunk> inFlight = new ArrayList<>();
+        // Requests held back while paused.
+        private final List<Chunk> deferred = new ArrayList<>();
+        private int nextSequence;
+        private int nextToDeliver;
+        private boolean ended;
+        private boolean paused;
+        private boolean cancelled;
+
+        private Run(int firstPage, int lastPage, boolean count, int maxAttempts, Listener listener) {
+            this.firstPage = firstPage;
+            this.lastPage = lastPage;
+            this.count = count;
+            this.maxAttempts = maxAttempts;
+            this.listener = listener;
+        }
+
+        boolean contains(int page) {
+            return page >= firstPage && page <= lastPage;
+        }
+
+        // Requests already sent finish and are delivered; no new ones go out until resume().
+        void pause() {
+            paused = true;
+        }
+
+        void resume() {
+            if (!paused || cancelled) return;
+            paused = false;
+            List<Chunk> held = new ArrayList<>(deferred);
+            deferred.clear();
+            for (Chunk chunk : held) {
+                schedule(this, chunk);
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            for (Chunk chunk : inFlight) {
+                chunk.request.cancel();
+            }
+            inFlight.clear();
+            deferred.clear();
+            completed.clear();
+        }
+    }
+
+    // One request: pages list pages from firstPage, after a cursor or, for a jump, by position.
+    private static class Chunk {
+        final int sequence;
+        final int firstPage;
+        final int pages;
+        final String after;
+        final boolean byOffset;
+        final int ahead;
+        final int stridePages;
+        int attempts;
+        Request<?> request;
+        InferenceRecordStore.Page response;
+
+        Chunk(int sequence, int firstPage, int pages, String after, boolean byOffset, int ahead, int stridePages) {
+            this.sequence = sequence;
+            this.firstPage = firstPage;
+            this.pages = pages;
+            this.after = after;
+            this.byOffset = byOffset;
+            this.ahead = ahead;
+            this.stridePages = stridePages;
+        }
+    }
+
+    private final RequestQueue queue;
+    private final String batchUrl;
+    private final Object tag;
+    private final int pageSize;
+    private final int window;
+    private final InferenceRecordStore.Dictionary dictionary;
+    private final boolean cache;
+    private int pagesPerRequest = 1;
+
+    // cache: whether responses go through Volley's cache, which is only worth it for pages that
+    // are shown.
+    InferencePager(RequestQueue queue, String serverUrl, Object tag, int pageSize, int window, boolean cache,
+                   InferenceRecordStore.Dictionary dictionary) {
+        this.queue = queue;
+        this.batchUrl = serverUrl.endsWith("/") ? serverUrl + "get-inference-batch" : serverUrl + "/get-inference-batch";
+        this.tag = tag;
+        this.pageSize = pageSize;
+        this.window = window;
+        this.cache = cache;
+        this.dictionary = dictionary;
+    }
+
+    int pagesPerRequest() {
+        return pagesPerRequest;
+    }
+
+    // Pages firstPage..lastPage. after is the id before firstPage when it's known; otherwise the
+    // head is asked for by position. count=1 is added so every response carries the total.
+    Run fetch(int firstPage, int lastPage, String after, boolean count, int maxAttempts, Listener listener) {
+        Run run = new Run(firstPage, lastPage, count, maxAttempts, listener);
+        schedule(run, head(run, firstPage, after, firstPage > 0 && after == null));
+        return run;
+    }
+
+    private Chunk head(Run run, int firstPage, String after, boolean byOffset) {
+        int pages = pagesLeft(run, firstPage, pagesPerRequest);
+        int rest = run.lastPage - (firstPage + pages - 1);
+        int ahead = rest <= 0 ? 0 : run.lastPage == Integer.MAX_VALUE ? window
+                : Math.min(window, (rest + pagesPerRequest - 1) / pagesPerRequest);
+        return new Chunk(run.nextSequence++, firstPage, pages, after, byOffset, ahead, pagesPerRequest);
+    }
+
+    private void schedule(Run run, Chunk chunk) {
+        if (run.paused) {
+            run.deferred.add(chunk);
+            return;
+        }
+        StringBuilder url = new StringBuilder(batchUrl).append("?limit=").append(chunk.pages * pageSize);
+        if (chunk.byOffset) {
+            url.append("&start=").append(chunk.firstPage * pageSize);
+        } else if (chunk.after != null) {
+            url.append("&after=").append(chunk.after);
+        }
+        if (chunk.ahead > 0) {
+            url.append("&ahead=").append(chunk.ahead).append("&stride=").append(chunk.stridePages * pageSize);
+        }
+        if (run.count) {
+            url.append("&count=1");
+        }
+        long requestedAt = SystemClock.elapsedRealtime();
+
+        InferenceBatchRequest request = new InferenceBatchRequest(url.toString(), dictionary,
+                (response, fromCache) -> {
+                    if (run.cancelled) return;
+                    if (fromCache) {
+                        // Shown while it's revalidated; cursors and ordering wait for the network.
+                        deliverPages(run, chunk, response, true);
+                        return;
+                    }
+                    run.inFlight.remove(chunk);
+                    long latencyMs = SystemClock.elapsedRealtime() - requestedAt;
+                    Metrics.BATCH_FETCH_MS.record(latencyMs);
+                    adaptPagesPerRequest(latencyMs);
+                    if (chunk.ahead > 0) {
+                        scheduleAhead(run, chunk, response);
+                    }
+                    chunk.response = response;
+                    run.completed.put(chunk.sequence, chunk);
+                    deliver(run);
+                },
+                error -> {
+                    Metrics.BATCH_FETCH_ERRORS.increment();
+                    if (run.cancelled) return;
+                    run.inFlight.remove(chunk);
+                    String errorMsg = error.getMessage() != null ? error.getMessage() : "Unknown error";
+                    Log.e(TAG, "Pages " + chunk.firstPage + "+" + chunk.pages + " fetch error: " + errorMsg, error);
+                    if (++chunk.attempts < run.maxAttempts) {
+                        schedule(run, chunk);
+                    } else {
+                        run.cancel();
+                        run.listener.onError(run, errorMsg);
+                    }
+                });
+        request.setTag(tag);
+        request.setShouldCache(cache);
+        chunk.request = request;
+        run.inFlight.add(chunk);
+        queue.add(request);
+    }
+
+    // cursors[i] is the id the i-th following request starts after; the last one becomes the
+    // next head if the run goes on past it. Fewer cursors than asked for means the list ends.
+    private void scheduleAhead(Run run, Chunk head, InferenceRecordStore.Page response) {
+        String[] cursors = response.cursors;
+        int firstPage = head.firstPage + head.pages;
+        for (int i = 0; i < cursors.length && firstPage <= run.lastPage; i++) {
+            int pages = pagesLeft(run, firstPage, head.stridePages);
+            boolean more = i == cursors.length - 1 && cursors.length == head.ahead && firstPage + pages <= run.lastPage;
+            Chunk chunk = more ? head(run, firstPage, cursors[i], false)
+                    : new Chunk(run.nextSequence++, firstPage, pages, cursors[i], false, 0, head.stridePages);
+            schedule(run, chunk);
+            firstPage += chunk.pages;
+        }
+    }
+
+    // Up to max pages from firstPage, without overflowing on a run to the end.
+    private static int pagesLeft(Run run, int firstPage, int max) {
+        return run.lastPage - firstPage >= max ? max : run.lastPage - firstPage + 1;
+    }
+
+    // A request well under the target latency takes twice the pages next time, one over it half.
+    private void adaptPagesPerRequest(long latencyMs) {
+        if (latencyMs < TARGET_REQUEST_LATENCY_MS / 2) {
+            pagesPerRequest = Math.min(MAX_PAGES_PER_REQUEST, pagesPerRequest * 2);
+        } else if (latencyMs > TARGET_REQUEST_LATENCY_MS) {
+            pagesPerRequest = Math.max(1, pagesPerRequest / 2);
+        }
+    }
+
+    private void deliver(Run run) {
+        while (!run.cancelled && !run.completed.isEmpty() && run.completed.firstKey() == run.nextToDeliver) {
+            Chunk chunk = run.completed.pollFirstEntry().getValue();
+            run.nextToDeliver++;
+            if (!run.ended) {
+                deliverPages(run, chunk, chunk.response, false);
+            }
+        }
+        if (!run.cancelled && run.inFlight.isEmpty() && run.nextToDeliver == run.nextSequence) {
+            run.cancelled = true;
+            run.listener.onDone(run);
+        }
+    }
+
+    // Splits a response into list pages, up to the first short one, which ends the list.
+    private void deliverPages(Run run, Chunk chunk, InferenceRecordStore.Page response, boolean fromCache) {
+        String after = chunk.after;
+        boolean byOffset = chunk.byOffset;
+        for (int i = 0; i < chunk.pages; i++) {
+            InferenceRecordStore.Page records = chunk.pages == 1 ? response
+                    : response.slice(i * pageSize, (i + 1) * pageSize);
+            run.listener.onPage(run, chunk.firstPage + i, after, byOffset, records, fromCache);
+            if (run.cancelled) return;
+            if (records.size < pageSize) {
+                if (!fromCache) {
+                    run.ended = true;
+                    Log.d(TAG, "List ends on page " + (chunk.firstPage + i) + ", " + pagesPerRequest + " pages per request");
+                }
+                return;
+            }
+            after = records.idHex(pageSize - 1);
+            byOffset = false;
+        }
+    }
+}
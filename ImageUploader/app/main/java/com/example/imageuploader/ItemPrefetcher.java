@@ -0,0 +1,419 @@
+package com.example.imageuploader;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+// Loads what the detail screen needs first (metadata and a small thumbnail) for list rows around
+// the viewport, so opening one rarely waits on the network. Driven by the list's scroll position
+// and velocity: the window reaches AHEAD rows past the viewport in the scroll direction, nothing
+// new starts during a fling, and rows that leave the window are dropped, cancelling their calls.
+// At most MAX_LOW_IN_FLIGHT prefetches run at once, and none while a tapped (promoted) item is
+// loading. Scheduling state is only touched on the main thread. A server that can't scale
+// thumbnails (no X-Thumbnail-Edge on the reply) only gets metadata prefetched, since full images
+// that many rows ahead cost more than they save.
+class ItemPrefetcher {
+
+    private static final String TAG = "ItemPrefetcher";
+    static final int THUMBNAIL_EDGE = 320;
+    private static final int AHEAD = 8;
+    private static final int BEHIND = 2;
+    private static final float FLING_PX_PER_MS = 2.5f;
+    private static final int MAX_LOW_IN_FLIGHT = 2;
+    private static final int RECENTLY_DONE = 512;
+
+    private static ItemPrefetcher instance;
+
+    private static class Task {
+        final String itemId;
+        boolean high;
+        // Rows between the item and the viewport; 0 when visible.
+        int distance;
+        boolean running;
+        final List<Runnable> waiters = new ArrayList<>();
+        private Call call;
+        private boolean cancelled;
+
+        Task(String itemId) {
+            this.itemId = itemId;
+        }
+
+        // False once cancelled, in which case the call is cancelled straight away.
+        synchronized boolean setCall(Call call) {
+            this.call = call;
+            if (cancelled) call.cancel();
+            return !cancelled;
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            if (call != null) call.cancel();
+        }
+    }
+
+    private final OkHttpClient client;
+    private final OkHttpClient metadataClient;
+    private final ImageCache imageCache;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, Task> tasks = new HashMap<>();
+    private final Set<String> unscaledServers = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final Set<String> recentlyDone = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > RECENTLY_DONE;
+        }
+    });
+    private final RecyclerView.OnScrollListener scrollListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+            long now = SystemClock.elapsedRealtime();
+            long elapsed = now - lastScrollAt;
+            if (elapsed > 0 && elapsed < 200) {
+                velocity = 0.5f * velocity + 0.5f * Math.abs(dy) / elapsed;
+            } else {
+                velocity = 0;
+            }
+            lastScrollAt = now;
+            if (dy != 0) direction = dy > 0 ? 1 : -1;
+            refresh();
+        }
+
+        @Override
+        public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+            if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                velocity = 0;
+                refresh();
+            }
+        }
+    };
+    private String serverUrl;
+    private RecyclerView list;
+    private IntFunction<String> idAt;
+    private float velocity;
+    private long lastScrollAt;
+    private int direction = 1;
+    private int lowInFlight;
+    private int highInFlight;
+
+    static synchronized ItemPrefetcher getInstance(Context context) {
+        if (instance == null) {
+            instance = new ItemPrefetcher(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ItemPrefetcher(Context context) {
+        client = HttpClient.getInstance(context).getOkHttpClient();
+        metadataClient = HttpClient.getInstance(context).getCachingClient();
+        imageCache = ImageCache.getInstance(context);
+    }
+
+    // idAt maps an adapter position to its item id, or null while the row isn't loaded.
+    void attach(RecyclerView list, String serverUrl, IntFunction<String> idAt) {
+        detach(this.list);
+        this.list = list;
+        this.serverUrl = serverUrl.endsWith("/") ? serverUrl : serverUrl + "/";
+        this.idAt = idAt;
+        list.addOnScrollListener(scrollListener);
+        list.post(this::refresh);
+    }
+
+    // Drops all speculative work; promoted items carry on.
+    void detach(RecyclerView list) {
+        if (list == null || list != this.list) return;
+        list.removeOnScrollListener(scrollListener);
+        this.list = null;
+        idAt = null;
+        dropLow(Collections.emptyMap());
+        logStats();
+    }
+
+    // Recomputes the window, e.g. after scrolling or when rows have loaded.
+    void refresh() {
+        if (list == null || !(list.getLayoutManager() instanceof LinearLayoutManager) || list.getAdapter() == null) return;
+        LinearLayoutManager layout = (LinearLayoutManager) list.getLayoutManager();
+        int first = layout.findFirstVisibleItemPosition();
+        int last = layout.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION) return;
+        int count = list.getAdapter().getItemCount();
+        int from = Math.max(0, first - (direction > 0 ? BEHIND : AHEAD));
+        int to = Math.min(count - 1, last + (direction > 0 ? AHEAD : BEHIND));
+
+        Map<String, Integer> window = new HashMap<>();
+        for (int position = from; position <= to; position++) {
+            String itemId = idAt.apply(position);
+            if (itemId != null) {
+                window.put(itemId, position < first ? first - position : position > last ? position - last : 0);
+            }
+        }
+        dropLow(window);
+        boolean flinging = velocity > FLING_PX_PER_MS;
+        for (Map.Entry<String, Integer> entry : window.entrySet()) {
+            Task task = tasks.get(entry.getKey());
+            if (task == null && !flinging && !recentlyDone.contains(entry.getKey())) {
+                task = new Task(entry.getKey());
+                tasks.put(task.itemId, task);
+            }
+            if (task != null) {
+                task.distance = entry.getValue();
+            }
+        }
+        schedule();
+    }
+
+    // Moves the item to the front: a queued task starts now, ignoring the low-priority limit, and
+    // onSettled (may be null) runs on the main thread once it finishes, however it ends. For an
+    // item with nothing outstanding onSettled runs straight away.
+    void promote(String itemId, Runnable onSettled) {
+        Task task = tasks.get(itemId);
+        if (task != null) {
+            Metrics.PREFETCH_JOINED.increment();
+        } else if (recentlyDone.contains(itemId)) {
+            Metrics.PREFETCH_HITS.increment();
+        } else if (serverUrl != null) {
+            task = new Task(itemId);
+            tasks.put(itemId, task);
+        }
+        if (task == null) {
+            if (onSettled != null) onSettled.run();
+            return;
+        }
+        if (!task.high) {
+            task.high = true;
+            if (task.running) {
+                lowInFlight--;
+                highInFlight++;
+            }
+        }
+        if (onSettled != null) task.waiters.add(onSettled);
+        schedule();
+    }
+
+    void logStats() {
+        Log.d(TAG, "tasks=" + tasks.size() + " low in flight=" + lowInFlight + " high in flight=" + highInFlight
+                + " fetches=" + Metrics.PREFETCH_FETCHES.get() + " hits=" + Metrics.PREFETCH_HITS.get()
+                + " joined=" + Metrics.PREFETCH_JOINED.get() + " cancelled=" + Metrics.PREFETCH_CANCELLED.get());
+    }
+
+    // Drops speculative tasks for items outside the window, cancelling any call in flight. A
+    // cancelled task still counts as in flight until its call has actually ended.
+    private void dropLow(Map<String, Integer> window) {
+        for (Iterator<Task> it = tasks.values().iterator(); it.hasNext(); ) {
+            Task task = it.next();
+            if (task.high || window.containsKey(task.itemId)) continue;
+            Metrics.PREFETCH_CANCELLED.increment();
+            task.cancel();
+            it.remove();
+        }
+    }
+
+    // High-priority tasks start immediately; low ones fill up to MAX_LOW_IN_FLIGHT, nearest to
+    // the viewport first, while nothing high is running. There are only a window's worth of
+    // tasks, so a scan beats keeping a heap ordered as distances change.
+    private void schedule() {
+        for (Task task : tasks.values()) {
+            if (task.high && !task.running) {
+                start(task);
+            }
+        }
+        while (highInFlight == 0 && lowInFlight < MAX_LOW_IN_FLIGHT) {
+            Task next = null;
+            for (Task task : tasks.values()) {
+                if (!task.running && (next == null || task.distance < next.distance)) {
+                    next = task;
+                }
+            }
+            if (next == null) break;
+            start(next);
+        }
+    }
+
+    private void start(Task task) {
+        task.running = true;
+        if (task.high) {
+            highInFlight++;
+        } else {
+            lowInFlight++;
+        }
+        Metrics.PREFETCH_FETCHES.increment();
+        String server = serverUrl;
+        imageCache.getMetadata(task.itemId, cached -> {
+            if (cached != null) {
+                try {
+                    fetchThumbnail(task, server, InferenceItemLoader.variantFor(new JSONObject(cached)));
+                    return;
+                } catch (JSONException e) {
+                    // Refetch below
+                }
+            }
+            fetchMetadata(task, server);
+        });
+    }
+
+    private void fetchMetadata(Task task, String server) {
+        Request request = new Request.Builder()
+                .url(server + "get-inference-item?id=" + task.itemId + "&fields=meta")
+                .build();
+        Call call = metadataClient.newCall(request);
+        if (!task.setCall(call)) {
+            finish(task, false);
+            return;
+        }
+        call.enqueue(new okhttp3.Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                finish(task, false);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    ResponseBody body = r.body();
+                    JSONObject metadata = r.isSuccessful() && body != null ? InferenceItemLoader.parseItem(body.byteStream()) : null;
+                    if (metadata == null) {
+                        finish(task, false);
+                        return;
+                    }
+                    // An unprocessed record's metadata is only kept by the HTTP cache, so opening
+                    // it costs a revalidation rather than a full fetch.
+                    if (metadata.optBoolean("processed", false)) {
+                        imageCache.putMetadata(task.itemId, metadata.toString());
+                    }
+                    fetchThumbnail(task, server, InferenceItemLoader.variantFor(metadata));
+                } catch (IOException | JSONException e) {
+                    Log.w(TAG, "Prefetch of " + task.itemId + " failed: " + e.getMessage());
+                    finish(task, false);
+                }
+            }
+        });
+    }
+
+    // May run on any thread. A thumbnail already on disk is just decoded into memory.
+    private void fetchThumbnail(Task task, String server, String variant) {
+        String key = ImageCache.thumbnailKey(task.itemId, variant);
+        imageCache.getBitmap(key, cached -> {
+            if (cached != null) {
+                finish(task, true);
+            } else if (unscaledServers.contains(server)) {
+                finish(task, true);
+            } else {
+                downloadThumbnail(task, server, key, variant);
+            }
+        });
+    }
+
+    private void downloadThumbnail(Task task, String server, String key, String variant) {
+        Request request = new Request.Builder()
+                .url(server + "get-inference-image?id=" + task.itemId + "&variant=" + variant + "&w=" + THUMBNAIL_EDGE)
+                .build();
+        Call call = client.newCall(request);
+        if (!task.setCall(call)) {
+            finish(task, false);
+            return;
+        }
+        call.enqueue(new okhttp3.Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                finish(task, false);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    ResponseBody body = r.body();
+                    if (!r.isSuccessful() || body == null) {
+                        finish(task, false);
+                        return;
+                    }
+                    if (r.header("X-Thumbnail-Edge") == null) {
+                        // Full size; closing the response abandons the rest of the body.
+                        Log.d(TAG, server + " doesn't scale thumbnails, prefetching metadata only");
+                        unscaledServers.add(server);
+                        finish(task, true);
+                        return;
+                    }
+                    byte[] data = body.bytes();
+                    Bitmap thumbnail = decodeThumbnail(data);
+                    if (thumbnail != null) {
+                        imageCache.getDiskCache().put(key, data);
+                        imageCache.putBitmap(key, thumbnail);
+                    }
+                    finish(task, thumbnail != null);
+                } catch (IOException e) {
+                    finish(task, false);
+                }
+            }
+        });
+    }
+
+    // The server scales to fit THUMBNAIL_EDGE; subsampling here only trims what it sent larger.
+    private static Bitmap decodeThumbnail(byte[] data) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+            int sampleSize = 1;
+            while (Math.max(options.outWidth, options.outHeight) / (sampleSize * 2) >= THUMBNAIL_EDGE) {
+                sampleSize *= 2;
+            }
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize;
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } finally {
+            Metrics.BITMAP_DECODE_US.recordMicrosSince(start);
+        }
+    }
+
+    private void finish(Task task, boolean ok) {
+        mainHandler.post(() -> {
+            if (task.high) {
+                highInFlight--;
+            } else {
+                lowInFlight--;
+            }
+            task.running = false;
+            if (tasks.get(task.itemId) == task) {
+                tasks.remove(task.itemId);
+            }
+            if (ok) {
+                recentlyDone.add(task.itemId);
+            }
+            for (Runnable waiter : task.waiters) {
+                waiter.run();
+            }
+            task.waiters.clear();
+            schedule();
+        });
+    }
+}
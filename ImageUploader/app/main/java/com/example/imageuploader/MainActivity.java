@@ -1,12 +1,10 @@
 package com.example.imageuploader;
 
 import android.Manifest;
+import android.content.ClipData;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.location.Address;
-import android.location.Geocoder;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
@@ -25,54 +23,112 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.content.ContextCompat;
 import androidx.core.content.FileProvider;
 
-import com.android.volley.DefaultRetryPolicy;
-import com.android.volley.NetworkResponse;
-import com.android.volley.Request;
-import com.android.volley.RequestQueue;
-import com.android.volley.Response;
-import com.android.volley.VolleyError;
-import com.android.volley.toolbox.HttpHeaderParser;
-import com.android.volley.toolbox.Volley;
 import com.google.android.gms.location.FusedLocationProviderClient;
 import com.google.android.gms.location.LocationServices;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
-import org.json.JSONObject;
+import org.json.JSONException;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.List;
+import java.util.HashSet;
 import java.util.Locale;
-import java.util.UUID;
-
-import io.socket.client.IO;
-import io.socket.client.Socket;
-import io.socket.emitter.Emitter;
+import java.util.Set;
 
 public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = "MainActivity";
+    private static final int BURST_MAX = 10;
+    private static final int PREPARE_THREADS = 2;
     private EditText urlEditText;
     private FloatingActionButton btnCamera, btnGallery, btnUpload, btnViewData;
     private ImageView previewImage;
     private ProgressBar progressBar;
     private TextView locationLabel;
+    private TextView burstStatus;
     private Bitmap bitmap;
     private String currentPhotoPath;
+    private long currentHash;
+    private String currentEncoding;
+    private boolean duplicateWarned;
+    private CaptureQualityGate.Report currentQuality;
+    private boolean qualityWarned;
     private FusedLocationProviderClient fusedLocationClient;
     private String locationTag = "Unknown";
-    private Socket socket;
+    // Geohash cell of the last fix, and whether locationTag still awaits a fresh geocode for it.
+    private String locationCell;
+    private boolean locationProvisional;
+    private GeoTagCache geoTagCache;
+    private RealtimeConnection realtime;
+    private EventCoalescer newFileEvents;
+    private UploadQueue uploadQueue;
+    private ImagePreparer imagePreparer;
+    private BitmapPool bitmapPool;
+    private DuplicateIndex duplicateIndex;
+    private AdaptiveEncoder adaptiveEncoder;
+    private ActivityResultLauncher<Intent> cameraLauncher;
+
+    // Burst state: the camera is relaunched after each shot, every capture is prepared in the
+    // background, and the upload queue is held until the last one is queued.
+    private boolean burstCapturing;
+    private boolean burstHolding;
+    private int burstPreparing;
+    private int burstCaptured;
+    private int burstQueued;
+    private int burstUploaded;
+    private int burstSkipped;
+    private int burstRejected;
+    private int burstFailed;
+    private final Set<String> burstUploads = new HashSet<>();
+    private final StringBuilder burstLog = new StringBuilder();
+
+    private final RealtimeConnection.Listener newFileListener = (event, payload) -> newFileEvents.offer(null);
+    private final RealtimeConnection.Listener connectionListener = (event, payload) -> {
+        boolean connected = realtime.isConnected();
+        runOnUiThread(() -> Toast.makeText(MainActivity.this, connected ? "Connected to server" : "Disconnected from server",
+                Toast.LENGTH_SHORT).show());
+    };
+
+    private final UploadQueue.Listener uploadListener = new UploadQueue.Listener() {
+        @Override
+        public void onUploaded(UploadQueue.Entry entry, String documentId, String message, boolean duplicate) {
+            if (burstUploads.remove(entry.id)) {
+                burstUploaded++;
+                burstLog.append('\n').append(burstUploaded).append(". ").append(documentId)
+                        .append(message.startsWith("Similar") ? " (similar)" : "");
+                updateBurstStatus();
+                return;
+            }
+            if (!duplicate) {
+                Toast.makeText(MainActivity.this, message, Toast.LENGTH_SHORT).show();
+            }
+            adaptiveEncoder.logStats();
+        }
+
+        @Override
+        public void onDropped(UploadQueue.Entry entry) {
+            if (burstUploads.remove(entry.id)) {
+                burstFailed++;
+                updateBurstStatus();
+            } else {
+                Toast.makeText(MainActivity.this, "Upload failed", Toast.LENGTH_SHORT).show();
+            }
+        }
+
+        @Override
+        public void onPendingCountChanged(int pending, int sending) {
+            // Entries parked for a retry (e.g. while offline) don't keep the spinner going.
+            progressBar.setVisibility(sending > 0 ? View.VISIBLE : View.GONE);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+        Metrics.startExport(this);
 
         urlEditText = findViewById(R.id.urlEditText);
         btnCamera = findViewById(R.id.btnCamera);
@@ -82,27 +138,35 @@ public class MainActivity extends AppCompatActivity {
         previewImage = findViewById(R.id.previewImage);
         progressBar = findViewById(R.id.progressBar);
         locationLabel = findViewById(R.id.locationLabel);
+        burstStatus = findViewById(R.id.burstStatus);
 
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
         checkPermissions();
 
+        // Several phones syncing at once would otherwise mean a toast per file.
+        newFileEvents = new EventCoalescer(TAG, EventCoalescer.DEFAULT_WINDOW_MS, EventCoalescer.DEFAULT_MAX_DELAY_MS, batch -> {
+            Toast.makeText(this, batch.events == 1 ? "New file uploaded" : batch.events + " new files uploaded", Toast.LENGTH_SHORT).show();
+            newFileEvents.done();
+        });
         setupSocket();
 
-        ActivityResultLauncher<Intent> cameraLauncher = registerForActivityResult(
+        uploadQueue = UploadQueue.getInstance(this);
+        uploadQueue.start();
+        bitmapPool = BitmapPool.getInstance(this);
+        duplicateIndex = DuplicateIndex.getInstance(this);
+        geoTagCache = GeoTagCache.getInstance(this);
+        adaptiveEncoder = AdaptiveEncoder.getInstance(this);
+        imagePreparer = new ImagePreparer(getContentResolver(), bitmapPool, adaptiveEncoder, PREPARE_THREADS);
+
+        cameraLauncher = registerForActivityResult(
                 new ActivityResultContracts.StartActivityForResult(),
                 result -> {
-                    if (result.getResultCode() == RESULT_OK) {
+                    if (burstCapturing) {
+                        onBurstCapture(result.getResultCode() == RESULT_OK);
+                    } else if (result.getResultCode() == RESULT_OK) {
                         File imgFile = new File(currentPhotoPath);
                         if (imgFile.exists()) {
-                            bitmap = BitmapFactory.decodeFile(currentPhotoPath);
-                            if (bitmap != null) {
-                                previewImage.setImageBitmap(bitmap);
-                                previewImage.setVisibility(View.VISIBLE);
-                                btnUpload.setVisibility(View.VISIBLE);
-                                getLocation();
-                            } else {
-                                Toast.makeText(this, "Failed to decode image", Toast.LENGTH_SHORT).show();
-                            }
+                            prepareImage(imgFile, null);
                         }
                     }
                 });
@@ -111,36 +175,37 @@ public class MainActivity extends AppCompatActivity {
                 new ActivityResultContracts.StartActivityForResult(),
                 result -> {
                     if (result.getResultCode() == RESULT_OK && result.getData() != null) {
-                        Uri selectedImageUri = result.getData().getData();
-                        try {
-                            bitmap = MediaStore.Images.Media.getBitmap(this.getContentResolver(), selectedImageUri);
-                            if (bitmap != null) {
-                                previewImage.setImageBitmap(bitmap);
-                                previewImage.setVisibility(View.VISIBLE);
-                                btnUpload.setVisibility(View.VISIBLE);
-                                currentPhotoPath = saveBitmapToFile(bitmap);
-                                getLocation();
+                        ClipData clip = result.getData().getClipData();
+                        if (clip != null && clip.getItemCount() > 1) {
+                            if (startBurst()) {
+                                for (int i = 0; i < clip.getItemCount(); i++) {
+                                    prepareBurstItem(null, clip.getItemAt(i).getUri());
+                                }
+                                finishBurstCapture();
                             }
-                        } catch (IOException e) {
-                            Toast.makeText(this, "Failed to load image: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+                        } else {
+                            Uri selectedImageUri = clip != null ? clip.getItemAt(0).getUri() : result.getData().getData();
+                            prepareImage(null, selectedImageUri);
                         }
                     }
                 });
 
-        btnCamera.setOnClickListener(v -> {
-            try {
-                File imageFile = createImageFile();
-                Uri imageUri = FileProvider.getUriForFile(this, "com.example.imageuploader.fileprovider", imageFile);
-                Intent cameraIntent = new Intent(MediaStore.ACTION_IMAGE_CAPTURE);
-                cameraIntent.putExtra(MediaStore.EXTRA_OUTPUT, imageUri);
-                cameraLauncher.launch(cameraIntent);
-            } catch (IOException e) {
-                Toast.makeText(this, "Error capturing image: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+        btnCamera.setOnClickListener(v -> launchCamera());
+
+        // Long press shoots a burst: the camera reopens after every shot until cancelled.
+        btnCamera.setOnLongClickListener(v -> {
+            if (startBurst()) {
+                burstCapturing = true;
+                Toast.makeText(this, "Burst mode: press back in the camera to finish", Toast.LENGTH_SHORT).show();
+                launchCamera();
             }
+            return true;
         });
 
         btnGallery.setOnClickListener(v -> {
-            Intent galleryIntent = new Intent(Intent.ACTION_PICK, MediaStore.Images.Media.EXTERNAL_CONTENT_URI);
+            Intent galleryIntent = new Intent(Intent.ACTION_GET_CONTENT);
+            galleryIntent.setType("image/*");
+            galleryIntent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
             galleryLauncher.launch(galleryIntent);
         });
 
@@ -157,36 +222,139 @@ public class MainActivity extends AppCompatActivity {
             intent.putExtra("serverUrl", urlEditText.getText().toString().trim());
             startActivity(intent);
         });
+
+        findViewById(R.id.btnDiagnostics).setOnClickListener(v ->
+                startActivity(new Intent(this, DiagnosticsActivity.class)));
     }
 
-    private void setupSocket() {
+    private void launchCamera() {
         try {
-            String serverUrl = urlEditText.getText().toString().trim();
-            socket = IO.socket(serverUrl);
-            socket.on(Socket.EVENT_CONNECT, new Emitter.Listener() {
-                @Override
-                public void call(Object... args) {
-                    runOnUiThread(() -> Toast.makeText(MainActivity.this, "Connected to server", Toast.LENGTH_SHORT).show());
-                }
-            });
-            socket.on("new_file", new Emitter.Listener() {
-                @Override
-                public void call(Object... args) {
-                    runOnUiThread(() -> Toast.makeText(MainActivity.this, "New file uploaded", Toast.LENGTH_SHORT).show());
+            File imageFile = createImageFile();
+            Uri imageUri = FileProvider.getUriForFile(this, "com.example.imageuploader.fileprovider", imageFile);
+            Intent cameraIntent = new Intent(MediaStore.ACTION_IMAGE_CAPTURE);
+            cameraIntent.putExtra(MediaStore.EXTRA_OUTPUT, imageUri);
+            cameraLauncher.launch(cameraIntent);
+        } catch (IOException e) {
+            Toast.makeText(this, "Error capturing image: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+            if (burstCapturing) {
+                finishBurstCapture();
+            }
+        }
+    }
+
+    private boolean startBurst() {
+        if (urlEditText.getText().toString().trim().isEmpty()) {
+            Toast.makeText(this, "Please enter the server URL", Toast.LENGTH_SHORT).show();
+            return false;
+        }
+        if (!burstHolding) {
+            burstHolding = true;
+            uploadQueue.hold();
+        }
+        burstCaptured = burstQueued = burstUploaded = burstSkipped = burstRejected = burstFailed = 0;
+        burstUploads.clear();
+        burstLog.setLength(0);
+        getLocation();
+        updateBurstStatus();
+        return true;
+    }
+
+    private void onBurstCapture(boolean captured) {
+        File capture = currentPhotoPath != null ? new File(currentPhotoPath) : null;
+        if (captured && capture != null && capture.exists()) {
+            burstCaptured++;
+            prepareBurstItem(capture, null);
+            if (burstCaptured < BURST_MAX) {
+                launchCamera();
+                return;
+            }
+        }
+        finishBurstCapture();
+    }
+
+    private void finishBurstCapture() {
+        burstCapturing = false;
+        releaseBurstWhenPrepared();
+    }
+
+    // Once nothing is left to prepare, let the queue send the whole burst as batched requests.
+    private void releaseBurstWhenPrepared() {
+        if (burstHolding && !burstCapturing && burstPreparing == 0) {
+            burstHolding = false;
+            uploadQueue.release();
+        }
+    }
+
+    private void prepareBurstItem(File capture, Uri uri) {
+        File output;
+        try {
+            output = createUploadFile();
+        } catch (IOException e) {
+            burstFailed++;
+            updateBurstStatus();
+            return;
+        }
+        burstPreparing++;
+        String baseUrl = urlEditText.getText().toString().trim();
+        ImagePreparer.Callback callback = new ImagePreparer.Callback() {
+            @Override
+            public void onPrepared(ImagePreparer.Result result) {
+                burstPreparing--;
+                if (capture != null) {
+                    capture.delete();
                 }
-            });
-            socket.on(Socket.EVENT_DISCONNECT, new Emitter.Listener() {
-                @Override
-                public void call(Object... args) {
-                    runOnUiThread(() -> Toast.makeText(MainActivity.this, "Disconnected from server", Toast.LENGTH_SHORT).show());
+                long now = System.currentTimeMillis();
+                if (result.quality.verdict == CaptureQualityGate.Verdict.REJECT) {
+                    burstRejected++;
+                    new File(result.uploadPath).delete();
+                } else if (duplicateIndex.findDuplicate(locationTag, result.perceptualHash, now) != null) {
+                    burstSkipped++;
+                    new File(result.uploadPath).delete();
+                } else {
+                    duplicateIndex.record(locationTag, result.perceptualHash, now);
+                    burstUploads.add(enqueueUpload(baseUrl, result.uploadPath, result.perceptualHash,
+                            describeEncoding(result), describeQuality(result.quality), true));
+                    burstQueued++;
                 }
-            });
-            socket.connect();
-        } catch (Exception e) {
-            Log.e(TAG, "Socket.IO setup error: " + e.getMessage(), e);
+                bitmapPool.put(result.preview);
+                updateBurstStatus();
+                releaseBurstWhenPrepared();
+            }
+
+            @Override
+            public void onError(String message) {
+                burstPreparing--;
+                burstFailed++;
+                updateBurstStatus();
+                releaseBurstWhenPrepared();
+            }
+        };
+        if (capture != null) {
+            imagePreparer.prepareFile(capture.getAbsolutePath(), output, callback);
+        } else {
+            imagePreparer.prepareUri(uri, output, callback);
+        }
+    }
+
+    private void updateBurstStatus() {
+        burstStatus.setVisibility(View.VISIBLE);
+        burstStatus.setText("Burst: " + (burstQueued + burstSkipped + burstRejected + burstPreparing) + " captured, " + burstPreparing + " preparing, "
+                + burstUploaded + "/" + burstQueued + " uploaded, " + burstSkipped + " similar skipped, " + burstRejected + " poor quality, " + burstFailed + " failed"
+                + burstLog);
+        if (burstPreparing == 0 && !burstCapturing && burstUploaded + burstFailed >= burstQueued && burstQueued > 0) {
+            uploadQueue.logStats();
         }
     }
 
+    // The connection is app-scoped, so this only subscribes; it stays up across rotations and
+    // screens. It connects once a server URL is known (here, or on the first upload).
+    private void setupSocket() {
+        realtime = RealtimeConnection.getInstance();
+        realtime.addListener("new_file", newFileListener);
+        realtime.addListener(RealtimeConnection.EVENT_CONNECTION, connectionListener);
+        realtime.connect(urlEditText.getText().toString().trim());
+    }
+
     private File createImageFile() throws IOException {
         String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
         String imageFileName = "JPEG_" + timeStamp + "_";
@@ -196,38 +364,94 @@ public class MainActivity extends AppCompatActivity {
         return image;
     }
 
-    private String saveBitmapToFile(Bitmap bitmap) throws IOException {
-        Bitmap compressedBitmap = compressBitmap(bitmap, 800, 70);
-        File file = createImageFile();
-        try (FileOutputStream fos = new FileOutputStream(file)) {
-            compressedBitmap.compress(Bitmap.CompressFormat.JPEG, 70, fos);
-            fos.flush();
+    private File createUploadFile() throws IOException {
+        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
+        File storageDir = getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+        return File.createTempFile("UPLOAD_" + timeStamp + "_", adaptiveEncoder.fileExtension(), storageDir);
+    }
+
+    // Decoding, orientation and JPEG encoding all happen on the preparer's thread.
+    private void prepareImage(File capture, Uri selectedImageUri) {
+        File output;
+        try {
+            output = createUploadFile();
+        } catch (IOException e) {
+            Toast.makeText(this, "Failed to load image: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        progressBar.setVisibility(View.VISIBLE);
+        ImagePreparer.Callback callback = new ImagePreparer.Callback() {
+            @Override
+            public void onPrepared(ImagePreparer.Result result) {
+                progressBar.setVisibility(View.GONE);
+                if (capture != null) {
+                    capture.delete();
+                }
+                releasePreview();
+                bitmap = result.preview;
+                currentPhotoPath = result.uploadPath;
+                currentHash = result.perceptualHash;
+                currentEncoding = describeEncoding(result);
+                duplicateWarned = false;
+                currentQuality = result.quality;
+                qualityWarned = false;
+                if (currentQuality.verdict != CaptureQualityGate.Verdict.OK) {
+                    Toast.makeText(MainActivity.this, "Photo looks " + currentQuality.reason + ", consider retaking it", Toast.LENGTH_SHORT).show();
+                }
+                previewImage.setImageBitmap(bitmap);
+                previewImage.setVisibility(View.VISIBLE);
+                btnUpload.setVisibility(View.VISIBLE);
+                getLocation();
+            }
+
+            @Override
+            public void onError(String message) {
+                progressBar.setVisibility(View.GONE);
+                Toast.makeText(MainActivity.this, "Failed to load image: " + message, Toast.LENGTH_SHORT).show();
+            }
+        };
+        if (capture != null) {
+            imagePreparer.prepareFile(capture.getAbsolutePath(), output, callback);
+        } else {
+            imagePreparer.prepareUri(selectedImageUri, output, callback);
         }
-        return file.getAbsolutePath();
     }
 
-    private Bitmap compressBitmap(Bitmap original, int maxSize, int quality) {
-        int width = original.getWidth();
-        int height = original.getHeight();
-        float scale = Math.min((float) maxSize / width, (float) maxSize / height);
-        if (scale >= 1) return original;
-        int newWidth = Math.round(width * scale);
-        int newHeight = Math.round(height * scale);
-        return Bitmap.createScaledBitmap(original, newWidth, newHeight, true);
+    private String describeEncoding(ImagePreparer.Result result) {
+        try {
+            return AdaptiveEncoder.describe(result.params, result.preview.getWidth(), result.preview.getHeight(),
+                    result.sourceBytes, result.encodedBytes).toString();
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to describe encoding: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private String describeQuality(CaptureQualityGate.Report quality) {
+        try {
+            return quality.toJson().toString();
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to describe quality: " + e.getMessage());
+            return null;
+        }
     }
 
+    // Captures never wait on the Geocoder: the cached locality for this cell (if any) is used at
+    // once, and uploads queued before a fresh lookup finishes are corrected when it does.
     private void getLocation() {
         if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
             fusedLocationClient.getLastLocation().addOnSuccessListener(this, location -> {
                 if (location != null) {
-                    try {
-                        Geocoder geocoder = new Geocoder(this, Locale.getDefault());
-                        List<Address> addresses = geocoder.getFromLocation(location.getLatitude(), location.getLongitude(), 1);
-                        if (!addresses.isEmpty()) {
-                            locationTag = addresses.get(0).getLocality() != null ? addresses.get(0).getLocality() : "Unknown";
-                        }
-                    } catch (IOException e) {
-                        Log.e(TAG, "Geocoder failed: " + e.getMessage());
+                    GeoTagCache.Lookup cached = geoTagCache.lookup(location.getLatitude(), location.getLongitude(), System.currentTimeMillis());
+                    locationCell = cached.cell;
+                    locationProvisional = !cached.fresh;
+                    if (cached.tag != null) {
+                        locationTag = cached.tag;
+                    }
+                    if (!cached.fresh) {
+                        geoTagCache.resolve(location.getLatitude(), location.getLongitude(),
+                                resolved -> onLocationResolved(cached.cell, resolved));
                     }
                     locationLabel.setText("Location: " + locationTag);
                     locationLabel.setVisibility(View.VISIBLE);
@@ -236,49 +460,69 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    private void onLocationResolved(String cell, String resolved) {
+        geoTagCache.logStats();
+        // On failure the provisional uploads stay in the queue's journal for the next successful
+        // lookup of the cell.
+        if (resolved == null) return;
+        if (cell.equals(locationCell)) {
+            locationProvisional = false;
+            locationTag = resolved;
+            locationLabel.setText("Location: " + locationTag);
+        }
+        uploadQueue.correctLocations(cell, resolved);
+    }
+
+    private String enqueueUpload(String baseUrl, String path, long hash, String encoding, String quality, boolean checkDuplicate) {
+        realtime.connect(baseUrl);
+        String provisionalCell = locationProvisional ? locationCell : null;
+        return uploadQueue.enqueue(baseUrl, path, locationTag, provisionalCell, PerceptualHash.toHex(hash), encoding,
+                quality, checkDuplicate);
+    }
+
     private void uploadImage() {
         String baseUrl = urlEditText.getText().toString().trim();
-        String uploadUrl = baseUrl.endsWith("/") ? baseUrl + "upload" : baseUrl + "/upload";
-        if (uploadUrl.isEmpty()) {
+        if (baseUrl.isEmpty()) {
             Toast.makeText(this, "Please enter the server URL", Toast.LENGTH_SHORT).show();
             return;
         }
 
-        progressBar.setVisibility(View.VISIBLE);
-        File file = new File(currentPhotoPath);
-
-        RequestQueue requestQueue = Volley.newRequestQueue(this);
-        VolleyMultipartRequest multipartRequest = new VolleyMultipartRequest(Request.Method.POST, uploadUrl, file, locationTag,
-                response -> {
-                    progressBar.setVisibility(View.GONE);
-                    try {
-                        String responseStr = new String(response.data, StandardCharsets.UTF_8);
-                        JSONObject jsonResponse = new JSONObject(responseStr);
-                        String message = jsonResponse.getString("message");
-                        Toast.makeText(this, message, Toast.LENGTH_SHORT).show();
-                        previewImage.setVisibility(View.GONE);
-                        btnUpload.setVisibility(View.GONE);
-                        locationLabel.setVisibility(View.GONE);
-                        bitmap = null;
-                        currentPhotoPath = null;
-                    } catch (Exception e) {
-                        Toast.makeText(this, "Error parsing response: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                        Log.e(TAG, "Response error: " + e.getMessage(), e);
-                    }
-                },
-                error -> {
-                    progressBar.setVisibility(View.GONE);
-                    String errorMsg = error.getMessage() != null ? error.getMessage() : "Unknown error";
-                    if (error.networkResponse != null) {
-                        errorMsg += " (Status: " + error.networkResponse.statusCode + ")";
-                    }
-                    Toast.makeText(this, "Upload failed: " + errorMsg, Toast.LENGTH_LONG).show();
-                    Log.e(TAG, "Upload error: " + errorMsg, error);
-                });
+        // Frames the quality gate rejects get the same one-time hold as near-duplicates.
+        if (currentQuality.verdict == CaptureQualityGate.Verdict.REJECT && !qualityWarned) {
+            qualityWarned = true;
+            Toast.makeText(this, "Photo looks " + currentQuality.reason + ". Retake it, or tap upload again to send it anyway",
+                    Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        // A near-duplicate of a recent shot at this location is held back once; tapping upload
+        // again sends it anyway.
+        long now = System.currentTimeMillis();
+        DuplicateIndex.Match match = duplicateIndex.findDuplicate(locationTag, currentHash, now);
+        if (match != null && !duplicateWarned) {
+            duplicateWarned = true;
+            long secondsAgo = (now - match.capturedAt) / 1000;
+            Toast.makeText(this, "Looks like a photo taken " + secondsAgo + "s ago here. Tap upload again to send it anyway",
+                    Toast.LENGTH_LONG).show();
+            return;
+        }
+        duplicateIndex.record(locationTag, currentHash, now);
+
+        enqueueUpload(baseUrl, currentPhotoPath, currentHash, currentEncoding, describeQuality(currentQuality), !duplicateWarned);
+        Toast.makeText(this, "Image queued for upload", Toast.LENGTH_SHORT).show();
+        previewImage.setVisibility(View.GONE);
+        btnUpload.setVisibility(View.GONE);
+        locationLabel.setVisibility(View.GONE);
+        releasePreview();
+        currentPhotoPath = null;
+    }
 
-        multipartRequest.setRetryPolicy(new DefaultRetryPolicy(
-                60000, 2, DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
-        requestQueue.add(multipartRequest);
+    private void releasePreview() {
+        if (bitmap != null) {
+            previewImage.setImageDrawable(null);
+            bitmapPool.put(bitmap);
+            bitmap = null;
+        }
     }
 
     private void checkPermissions() {
@@ -304,96 +548,27 @@ public class MainActivity extends AppCompatActivity {
     }
 
     @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        if (socket != null) {
-            socket.disconnect();
-            socket.off();
-        }
-    }
-}
-
-class VolleyMultipartRequest extends Request<NetworkResponse> {
-    private final Response.Listener<NetworkResponse> mListener;
-    private final Response.ErrorListener mErrorListener;
-    private final File mFile;
-    private final String mLocationTag;
-    private static final String LINE_END = "\r\n";
-    private static final String TWO_HYPHENS = "--";
-    private final String boundary = "apiclient-" + UUID.randomUUID().toString();
-
-    public VolleyMultipartRequest(int method, String url, File file, String locationTag, Response.Listener<NetworkResponse> listener, Response.ErrorListener errorListener) {
-        super(method, url, errorListener);
-        this.mListener = listener;
-        this.mErrorListener = errorListener;
-        this.mFile = file;
-        this.mLocationTag = locationTag;
-    }
-
-    @Override
-    protected void deliverResponse(NetworkResponse response) {
-        mListener.onResponse(response);
-    }
-
-    @Override
-    public void deliverError(VolleyError error) {
-        mErrorListener.onErrorResponse(error);
+    protected void onStart() {
+        super.onStart();
+        uploadQueue.addListener(uploadListener);
     }
 
     @Override
-    public String getBodyContentType() {
-        return "multipart/form-data; boundary=" + boundary;
+    protected void onStop() {
+        super.onStop();
+        uploadQueue.removeListener(uploadListener);
     }
 
     @Override
-    public byte[] getBody() throws com.android.volley.AuthFailureError {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        try {
-            byte[] fileData = getFileDataFromPath(mFile);
-            if (fileData == null) {
-                throw new com.android.volley.AuthFailureError("No file data available");
-            }
-
-            String fileHeader = TWO_HYPHENS + boundary + LINE_END +
-                    "Content-Disposition: form-data; name=\"file\"; filename=\"image.jpg\"" + LINE_END +
-                    "Content-Type: image/jpeg" + LINE_END +
-                    LINE_END;
-            bos.write(fileHeader.getBytes(StandardCharsets.UTF_8));
-            bos.write(fileData);
-            bos.write(LINE_END.getBytes(StandardCharsets.UTF_8));
-
-            String locationHeader = TWO_HYPHENS + boundary + LINE_END +
-                    "Content-Disposition: form-data; name=\"location\"" + LINE_END +
-                    "Content-Type: text/plain" + LINE_END +
-                    LINE_END;
-            bos.write(locationHeader.getBytes(StandardCharsets.UTF_8));
-            bos.write(mLocationTag.getBytes(StandardCharsets.UTF_8));
-            bos.write(LINE_END.getBytes(StandardCharsets.UTF_8));
-
-            String footer = TWO_HYPHENS + boundary + TWO_HYPHENS + LINE_END;
-            bos.write(footer.getBytes(StandardCharsets.UTF_8));
-
-            return bos.toByteArray();
-        } catch (IOException e) {
-            Log.e("VolleyMultipartRequest", "Error building body: " + e.getMessage(), e);
-            throw new com.android.volley.AuthFailureError("Failed to build request body");
-        }
-    }
-
-    @Override
-    protected Response<NetworkResponse> parseNetworkResponse(NetworkResponse response) {
-        return Response.success(response, HttpHeaderParser.parseCacheHeaders(response));
-    }
-
-    private byte[] getFileDataFromPath(File file) throws IOException {
-        try (FileInputStream fis = new FileInputStream(file)) {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            byte[] buffer = new byte[1024];
-            int bytesRead;
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                baos.write(buffer, 0, bytesRead);
-            }
-            return baos.toByteArray();
+    protected void onDestroy() {
+        super.onDestroy();
+        imagePreparer.shutdown();
+        if (burstHolding) {
+            burstHolding = false;
+            uploadQueue.release();
         }
+        newFileEvents.close();
+        realtime.removeListener("new_file", newFileListener);
+        realtime.removeListener(RealtimeConnection.EVENT_CONNECTION, connectionListener);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,275 @@
+package com.example.imageuploader;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Process-wide performance counters and latency histograms. Every metric is created up front,
+// so recording is a couple of atomic adds with no locking or allocation and is safe on any
+// thread. Histograms use fixed exponential buckets (four per doubling, so a percentile is
+// within about 19% of the true value). Snapshots are appended to a per-day file under the
+// app's external files dir ("metrics/"), which can be pulled from a device with adb.
+class Metrics {
+
+    private static final String TAG = "Metrics";
+    private static final String EXPORT_DIR = "metrics";
+    private static final long EXPORT_INTERVAL_MS = 60_000;
+    private static final int EXPORT_DAYS_KEPT = 7;
+
+    private static final List<Counter> counters = new ArrayList<>();
+    private static final List<Histogram> histograms = new ArrayList<>();
+
+    static final Histogram UPLOAD_MS = new Histogram("upload_ms", 1, 600_000);
+    static final Histogram UPLOAD_BYTES = new Histogram("upload_bytes", 1024, 256L << 20);
+    static final Histogram BATCH_FETCH_MS = new Histogram("batch_fetch_ms", 1, 120_000);
+    static final Histogram JSON_PARSE_US = new Histogram("json_parse_us", 10, 10_000_000);
+    static final Histogram BITMAP_DECODE_US = new Histogram("bitmap_decode_us", 100, 30_000_000);
+    static final Histogram SOCKET_LAG_MS = new Histogram("socket_lag_ms", 1, 600_000);
+    static final Histogram TIME_TO_IMAGE_MS = new Histogram("time_to_image_ms", 1, 120_000);
+    static final Histogram TREND_BUILD_US = new Histogram("trend_build_us", 10, 10_000_000);
+
+    static final Counter UPLOAD_FAILURES = new Counter("upload_failures");
+    static final Counter UPLOAD_CHUNK_FAILURES = new Counter("upload_chunk_failures");
+    static final Counter UPLOAD_RESUMED_BYTES = new Counter("upload_resumed_bytes");
+    static final Counter BATCH_FETCH_ERRORS = new Counter("batch_fetch_errors");
+    static final Counter IMAGE_MEMORY_HITS = new Counter("image_cache_memory_hits");
+    static final Counter IMAGE_DISK_HITS = new Counter("image_cache_disk_hits");
+    static final Counter IMAGE_MISSES = new Counter("image_cache_misses");
+    static final Counter GEO_TAG_HITS = new Counter("geo_tag_hits");
+    static final Counter GEO_TAG_MISSES = new Counter("geo_tag_misses");
+    static final Counter SOCKET_EVENTS_REPLAYED = new Counter("socket_events_replayed");
+    static final Counter HTTP_CACHE_HITS = new Counter("http_cache_hits");
+    static final Counter HTTP_NOT_MODIFIED = new Counter("http_not_modified");
+    static final Counter HTTP_BYTES_SAVED = new Counter("http_bytes_saved");
+    static final Counter PREFETCH_FETCHES = new Counter("prefetch_fetches");
+    static final Counter PREFETCH_HITS = new Counter("prefetch_hits");
+    static final Counter PREFETCH_JOINED = new Counter("prefetch_joined");
+    static final Counter PREFETCH_CANCELLED = new Counter("prefetch_cancelled");
+
+    private static ScheduledExecutorService exporter;
+    private static File exportDir;
+
+    static class Counter {
+        final String name;
+        private final LongAdder value = new LongAdder();
+
+        Counter(String name) {
+            this.name = name;
+            synchronized (counters) {
+                counters.add(this);
+            }
+        }
+
+        void increment() {
+            value.increment();
+        }
+
+        void add(long delta) {
+            value.add(delta);
+        }
+
+        long get() {
+            return value.sum();
+        }
+    }
+
+    static class Histogram {
+        final String name;
+        // Inclusive upper bound of each bucket; the last bucket takes everything above max.
+        private final long[] bounds;
+        private final AtomicLongArray buckets;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram(String name, long min, long max) {
+            this.name = name;
+            List<Long> bounds = new ArrayList<>();
+            for (double bound = min; bound < max; bound *= 1.189207) {
+                long rounded = (long) Math.ceil(bound);
+                if (bounds.isEmpty() || rounded > bounds.get(bounds.size() - 1)) {
+                    bounds.add(rounded);
+                }
+            }
+            bounds.add(max);
+            bounds.add(Long.MAX_VALUE);
+            this.bounds = new long[bounds.size()];
+            for (int i = 0; i < this.bounds.length; i++) {
+                this.bounds[i] = bounds.get(i);
+            }
+            buckets = new AtomicLongArray(this.bounds.length);
+            synchronized (histograms) {
+                histograms.add(this);
+            }
+        }
+
+        void record(long value) {
+            if (value < 0) value = 0;
+            int index = Arrays.binarySearch(bounds, value);
+            buckets.incrementAndGet(index >= 0 ? index : -index - 1);
+            count.increment();
+            sum.add(value);
+            long current;
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                // retry
+            }
+        }
+
+        // For callers that timed with SystemClock.elapsedRealtimeNanos().
+        void recordMicrosSince(long startNanos) {
+            record((SystemClock.elapsedRealtimeNanos() - startNanos) / 1000);
+        }
+
+        void recordMillisSince(long startMs) {
+            record(SystemClock.elapsedRealtime() - startMs);
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        // Upper bound of the bucket holding the given quantile, capped at the largest value seen.
+        long percentile(double quantile) {
+            long total = 0;
+            long[] snapshot = new long[bounds.length];
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return Math.min(bounds[i], max.get());
+                }
+            }
+            return max.get();
+        }
+
+        long mean() {
+            long n = count.sum();
+            return n > 0 ? sum.sum() / n : 0;
+        }
+
+        long max() {
+            return max.get();
+        }
+    }
+
+    // Starts the periodic export; later calls are no-ops.
+    static synchronized void startExport(Context context) {
+        if (exporter != null) return;
+        exportDir = context.getApplicationContext().getExternalFilesDir(EXPORT_DIR);
+        if (exportDir == null) {
+            Log.w(TAG, "No external files dir, metrics will not be exported");
+            return;
+        }
+        exporter = Executors.newSingleThreadScheduledExecutor();
+        exporter.scheduleWithFixedDelay(Metrics::exportNow, EXPORT_INTERVAL_MS, EXPORT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // Appends one snapshot line to today's file and drops files older than EXPORT_DAYS_KEPT.
+    // Returns the file written, or null.
+    static synchronized File exportNow() {
+        if (exportDir == null) return null;
+        SimpleDateFormat day = new SimpleDateFormat("yyyyMMdd", Locale.US);
+        File file = new File(exportDir, "metrics-" + day.format(new Date()) + ".jsonl");
+        try (Writer writer = new FileWriter(file, true)) {
+            writer.write(snapshot().toString());
+            writer.write('\n');
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Metrics export failed: " + e.getMessage());
+            return null;
+        }
+        File[] files = exportDir.listFiles((dir, name) -> name.startsWith("metrics-") && name.endsWith(".jsonl"));
+        if (files != null && files.length > EXPORT_DAYS_KEPT) {
+            // Names sort by date.
+            Arrays.sort(files);
+            for (int i = 0; i < files.length - EXPORT_DAYS_KEPT; i++) {
+                files[i].delete();
+            }
+        }
+        return file;
+    }
+
+    static JSONObject snapshot() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("ts", System.currentTimeMillis());
+        json.put("uptime_ms", SystemClock.elapsedRealtime());
+        for (Counter counter : counters()) {
+            json.put(counter.name, counter.get());
+        }
+        json.put("image_cache_hit_rate", hitRate(IMAGE_MEMORY_HITS.get() + IMAGE_DISK_HITS.get(), IMAGE_MISSES.get()));
+        json.put("geo_tag_hit_rate", hitRate(GEO_TAG_HITS.get(), GEO_TAG_MISSES.get()));
+        for (Histogram histogram : histograms()) {
+            JSONObject h = new JSONObject();
+            h.put("count", histogram.count());
+            h.put("mean", histogram.mean());
+            h.put("p50", histogram.percentile(0.50));
+            h.put("p95", histogram.percentile(0.95));
+            h.put("p99", histogram.percentile(0.99));
+            h.put("max", histogram.max());
+            json.put(histogram.name, h);
+        }
+        return json;
+    }
+
+    // Plain-text form for the diagnostics screen.
+    static String report() {
+        StringBuilder report = new StringBuilder();
+        for (Histogram histogram : histograms()) {
+            report.append(histogram.name).append("\n  n=").append(histogram.count())
+                    .append(" mean=").append(histogram.mean())
+                    .append(" p50=").append(histogram.percentile(0.50))
+                    .append(" p95=").append(histogram.percentile(0.95))
+                    .append(" p99=").append(histogram.percentile(0.99))
+                    .append(" max=").append(histogram.max()).append('\n');
+        }
+        report.append('\n');
+        for (Counter counter : counters()) {
+            report.append(counter.name).append(" = ").append(counter.get()).append('\n');
+        }
+        report.append("image_cache_hit_rate = ")
+                .append(hitRate(IMAGE_MEMORY_HITS.get() + IMAGE_DISK_HITS.get(), IMAGE_MISSES.get())).append("%\n");
+        report.append("geo_tag_hit_rate = ").append(hitRate(GEO_TAG_HITS.get(), GEO_TAG_MISSES.get())).append("%\n");
+        return report.toString();
+    }
+
+    private static long hitRate(long hits, long misses) {
+        return hits + misses > 0 ? hits * 100 / (hits + misses) : 0;
+    }
+
+    private static List<Counter> counters() {
+        synchronized (counters) {
+            return new ArrayList<>(counters);
+        }
+    }
+
+    private static List<Histogram> histograms() {
+        synchronized (histograms) {
+            return new ArrayList<>(histograms);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.imageuploader;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+
+class MultipartUploader {
+
+    private static final int TIMEOUT_MS = 60000;
+
+    static class HttpStatusException extends IOException {
+        final int statusCode;
+
+        HttpStatusException(int statusCode, String body) {
+            super(body != null && !body.isEmpty() ? body : "HTTP " + statusCode);
+            this.statusCode = statusCode;
+        }
+    }
+
+    static String execute(OkHttpClient client, String uploadUrl, MultipartBody body) throws IOException {
+        OkHttpClient uploadClient = client.newBuilder()
+                .connectTimeout(TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .readTimeout(TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .writeTimeout(TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .build();
+
+        Request request = new Request.Builder()
+                .url(uploadUrl)
+                .post(new StreamingBody(body))
+                .build();
+
+        try (Response response = uploadClient.newCall(request).execute()) {
+            ResponseBody responseBody = response.body();
+            String responseText = responseBody != null ? responseBody.string() : "";
+            if (!response.isSuccessful()) {
+                throw new HttpStatusException(response.code(), responseText);
+            }
+            return responseText;
+        }
+    }
+
+    private static class StreamingBody extends RequestBody {
+        private final MultipartBody body;
+
+        StreamingBody(MultipartBody body) {
+            this.body = body;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return MediaType.parse(body.getContentType());
+        }
+
+        @Override
+        public long contentLength() {
+            return body.getContentLength();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            body.writeTo(sink.outputStream());
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.example.imageuploader;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import io.socket.client.IO;
+import io.socket.client.Socket;
+
+// The app's one Socket.IO connection. Components subscribe per event name and stay subscribed
+// across screen changes without new handshakes. socket.io reconnects with randomized
+// exponential backoff; after each reconnect the server is asked to replay the events after the
+// last seq seen, and EVENT_GAP is dispatched when it can't (the outage outlasted its history, or
+// it restarted), so listeners know to catch up some other way. Live broadcasts can arrive in the
+// middle of a replay, so everything received during one is held back and dispatched in seq order
+// once the server's closing cursor arrives. Listeners are called on the socket's event thread.
+class RealtimeConnection {
+
+    private static final String TAG = "RealtimeConnection";
+    static final String EVENT_GAP = "replay_gap";
+    static final String EVENT_CONNECTION = "connection";
+    private static final long RECONNECT_DELAY_MS = 1000;
+    private static final long RECONNECT_DELAY_MAX_MS = 30000;
+    private static final double RECONNECT_JITTER = 0.5;
+
+    private static RealtimeConnection instance;
+
+    interface Listener {
+        // payload is null for EVENT_CONNECTION, whose state is isConnected().
+        void onEvent(String event, JSONObject payload);
+    }
+
+    private static class Pending {
+        final String event;
+        final JSONObject payload;
+        final long seq;
+
+        Pending(String event, JSONObject payload, long seq) {
+            this.event = event;
+            this.payload = payload;
+            this.seq = seq;
+        }
+    }
+
+    private final Map<String, List<Listener>> listeners = new ConcurrentHashMap<>();
+    private Socket socket;
+    private String serverUrl;
+    private String epoch;
+    private long lastSeq = -1;
+    private volatile boolean connected;
+    // Between asking for a replay and the server's closing "cursor".
+    private boolean replaying;
+    // Sequenced events received while replaying.
+    private final List<Pending> pending = new ArrayList<>();
+    private long connectedSince;
+    private long connectedMsTotal;
+    private long connects;
+    private long disconnects;
+    private long events;
+    private long replayed;
+    private long duplicates;
+    private long gaps;
+
+    static synchronized RealtimeConnection getInstance() {
+        if (instance == null) {
+            instance = new RealtimeConnection();
+        }
+        return instance;
+    }
+
+    // Connects to serverUrl, reusing the current connection when it's already the same server.
+    synchronized void connect(String serverUrl) {
+        if (serverUrl == null || serverUrl.isEmpty() || serverUrl.equals(this.serverUrl)) return;
+        disconnect();
+        IO.Options options = new IO.Options();
+        options.reconnection = true;
+        options.reconnectionDelay = RECONNECT_DELAY_MS;
+        options.reconnectionDelayMax = RECONNECT_DELAY_MAX_MS;
+        options.randomizationFactor = RECONNECT_JITTER;
+        try {
+            socket = IO.socket(serverUrl, options);
+        } catch (Exception e) {
+            Log.e(TAG, "Socket.IO setup error: " + e.getMessage(), e);
+            return;
+        }
+        this.serverUrl = serverUrl;
+        epoch = null;
+        lastSeq = -1;
+        pending.clear();
+        socket.on(Socket.EVENT_CONNECT, args -> onConnect());
+        socket.on(Socket.EVENT_DISCONNECT, args -> onDisconnect());
+        socket.on("cursor", args -> dispatchAll(onCursor(payload(args), false)));
+        socket.on(EVENT_GAP, args -> {
+            List<Pending> ready;
+            synchronized (this) {
+                gaps++;
+                ready = onCursor(payload(args), true);
+            }
+            dispatch(EVENT_GAP, payload(args));
+            dispatchAll(ready);
+        });
+        for (String event : listeners.keySet()) {
+            bind(event);
+        }
+        socket.connect();
+    }
+
+    synchronized void disconnect() {
+        if (socket == null) return;
+        socket.off();
+        socket.disconnect();
+        socket = null;
+        serverUrl = null;
+        onDisconnect();
+    }
+
+    boolean isConnected() {
+        return connected;
+    }
+
+    void addListener(String event, Listener listener) {
+        boolean first;
+        synchronized (this) {
+            List<Listener> list = listeners.get(event);
+            first = list == null;
+            if (first) {
+                list = new CopyOnWriteArrayList<>();
+                listeners.put(event, list);
+            }
+            list.add(listener);
+            if (first && socket != null) {
+                bind(event);
+            }
+        }
+    }
+
+    void removeListener(String event, Listener listener) {
+        List<Listener> list = listeners.get(event);
+        if (list != null) {
+            list.remove(listener);
+        }
+    }
+
+    synchronized void logStats() {
+        long uptime = connectedMsTotal + (connected ? SystemClock.elapsedRealtime() - connectedSince : 0);
+        Log.d(TAG, "connected=" + connected + " uptime ms=" + uptime + " connects=" + connects
+                + " reconnects=" + Math.max(0, connects - 1) + " disconnects=" + disconnects + " events=" + events
+                + " replayed=" + replayed + " duplicates=" + duplicates + " gaps=" + gaps + " cursor=" + lastSeq);
+    }
+
+    // Socket-level handlers exist only for events someone subscribed to (plus the internal ones).
+    private void bind(String event) {
+        if (event.equals(EVENT_GAP) || event.equals(EVENT_CONNECTION)) return;
+        socket.on(event, args -> onEvent(event, payload(args)));
+    }
+
+    private void onConnect() {
+        JSONObject request = new JSONObject();
+        synchronized (this) {
+            connected = true;
+            connectedSince = SystemClock.elapsedRealtime();
+            connects++;
+            try {
+                request.put("after", lastSeq >= 0 ? lastSeq : JSONObject.NULL);
+                request.put("epoch", epoch != null ? epoch : JSONObject.NULL);
+            } catch (JSONException e) {
+                Log.e(TAG, "Failed to build replay request: " + e.getMessage());
+            }
+            if (socket != null) {
+                replaying = lastSeq >= 0;
+                socket.emit("replay", request);
+            }
+        }
+        Log.d(TAG, "Connected (" + (connects > 1 ? "reconnect " + (connects - 1) : "first") + "), replay after " + lastSeq);
+        dispatch(EVENT_CONNECTION, null);
+    }
+
+    private void onDisconnect() {
+        synchronized (this) {
+            if (!connected) return;
+            connected = false;
+            disconnects++;
+            connectedMsTotal += SystemClock.elapsedRealtime() - connectedSince;
+        }
+        Log.d(TAG, "Disconnected");
+        dispatch(EVENT_CONNECTION, null);
+    }
+
+    // Ends a replay (or a gap, which skips it) and returns the held-back events to dispatch:
+    // those after what was already delivered, oldest first. Events up to the cursor's seq are
+    // the replayed ones; after a gap or a server restart those are skipped, as they weren't all
+    // received.
+    private synchronized List<Pending> onCursor(JSONObject payload, boolean gap) {
+        replaying = false;
+        String serverEpoch = payload != null ? payload.optString("epoch", null) : null;
+        long seq = payload != null ? payload.optLong("seq", -1) : -1;
+        boolean restarted = serverEpoch != null && !serverEpoch.equals(epoch);
+        if (restarted) {
+            epoch = serverEpoch;
+            lastSeq = seq;
+        } else if (gap) {
+            lastSeq = Math.max(lastSeq, seq);
+        }
+        pending.sort(Comparator.comparingLong(p -> p.seq));
+        List<Pending> ready = new ArrayList<>();
+        for (Pending p : pending) {
+            String eventEpoch = p.payload.optString("epoch", null);
+            if ((eventEpoch != null && !eventEpoch.equals(epoch)) || p.seq <= lastSeq) {
+                duplicates++;
+                continue;
+            }
+            if (p.seq <= seq) {
+                replayed++;
+                Metrics.SOCKET_EVENTS_REPLAYED.increment();
+            } else {
+                recordLag(p.payload);
+            }
+            lastSeq = p.seq;
+            ready.add(p);
+        }
+        pending.clear();
+        lastSeq = Math.max(lastSeq, seq);
+        return ready;
+    }
+
+    // Events replayed after a reconnect can overlap ones already delivered; seq filters them.
+    private void onEvent(String event, JSONObject payload) {
+        synchronized (this) {
+            events++;
+            if (payload != null && payload.has("seq")) {
+                long seq = payload.optLong("seq");
+                if (replaying) {
+                    pending.add(new Pending(event, payload, seq));
+                    return;
+                }
+                String eventEpoch = payload.optString("epoch", null);
+                if (eventEpoch != null && eventEpoch.equals(epoch) && seq <= lastSeq) {
+                    duplicates++;
+                    return;
+                }
+                if (eventEpoch != null && !eventEpoch.equals(epoch)) {
+                    epoch = eventEpoch;
+                }
+                recordLag(payload);
+                lastSeq = seq;
+            }
+        }
+        dispatch(event, payload);
+    }
+
+    // Wall clocks on both ends, so skew shows up here; replayed events are left out since their
+    // lag is the outage.
+    private static void recordLag(JSONObject payload) {
+        if (payload.has("ts")) {
+            Metrics.SOCKET_LAG_MS.record(System.currentTimeMillis() - payload.optLong("ts"));
+        }
+    }
+
+    private void dispatchAll(List<Pending> ready) {
+        for (Pending p : ready) {
+            dispatch(p.event, p.payload);
+        }
+    }
+
+    private void dispatch(String event, JSONObject payload) {
+        List<Listener> list = listeners.get(event);
+        if (list == null) return;
+        for (Listener listener : list) {
+            try {
+                listener.onEvent(event, payload);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Listener for " + event + " failed: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static JSONObject payload(Object[] args) {
+        return args.length > 0 && args[0] instanceof JSONObject ? (JSONObject) args[0] : null;
+    }
+}
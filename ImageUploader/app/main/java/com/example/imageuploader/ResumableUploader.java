@@ -0,0 +1,256 @@
+package com.example.imageuploader;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+// Sends one file through the server's upload sessions (/upload-session, /upload-chunk,
+// /upload-finish), so a dropped connection costs at most the chunk in flight. The session is
+// keyed by the queue entry id and kept by the server, so a later attempt, even after a
+// restart, carries on from the committed offset. Each chunk carries its CRC32, and the server
+// only appends it at the committed offset. Chunk size adapts to the link: it starts at what
+// the uplink estimate can send in TARGET_CHUNK_MS, doubles while chunks go through quickly
+// and halves on slow or failed ones. That size belongs to one upload() call, so uploads running
+// side by side on the queue's threads each adapt on their own.
+class ResumableUploader {
+
+    private static final String TAG = "ResumableUploader";
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+    private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+    static final int MIN_CHUNK_BYTES = 64 * 1024;
+    static final int MAX_CHUNK_BYTES = 4 * 1024 * 1024;
+    private static final long TARGET_CHUNK_MS = 4000;
+    // Consecutive chunk failures (without progress) before the attempt is given up.
+    private static final int MAX_STALLS = 4;
+    private static final long STALL_DELAY_MS = 1000;
+    private static final int TIMEOUT_MS = 30000;
+
+    private final BandwidthEstimator bandwidthEstimator;
+    // Statistics only; the last chunk size any upload settled on.
+    private int lastChunkBytes;
+    private long chunksSent;
+    private long chunkFailures;
+    private long bytesResumed;
+
+    ResumableUploader(BandwidthEstimator bandwidthEstimator) {
+        this.bandwidthEstimator = bandwidthEstimator;
+    }
+
+    // Uploads the file and returns the server's /upload-finish response. fields are the
+    // capture's metadata, as sent with a multipart upload. Throws HttpStatusException for
+    // rejections; 404 or 405 when opening the session means the server has no upload sessions.
+    JSONObject upload(OkHttpClient client, String baseUrl, String uploadId, File file, JSONObject fields)
+            throws IOException, JSONException {
+        OkHttpClient chunkClient = client.newBuilder()
+                .connectTimeout(TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .readTimeout(TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .writeTimeout(TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .build();
+        long size = file.length();
+        JSONObject session = new JSONObject(fields.toString());
+        session.put("upload_id", uploadId);
+        session.put("size", size);
+        session.put("crc32", crc32(file));
+        JSONObject opened = post(chunkClient, baseUrl + "upload-session", RequestBody.create(JSON, session.toString()));
+        if (opened.optBoolean("complete")) return opened;
+        long offset = opened.getLong("offset");
+        if (offset > 0) {
+            Log.d(TAG, "Resuming " + uploadId + " at " + offset + "/" + size);
+            synchronized (this) {
+                bytesResumed += offset;
+            }
+            Metrics.UPLOAD_RESUMED_BYTES.add(offset);
+        }
+
+        byte[] buffer = new byte[0];
+        int chunkBytes = initialChunkBytes();
+        int stalls = 0;
+        boolean resync = false;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            while (offset < size) {
+                try {
+                    if (resync) {
+                        offset = committedOffset(chunkClient, baseUrl, uploadId, size);
+                        resync = false;
+                        if (offset >= size) break;
+                    }
+                    int length = (int) Math.min(size - offset, chunkBytes);
+                    if (buffer.length < length) {
+                        buffer = new byte[length];
+                    }
+                    in.seek(offset);
+                    in.readFully(buffer, 0, length);
+                    CRC32 crc = new CRC32();
+                    crc.update(buffer, 0, length);
+                    long start = SystemClock.elapsedRealtime();
+                    long committed = sendChunk(chunkClient, baseUrl, uploadId, offset, crc.getValue(), buffer, length);
+                    if (committed == offset + length) {
+                        chunkBytes = onChunkSent(chunkBytes, SystemClock.elapsedRealtime() - start);
+                        stalls = 0;
+                    } else {
+                        // The server holds different bytes than expected (e.g. a chunk it stored
+                        // whose response was lost, or one that failed its checksum).
+                        Log.d(TAG, "Chunk at " + offset + " not taken, server has " + committed);
+                        if (committed > offset) {
+                            stalls = 0;
+                        } else if (++stalls >= MAX_STALLS) {
+                            throw new IOException("Chunk at " + offset + " rejected repeatedly");
+                        }
+                    }
+                    offset = committed;
+                } catch (MultipartUploader.HttpStatusException e) {
+                    throw e;
+                } catch (IOException e) {
+                    chunkBytes = onChunkFailed(chunkBytes);
+                    if (++stalls >= MAX_STALLS) throw e;
+                    Log.w(TAG, "Chunk at " + offset + " of " + uploadId + " failed (" + e.getMessage() + "), resyncing");
+                    sleep(STALL_DELAY_MS << (stalls - 1));
+                    resync = true;
+                }
+            }
+        }
+
+        JSONObject finish = new JSONObject();
+        finish.put("id", uploadId);
+        try {
+            return post(chunkClient, baseUrl + "upload-finish", RequestBody.create(JSON, finish.toString()));
+        } catch (MultipartUploader.HttpStatusException e) {
+            if (e.statusCode == 409 || e.statusCode == 422 || e.statusCode == 404) {
+                // Missing bytes, a corrupt file (the server dropped it) or an expired session:
+                // all worth another attempt, not a permanent rejection.
+                throw new IOException("Upload session not finished (Status: " + e.statusCode + ")");
+            }
+            throw e;
+        }
+    }
+
+    synchronized void logStats() {
+        Log.d(TAG, "chunks=" + chunksSent + " failures=" + chunkFailures + " last chunk bytes=" + lastChunkBytes
+                + " resumed bytes=" + bytesResumed);
+    }
+
+    private int initialChunkBytes() {
+        long target = (long) (bandwidthEstimator.getBytesPerMs() * TARGET_CHUNK_MS);
+        return (int) Math.max(MIN_CHUNK_BYTES, Math.min(MAX_CHUNK_BYTES, target));
+    }
+
+    // Returns the size for the next chunk.
+    private synchronized int onChunkSent(int chunkBytes, long ms) {
+        chunksSent++;
+        if (ms < TARGET_CHUNK_MS / 2) {
+            chunkBytes = Math.min(MAX_CHUNK_BYTES, chunkBytes * 2);
+        } else if (ms > TARGET_CHUNK_MS * 2) {
+            chunkBytes = Math.max(MIN_CHUNK_BYTES, chunkBytes / 2);
+        }
+        lastChunkBytes = chunkBytes;
+        return chunkBytes;
+    }
+
+    private synchronized int onChunkFailed(int chunkBytes) {
+        chunkFailures++;
+        Metrics.UPLOAD_CHUNK_FAILURES.increment();
+        lastChunkBytes = Math.max(MIN_CHUNK_BYTES, chunkBytes / 2);
+        return lastChunkBytes;
+    }
+
+    // Returns the server's committed offset after the chunk: offset + length when it was
+    // stored, otherwise where the server actually is (409 misaligned, 422 bad checksum).
+    private static long sendChunk(OkHttpClient client, String baseUrl, String uploadId, long offset, long crc,
+                                  byte[] buffer, int length) throws IOException, JSONException {
+        HttpUrl url = HttpUrl.parse(baseUrl + "upload-chunk");
+        if (url == null) throw new IOException("Bad server URL " + baseUrl);
+        Request request = new Request.Builder()
+                .url(url.newBuilder()
+                        .addQueryParameter("id", uploadId)
+                        .addQueryParameter("offset", String.valueOf(offset))
+                        .addQueryParameter("crc32", String.valueOf(crc))
+                        .build())
+                .post(RequestBody.create(OCTET_STREAM, buffer, 0, length))
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            ResponseBody body = response.body();
+            String text = body != null ? body.string() : "";
+            if (response.isSuccessful() || response.code() == 409 || response.code() == 422) {
+                return new JSONObject(text).getLong("offset");
+            }
+            if (response.code() == 404) {
+                throw new IOException("Upload session " + uploadId + " expired");
+            }
+            throw new MultipartUploader.HttpStatusException(response.code(), text);
+        }
+    }
+
+    // Where the server's copy ends; size when it already holds the finished upload.
+    private static long committedOffset(OkHttpClient client, String baseUrl, String uploadId, long size)
+            throws IOException, JSONException {
+        HttpUrl url = HttpUrl.parse(baseUrl + "upload-session");
+        if (url == null) throw new IOException("Bad server URL " + baseUrl);
+        Request request = new Request.Builder()
+                .url(url.newBuilder().addQueryParameter("id", uploadId).build())
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            ResponseBody body = response.body();
+            String text = body != null ? body.string() : "";
+            if (response.code() == 404) {
+                throw new IOException("Upload session " + uploadId + " expired");
+            }
+            if (!response.isSuccessful()) {
+                throw new MultipartUploader.HttpStatusException(response.code(), text);
+            }
+            JSONObject json = new JSONObject(text);
+            return json.optBoolean("complete") ? size : json.getLong("offset");
+        }
+    }
+
+    private static JSONObject post(OkHttpClient client, String url, RequestBody body) throws IOException, JSONException {
+        Request request = new Request.Builder().url(url).post(body).build();
+        try (Response response = client.newCall(request).execute()) {
+            ResponseBody responseBody = response.body();
+            String text = responseBody != null ? responseBody.string() : "";
+            if (!response.isSuccessful()) {
+                throw new MultipartUploader.HttpStatusException(response.code(), text);
+            }
+            return new JSONObject(text);
+        }
+    }
+
+    private static long crc32(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[16 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, bytesRead);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static void sleep(long ms) throws InterruptedIOException {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted between chunks");
+        }
+    }
+}
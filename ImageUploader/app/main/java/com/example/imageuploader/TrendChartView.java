@@ -0,0 +1,168 @@
+package com.example.imageuploader;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.os.SystemClock;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.View;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+// Line chart of a SummaryRollups.Trend, one line per class. Each series is cut down with LTTB to
+// about one point per two pixels of width whenever the trend or the size changes, so the paths
+// stay small however long the history is; drawing only replays them.
+public class TrendChartView extends View {
+
+    private static final int[] COLORS = {
+            0xFFE53935, 0xFF1E88E5, 0xFF43A047, 0xFFFB8C00, 0xFF8E24AA, 0xFF00ACC1, 0xFF6D4C41, 0xFF546E7A};
+    private static final int PIXELS_PER_POINT = 2;
+
+    private final Paint[] linePaints = new Paint[SummaryRollups.MAX_CLASSES];
+    private final Path[] paths = new Path[SummaryRollups.MAX_CLASSES];
+    private final Paint axisPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final float textSize;
+    private SummaryRollups.Trend trend;
+    private int[] kept = new int[0];
+    private int seriesCount;
+    private String[] legend = new String[0];
+    private float[] legendX = new float[0];
+    private String firstLabel = "";
+    private String lastLabel = "";
+    private String maxLabel = "";
+    private String emptyText = "No history yet";
+
+    public TrendChartView(Context context) {
+        this(context, null);
+    }
+
+    public TrendChartView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        textSize = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 12, getResources().getDisplayMetrics());
+        float lineWidth = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 1.5f, getResources().getDisplayMetrics());
+        for (int c = 0; c < linePaints.length; c++) {
+            linePaints[c] = new Paint(Paint.ANTI_ALIAS_FLAG);
+            linePaints[c].setStyle(Paint.Style.STROKE);
+            linePaints[c].setStrokeWidth(lineWidth);
+            linePaints[c].setStrokeJoin(Paint.Join.ROUND);
+            linePaints[c].setColor(COLORS[c % COLORS.length]);
+            paths[c] = new Path();
+        }
+        axisPaint.setColor(Color.GRAY);
+        axisPaint.setStrokeWidth(1);
+        textPaint.setColor(Color.DKGRAY);
+        textPaint.setTextSize(textSize);
+    }
+
+    // Null clears the chart and shows emptyText.
+    void setTrend(SummaryRollups.Trend trend, String emptyText) {
+        this.trend = trend;
+        this.emptyText = emptyText;
+        rebuild();
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        rebuild();
+    }
+
+    private void rebuild() {
+        seriesCount = 0;
+        int width = getWidth() - getPaddingLeft() - getPaddingRight();
+        int height = getHeight() - getPaddingTop() - getPaddingBottom();
+        if (trend == null || trend.size() == 0 || width <= 0 || height <= 0) return;
+        long start = SystemClock.elapsedRealtimeNanos();
+
+        int n = trend.size();
+        long[] x = trend.bucketStarts;
+        int max = 1;
+        for (int[] series : trend.counts) {
+            for (int i = 0; i < n; i++) {
+                max = Math.max(max, series[i]);
+            }
+        }
+
+        // Legend on the first line, date labels on the last; the plot takes the rest.
+        float left = getPaddingLeft();
+        float top = getPaddingTop() + textSize * 1.5f;
+        float bottom = getPaddingTop() + height - textSize * 1.5f;
+        float plotHeight = Math.max(1, bottom - top);
+        long firstX = x[0];
+        double xScale = n > 1 ? (double) width / (x[n - 1] - firstX) : 0;
+
+        int threshold = Math.max(3, width / PIXELS_PER_POINT);
+        if (kept.length < threshold) {
+            kept = new int[threshold];
+        }
+        seriesCount = Math.min(trend.classes.length, paths.length);
+        for (int c = 0; c < seriesCount; c++) {
+            int[] y = trend.counts[c];
+            int count = Lttb.downsample(x, y, n, threshold, kept);
+            Path path = paths[c];
+            path.reset();
+            for (int k = 0; k < count; k++) {
+                int i = kept[k];
+                float px = left + (float) ((x[i] - firstX) * xScale);
+                float py = bottom - plotHeight * y[i] / max;
+                if (k == 0) {
+                    path.moveTo(px, py);
+                } else {
+                    path.lineTo(px, py);
+                }
+            }
+            if (count == 1) {
+                // A single bucket: a level line across the plot rather than an invisible dot.
+                float py = bottom - plotHeight * y[0] / max;
+                path.reset();
+                path.moveTo(left, py);
+                path.lineTo(left + width, py);
+            }
+        }
+
+        legend = new String[seriesCount];
+        legendX = new float[seriesCount];
+        float legendLeft = left;
+        for (int c = 0; c < seriesCount; c++) {
+            legend[c] = trend.classes[c];
+            legendX[c] = legendLeft;
+            legendLeft += textPaint.measureText(legend[c]) + textSize;
+        }
+        SimpleDateFormat format = new SimpleDateFormat(
+                trend.resolution == SummaryRollups.HOUR ? "MMM d HH:mm" : "MMM d yyyy", Locale.getDefault());
+        firstLabel = format.format(new Date(x[0]));
+        lastLabel = format.format(new Date(x[n - 1]));
+        maxLabel = String.valueOf(max);
+        Metrics.TREND_BUILD_US.recordMicrosSince(start);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        float left = getPaddingLeft();
+        float right = getWidth() - getPaddingRight();
+        float baseline = getHeight() - getPaddingBottom();
+        if (seriesCount == 0) {
+            canvas.drawText(emptyText, left, getPaddingTop() + textSize, textPaint);
+            return;
+        }
+        float bottom = baseline - textSize * 1.5f;
+        canvas.drawLine(left, bottom, right, bottom, axisPaint);
+        for (int c = 0; c < seriesCount; c++) {
+            canvas.drawPath(paths[c], linePaints[c]);
+            textPaint.setColor(linePaints[c].getColor());
+            canvas.drawText(legend[c], legendX[c], getPaddingTop() + textSize, textPaint);
+        }
+        textPaint.setColor(Color.DKGRAY);
+        canvas.drawText(maxLabel, right - textPaint.measureText(maxLabel), getPaddingTop() + textSize, textPaint);
+        canvas.drawText(firstLabel, left, baseline, textPaint);
+        canvas.drawText(lastLabel, right - textPaint.measureText(lastLabel), baseline, textPaint);
+    }
+}
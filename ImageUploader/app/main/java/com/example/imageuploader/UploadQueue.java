@@ -0,0 +1,784 @@
+package com.example.imageuploader;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+// Disk-backed journal of pending uploads. Each capture is one small JSON file, so entries
+// survive process death; a background drain sends them in bounded batches with backoff, several
+// captures per request when the server supports /upload-batch. Large captures go on their own
+// through resumable upload sessions instead (see ResumableUploader).
+class UploadQueue {
+
+    private static final String TAG = "UploadQueue";
+    private static final String JOURNAL_DIR = "upload_journal";
+    private static final String ACK_FILE = "acknowledged.txt";
+    private static final int BATCH_SIZE = 8;
+    private static final int MAX_CONCURRENT_UPLOADS = 3;
+    private static final int MAX_ITEMS_PER_REQUEST = 4;
+    private static final long MAX_BYTES_PER_REQUEST = 8 * 1024 * 1024;
+    private static final long RESUMABLE_MIN_BYTES = 512 * 1024;
+    private static final long BASE_BACKOFF_MS = 2000;
+    private static final long MAX_BACKOFF_MS = 5 * 60 * 1000;
+    private static final int MAX_ACK_HISTORY = 500;
+
+    private static UploadQueue instance;
+
+    interface Listener {
+        // duplicate is true when documentId was already acknowledged for an earlier entry.
+        void onUploaded(Entry entry, String documentId, String message, boolean duplicate);
+
+        void onDropped(Entry entry);
+
+        // sending counts the entries with a request in flight; the rest wait for a retry or a release.
+        void onPendingCountChanged(int pending, int sending);
+    }
+
+    static class Entry {
+        final String id;
+        final String serverUrl;
+        final String filePath;
+        String locationTag;
+        final long captureTime;
+        final String perceptualHash;
+        String encoding;
+        String quality;
+        boolean checkDuplicate;
+        // Geohash cell whose locality hadn't resolved when the entry was queued; null once the
+        // tag is final.
+        String provisionalCell;
+        // Set once uploaded while the tag is still provisional.
+        String documentId;
+        int attempts;
+        long nextAttemptAt;
+
+        Entry(String id, String serverUrl, String filePath, String locationTag, long captureTime, String perceptualHash) {
+            this.id = id;
+            this.serverUrl = serverUrl;
+            this.filePath = filePath;
+            this.locationTag = locationTag;
+            this.captureTime = captureTime;
+            this.perceptualHash = perceptualHash;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("id", id);
+            json.put("serverUrl", serverUrl);
+            json.put("filePath", filePath);
+            json.put("location", locationTag);
+            json.put("captureTime", captureTime);
+            json.put("phash", perceptualHash);
+            json.put("encoding", encoding);
+            json.put("quality", quality);
+            json.put("checkDuplicate", checkDuplicate);
+            json.put("provisionalCell", provisionalCell);
+            json.put("documentId", documentId);
+            json.put("attempts", attempts);
+            json.put("nextAttemptAt", nextAttemptAt);
+            return json;
+        }
+
+        static Entry fromJson(JSONObject json) {
+            Entry entry = new Entry(json.optString("id"), json.optString("serverUrl"), json.optString("filePath"),
+                    json.optString("location", "Unknown"), json.optLong("captureTime"), json.optString("phash", null));
+            entry.encoding = json.optString("encoding", null);
+            entry.quality = json.optString("quality", null);
+            entry.checkDuplicate = json.optBoolean("checkDuplicate");
+            entry.provisionalCell = json.optString("provisionalCell", null);
+            entry.documentId = json.optString("documentId", null);
+            entry.attempts = json.optInt("attempts");
+            entry.nextAttemptAt = json.optLong("nextAttemptAt");
+            return entry;
+        }
+    }
+
+    private final HttpClient httpClient;
+    private final DuplicateIndex duplicateIndex;
+    private final File journalDir;
+    private final File ackFile;
+    private final Map<String, Entry> pending = new LinkedHashMap<>();
+    private final Set<String> inFlight = new HashSet<>();
+    private final Map<String, String> acknowledged = new LinkedHashMap<>();
+    // The document ids in acknowledged, so a duplicate acknowledgement is found without a scan.
+    private final Set<String> acknowledgedDocuments = new HashSet<>();
+    // Location fixes for entries that were in flight when the fix arrived.
+    private final Map<String, String> locationCorrections = new HashMap<>();
+    // Uploaded entries whose tag is still provisional, kept in the journal until their cell resolves.
+    private final Map<String, Entry> awaitingLocation = new LinkedHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService uploadExecutor = Executors.newFixedThreadPool(MAX_CONCURRENT_UPLOADS);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Random random = new Random();
+    private ScheduledFuture<?> scheduledDrain;
+    private boolean started;
+    private int holds;
+    private volatile boolean serverHashCheck = true;
+    private final Set<String> singleUploadServers = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final Set<String> nonResumableServers = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final ResumableUploader resumableUploader;
+    private final long[] singleStats = new long[4];
+    private final long[] batchStats = new long[4];
+    private final long[] resumableStats = new long[4];
+
+    static synchronized UploadQueue getInstance(Context context) {
+        if (instance == null) {
+            instance = new UploadQueue(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private UploadQueue(Context context) {
+        httpClient = HttpClient.getInstance(context);
+        resumableUploader = new ResumableUploader(httpClient.getBandwidthEstimator());
+        duplicateIndex = DuplicateIndex.getInstance(context);
+        journalDir = new File(context.getFilesDir(), JOURNAL_DIR);
+        ackFile = new File(journalDir, ACK_FILE);
+        if (!journalDir.exists() && !journalDir.mkdirs()) {
+            Log.e(TAG, "Could not create journal directory " + journalDir);
+        }
+        scheduler.execute(this::loadJournal);
+
+        ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager != null) {
+            connectivityManager.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    Log.d(TAG, "Network available, draining queue");
+                    retryNow();
+                }
+            });
+        }
+    }
+
+    void start() {
+        scheduler.execute(() -> {
+            if (!started) {
+                started = true;
+                drain();
+            }
+        });
+    }
+
+    void addListener(Listener listener) {
+        listeners.add(listener);
+        scheduler.execute(() -> notifyPendingCount());
+    }
+
+    void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    void setServerHashCheck(boolean enabled) {
+        serverHashCheck = enabled;
+    }
+
+    // checkDuplicate is false when the user has already overridden a local duplicate warning.
+    // encoding and quality are JSON records of how the file was encoded and how the capture
+    // scored, stored alongside the upload. provisionalCell is the geohash cell when locationTag is
+    // a stand-in for a locality still being geocoded, otherwise null.
+    String enqueue(String serverUrl, String filePath, String locationTag, String provisionalCell, String perceptualHash,
+                   String encoding, String quality, boolean checkDuplicate) {
+        Entry entry = new Entry(UUID.randomUUID().toString(), serverUrl, filePath, locationTag, System.currentTimeMillis(), perceptualHash);
+        entry.encoding = encoding;
+        entry.quality = quality;
+        entry.checkDuplicate = checkDuplicate;
+        entry.provisionalCell = provisionalCell;
+        scheduler.execute(() -> {
+            try {
+                writeEntry(entry);
+            } catch (IOException | JSONException e) {
+                Log.e(TAG, "Failed to journal upload: " + e.getMessage(), e);
+            }
+            pending.put(entry.id, entry);
+            notifyPendingCount();
+            drain();
+        });
+        return entry.id;
+    }
+
+    // While held, new entries are journaled but not sent, so a burst goes out as full batches.
+    void hold() {
+        scheduler.execute(() -> holds++);
+    }
+
+    void release() {
+        scheduler.execute(() -> {
+            holds = Math.max(0, holds - 1);
+            drain();
+        });
+    }
+
+    // Replaces the provisional location tag of every entry queued in this cell, once its real
+    // locality has been geocoded. A pending entry is rewritten in the journal (an in-flight one
+    // when its attempt ends); one already uploaded is corrected on the server with /update-location.
+    // The journal keeps entries provisional across restarts until a lookup of their cell succeeds.
+    void correctLocations(String cell, String locationTag) {
+        scheduler.execute(() -> {
+            for (Entry entry : pending.values()) {
+                if (!cell.equals(entry.provisionalCell)) continue;
+                entry.provisionalCell = null;
+                relocateDuplicate(entry, locationTag);
+                if (inFlight.contains(entry.id)) {
+                    locationCorrections.put(entry.id, locationTag);
+                    continue;
+                }
+                entry.locationTag = locationTag;
+                try {
+                    writeEntry(entry);
+                } catch (IOException | JSONException e) {
+                    Log.e(TAG, "Failed to update journal entry: " + e.getMessage());
+                }
+            }
+            Iterator<Entry> uploaded = awaitingLocation.values().iterator();
+            while (uploaded.hasNext()) {
+                Entry entry = uploaded.next();
+                if (!cell.equals(entry.provisionalCell)) continue;
+                uploaded.remove();
+                deleteEntry(entry);
+                relocateDuplicate(entry, locationTag);
+                if (!locationTag.equals(entry.locationTag)) {
+                    uploadExecutor.execute(() -> sendLocationCorrection(entry.serverUrl, entry.documentId, locationTag));
+                }
+            }
+        });
+    }
+
+    // The capture was recorded in the duplicate index under the provisional tag.
+    private void relocateDuplicate(Entry entry, String locationTag) {
+        if (entry.perceptualHash != null) {
+            duplicateIndex.relocate(entry.locationTag, locationTag, PerceptualHash.fromHex(entry.perceptualHash));
+        }
+    }
+
+    void retryNow() {
+        scheduler.execute(() -> {
+            for (Entry entry : pending.values()) {
+                entry.nextAttemptAt = 0;
+            }
+            drain();
+        });
+    }
+
+    private void loadJournal() {
+        loadAcknowledged();
+        File[] files = journalDir.listFiles((dir, name) -> name.endsWith(".json"));
+        if (files == null) return;
+        List<Entry> entries = new ArrayList<>();
+        for (File file : files) {
+            try {
+                Entry entry = Entry.fromJson(new JSONObject(readFile(file)));
+                if (entry.documentId != null) {
+                    if (System.currentTimeMillis() - entry.captureTime > GeoTagCache.TTL_MS) {
+                        deleteEntry(entry);
+                    } else {
+                        awaitingLocation.put(entry.id, entry);
+                    }
+                    continue;
+                }
+                if (acknowledged.containsKey(entry.id) || !new File(entry.filePath).exists()) {
+                    deleteEntry(entry);
+                    continue;
+                }
+                entries.add(entry);
+            } catch (IOException | JSONException e) {
+                Log.e(TAG, "Dropping corrupt journal entry " + file.getName() + ": " + e.getMessage());
+                file.delete();
+            }
+        }
+        Collections.sort(entries, (a, b) -> Long.compare(a.captureTime, b.captureTime));
+        for (Entry entry : entries) {
+            pending.put(entry.id, entry);
+        }
+        Log.d(TAG, "Loaded " + entries.size() + " pending uploads from journal");
+        notifyPendingCount();
+    }
+
+    // Runs on the scheduler thread, which owns all queue state.
+    private void drain() {
+        if (!started || holds > 0) return;
+        long now = System.currentTimeMillis();
+        long nextWakeUp = Long.MAX_VALUE;
+        List<Entry> batch = new ArrayList<>();
+        for (Entry entry : pending.values()) {
+            if (inFlight.contains(entry.id)) continue;
+            if (entry.nextAttemptAt > now) {
+                nextWakeUp = Math.min(nextWakeUp, entry.nextAttemptAt);
+                continue;
+            }
+            if (inFlight.size() + batch.size() >= BATCH_SIZE) break;
+            batch.add(entry);
+        }
+
+        List<List<Entry>> requests = groupRequests(batch);
+        for (List<Entry> request : requests) {
+            for (Entry entry : request) {
+                inFlight.add(entry.id);
+            }
+            if (request.size() == 1) {
+                Entry entry = request.get(0);
+                uploadExecutor.execute(() -> upload(entry));
+            } else {
+                uploadExecutor.execute(() -> uploadBatch(request));
+            }
+        }
+        if (!requests.isEmpty()) {
+            notifyPendingCount();
+        }
+
+        if (scheduledDrain != null) {
+            scheduledDrain.cancel(false);
+            scheduledDrain = null;
+        }
+        if (nextWakeUp != Long.MAX_VALUE) {
+            scheduledDrain = scheduler.schedule(this::drain, nextWakeUp - now, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void upload(Entry entry) {
+        String baseUrl = entry.serverUrl.endsWith("/") ? entry.serverUrl : entry.serverUrl + "/";
+        Map<String, String> fields = new LinkedHashMap<>();
+        fields.put("location", entry.locationTag);
+        fields.put("upload_id", entry.id);
+        fields.put("capture_time", String.valueOf(entry.captureTime));
+        if (entry.encoding != null) {
+            fields.put("encoding", entry.encoding);
+        }
+        if (entry.quality != null) {
+            fields.put("quality", entry.quality);
+        }
+        if (entry.perceptualHash != null) {
+            fields.put("phash", entry.perceptualHash);
+            String existing = serverHashCheck && entry.checkDuplicate ? findServerDuplicate(baseUrl, entry) : null;
+            if (existing != null) {
+                Log.d(TAG, "Upload " + entry.id + " merged into near-duplicate " + existing);
+                scheduler.execute(() -> onAcknowledged(entry, existing, "Similar image already uploaded"));
+                return;
+            }
+        }
+        File file = new File(entry.filePath);
+        if (isResumable(entry, file.length()) && uploadResumable(baseUrl, entry, file, fields)) return;
+        String uploadUrl = baseUrl + "upload";
+        try {
+            MultipartBody body = new MultipartBody(file, fields);
+            long start = SystemClock.elapsedRealtime();
+            String responseBody = MultipartUploader.execute(httpClient.getOkHttpClient(), uploadUrl, body);
+            recordTransfer(singleStats, 1, body.getContentLength(), SystemClock.elapsedRealtime() - start);
+            JSONObject jsonResponse = new JSONObject(responseBody);
+            String documentId = jsonResponse.optString("document_id", "");
+            String message = jsonResponse.optString("message", "File uploaded successfully");
+            scheduler.execute(() -> onAcknowledged(entry, documentId, message));
+        } catch (MultipartUploader.HttpStatusException e) {
+            Log.e(TAG, "Upload " + entry.id + " rejected (Status: " + e.statusCode + "): " + e.getMessage());
+            scheduler.execute(() -> onFailed(entry, e.statusCode >= 400 && e.statusCode < 500 && e.statusCode != 408 && e.statusCode != 429));
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Upload " + entry.id + " failed: " + e.getMessage());
+            scheduler.execute(() -> onFailed(entry, false));
+        }
+    }
+
+    private boolean isResumable(Entry entry, long length) {
+        return length >= RESUMABLE_MIN_BYTES && !nonResumableServers.contains(entry.serverUrl);
+    }
+
+    // Returns false, without settling the entry, when the server has no upload sessions.
+    private boolean uploadResumable(String baseUrl, Entry entry, File file, Map<String, String> fields) {
+        try {
+            JSONObject meta = new JSONObject();
+            for (Map.Entry<String, String> field : fields.entrySet()) {
+                meta.put(field.getKey(), field.getValue());
+            }
+            long start = SystemClock.elapsedRealtime();
+            JSONObject response = resumableUploader.upload(httpClient.getOkHttpClient(), baseUrl, entry.id, file, meta);
+            recordTransfer(resumableStats, 1, file.length(), SystemClock.elapsedRealtime() - start);
+            String documentId = response.optString("document_id", "");
+            String message = response.optString("message", "File uploaded successfully");
+            scheduler.execute(() -> onAcknowledged(entry, documentId, message));
+        } catch (MultipartUploader.HttpStatusException e) {
+            if (e.statusCode == 404 || e.statusCode == 405) {
+                Log.i(TAG, entry.serverUrl + " has no upload sessions, sending whole files");
+                nonResumableServers.add(entry.serverUrl);
+                return false;
+            }
+            Log.e(TAG, "Resumable upload " + entry.id + " rejected (Status: " + e.statusCode + "): " + e.getMessage());
+            scheduler.execute(() -> onFailed(entry, e.statusCode >= 400 && e.statusCode < 500 && e.statusCode != 408 && e.statusCode != 429));
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Resumable upload " + entry.id + " interrupted, will resume: " + e.getMessage());
+            scheduler.execute(() -> onFailed(entry, false));
+        }
+        return true;
+    }
+
+    // Splits the ready entries into requests: one server per request, bounded by item count and
+    // bytes. Servers that turned out not to support /upload-batch get one entry per request, and
+    // so do captures large enough for a resumable upload.
+    private List<List<Entry>> groupRequests(List<Entry> entries) {
+        List<List<Entry>> requests = new ArrayList<>();
+        Map<String, List<Entry>> open = new HashMap<>();
+        Map<String, Long> openBytes = new HashMap<>();
+        for (Entry entry : entries) {
+            long length = new File(entry.filePath).length();
+            if (singleUploadServers.contains(entry.serverUrl) || isResumable(entry, length)) {
+                requests.add(Collections.singletonList(entry));
+                continue;
+            }
+            List<Entry> request = open.get(entry.serverUrl);
+            long bytes = request != null ? openBytes.get(entry.serverUrl) : 0;
+            if (request == null || request.size() >= MAX_ITEMS_PER_REQUEST || bytes + length > MAX_BYTES_PER_REQUEST) {
+                request = new ArrayList<>();
+                requests.add(request);
+                open.put(entry.serverUrl, request);
+                bytes = 0;
+            }
+            request.add(entry);
+            openBytes.put(entry.serverUrl, bytes + length);
+        }
+        return requests;
+    }
+
+    // Sends several entries as one multipart request and settles each from its own result.
+    private void uploadBatch(List<Entry> entries) {
+        String serverUrl = entries.get(0).serverUrl;
+        String batchUrl = (serverUrl.endsWith("/") ? serverUrl : serverUrl + "/") + "upload-batch";
+        List<File> files = new ArrayList<>();
+        JSONArray items = new JSONArray();
+        try {
+            for (Entry entry : entries) {
+                files.add(new File(entry.filePath));
+                JSONObject item = new JSONObject();
+                item.put("upload_id", entry.id);
+                item.put("location", entry.locationTag);
+                item.put("capture_time", entry.captureTime);
+                if (entry.perceptualHash != null) {
+                    item.put("phash", entry.perceptualHash);
+                    item.put("check_duplicate", serverHashCheck && entry.checkDuplicate);
+                    item.put("max_distance", duplicateIndex.getMaxDistance());
+                    item.put("window", duplicateIndex.getWindowMs() / 1000);
+                }
+                if (entry.encoding != null) {
+                    item.put("encoding", new JSONObject(entry.encoding));
+                }
+                if (entry.quality != null) {
+                    item.put("quality", new JSONObject(entry.quality));
+                }
+                items.put(item);
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to describe batch: " + e.getMessage());
+            scheduler.execute(() -> {
+                for (Entry entry : entries) {
+                    onFailed(entry, false);
+                }
+            });
+            return;
+        }
+
+        Map<String, String> fields = new LinkedHashMap<>();
+        fields.put("items", items.toString());
+        try {
+            MultipartBody body = new MultipartBody(files, "files", fields);
+            long start = SystemClock.elapsedRealtime();
+            String responseBody = MultipartUploader.execute(httpClient.getOkHttpClient(), batchUrl, body);
+            recordTransfer(batchStats, entries.size(), body.getContentLength(), SystemClock.elapsedRealtime() - start);
+            JSONArray results = new JSONObject(responseBody).getJSONArray("results");
+            Map<String, JSONObject> byId = new HashMap<>();
+            for (int i = 0; i < results.length(); i++) {
+                JSONObject result = results.getJSONObject(i);
+                byId.put(result.optString("upload_id"), result);
+            }
+            scheduler.execute(() -> {
+                for (Entry entry : entries) {
+                    JSONObject result = byId.get(entry.id);
+                    if (result == null || result.has("error")) {
+                        int status = result != null ? result.optInt("status", 500) : 500;
+                        Log.w(TAG, "Batch item " + entry.id + " failed: " + (result != null ? result.optString("error") : "missing result"));
+                        onFailed(entry, status >= 400 && status < 500);
+                    } else {
+                        onAcknowledged(entry, result.optString("document_id", ""),
+                                result.optString("message", "File uploaded successfully"));
+                    }
+                }
+            });
+        } catch (MultipartUploader.HttpStatusException e) {
+            if (e.statusCode == 404 || e.statusCode == 405) {
+                Log.i(TAG, serverUrl + " has no batch endpoint, uploading individually");
+                singleUploadServers.add(serverUrl);
+                scheduler.execute(() -> {
+                    for (Entry entry : entries) {
+                        inFlight.remove(entry.id);
+                    }
+                    drain();
+                });
+                return;
+            }
+            Log.e(TAG, "Batch of " + entries.size() + " rejected (Status: " + e.statusCode + "): " + e.getMessage());
+            boolean permanent = e.statusCode >= 400 && e.statusCode < 500 && e.statusCode != 408 && e.statusCode != 429;
+            scheduler.execute(() -> {
+                for (Entry entry : entries) {
+                    onFailed(entry, permanent);
+                }
+            });
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Batch of " + entries.size() + " failed: " + e.getMessage());
+            scheduler.execute(() -> {
+                for (Entry entry : entries) {
+                    onFailed(entry, false);
+                }
+            });
+        }
+    }
+
+    // stats: {requests, items, bytes, ms}
+    private void recordTransfer(long[] stats, int items, long bytes, long ms) {
+        Metrics.UPLOAD_MS.record(ms);
+        Metrics.UPLOAD_BYTES.record(bytes);
+        synchronized (stats) {
+            stats[0]++;
+            stats[1] += items;
+            stats[2] += bytes;
+            stats[3] += ms;
+        }
+    }
+
+    void logStats() {
+        Log.d(TAG, "Single uploads: " + describeTransfers(singleStats) + "; batched uploads: " + describeTransfers(batchStats)
+                + "; resumable uploads: " + describeTransfers(resumableStats));
+        resumableUploader.logStats();
+    }
+
+    private static String describeTransfers(long[] stats) {
+        synchronized (stats) {
+            if (stats[0] == 0) return "none";
+            return stats[1] + " items in " + stats[0] + " requests, " + stats[3] / stats[1] + "ms/item, "
+                    + (stats[3] > 0 ? stats[2] * 1000 / stats[3] / 1024 : 0) + " KB/s";
+        }
+    }
+
+    // Asks the server whether a near-identical capture of this location was stored recently.
+    // Any failure (including an older server without /check-hash) just means "upload it".
+    private String findServerDuplicate(String baseUrl, Entry entry) {
+        HttpUrl url = HttpUrl.parse(baseUrl + "check-hash");
+        if (url == null) return null;
+        Request request = new Request.Builder()
+                .url(url.newBuilder()
+                        .addQueryParameter("hash", entry.perceptualHash)
+                        .addQueryParameter("location", entry.locationTag)
+                        .addQueryParameter("max_distance", String.valueOf(duplicateIndex.getMaxDistance()))
+                        .addQueryParameter("window", String.valueOf(duplicateIndex.getWindowMs() / 1000))
+                        .build())
+                .build();
+        try (Response response = httpClient.getOkHttpClient().newCall(request).execute()) {
+            ResponseBody body = response.body();
+            if (!response.isSuccessful() || body == null) return null;
+            JSONObject json = new JSONObject(body.string());
+            return json.optBoolean("duplicate", false) ? json.optString("document_id", null) : null;
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Hash check failed, uploading anyway: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Best effort: the upload itself already succeeded, so a failed fix is only logged.
+    private void sendLocationCorrection(String serverUrl, String documentId, String locationTag) {
+        String baseUrl = serverUrl.endsWith("/") ? serverUrl : serverUrl + "/";
+        try {
+            JSONObject json = new JSONObject();
+            json.put("document_id", documentId);
+            json.put("location", locationTag);
+            Request request = new Request.Builder()
+                    .url(baseUrl + "update-location")
+                    .post(RequestBody.create(MediaType.parse("application/json; charset=utf-8"), json.toString()))
+                    .build();
+            try (Response response = httpClient.getOkHttpClient().newCall(request).execute()) {
+                if (response.isSuccessful()) {
+                    Log.d(TAG, "Location of " + documentId + " corrected to " + locationTag);
+                } else {
+                    Log.w(TAG, "Location correction for " + documentId + " rejected (Status: " + response.code() + ")");
+                }
+            }
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Location correction for " + documentId + " failed: " + e.getMessage());
+        }
+    }
+
+    private void onAcknowledged(Entry entry, String documentId, String message) {
+        inFlight.remove(entry.id);
+        pending.remove(entry.id);
+        boolean duplicate = !documentId.isEmpty() && acknowledgedDocuments.contains(documentId);
+        // A document already acknowledged for an earlier entry keeps its location.
+        String correction = locationCorrections.remove(entry.id);
+        if (correction != null && !documentId.isEmpty() && !duplicate && !correction.equals(entry.locationTag)) {
+            uploadExecutor.execute(() -> sendLocationCorrection(entry.serverUrl, documentId, correction));
+        }
+        recordAcknowledged(entry.id, documentId);
+        if (entry.provisionalCell != null && !documentId.isEmpty() && !duplicate) {
+            entry.documentId = documentId;
+            awaitingLocation.put(entry.id, entry);
+            try {
+                writeEntry(entry);
+            } catch (IOException | JSONException e) {
+                Log.e(TAG, "Failed to update journal entry: " + e.getMessage());
+            }
+        } else {
+            deleteEntry(entry);
+        }
+        Log.d(TAG, "Upload " + entry.id + " acknowledged as " + documentId + (duplicate ? " (duplicate)" : ""));
+        for (Listener listener : listeners) {
+            mainHandler.post(() -> listener.onUploaded(entry, documentId, message, duplicate));
+        }
+        notifyPendingCount();
+        drain();
+    }
+
+    private void onFailed(Entry entry, boolean permanent) {
+        inFlight.remove(entry.id);
+        Metrics.UPLOAD_FAILURES.increment();
+        String correction = locationCorrections.remove(entry.id);
+        if (correction != null) {
+            entry.locationTag = correction;
+        }
+        if (permanent) {
+            Log.e(TAG, "Dropping upload " + entry.id + " after permanent failure");
+            pending.remove(entry.id);
+            deleteEntry(entry);
+            for (Listener listener : listeners) {
+                mainHandler.post(() -> listener.onDropped(entry));
+            }
+            notifyPendingCount();
+        } else {
+            entry.attempts++;
+            long backoff = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(entry.attempts - 1, 16));
+            entry.nextAttemptAt = System.currentTimeMillis() + backoff / 2 + (long) (random.nextDouble() * backoff / 2);
+            try {
+                writeEntry(entry);
+            } catch (IOException | JSONException e) {
+                Log.e(TAG, "Failed to update journal entry: " + e.getMessage());
+            }
+            notifyPendingCount();
+        }
+        drain();
+    }
+
+    private void notifyPendingCount() {
+        int count = pending.size();
+        int sending = inFlight.size();
+        for (Listener listener : listeners) {
+            mainHandler.post(() -> listener.onPendingCountChanged(count, sending));
+        }
+    }
+
+    private void writeEntry(Entry entry) throws IOException, JSONException {
+        File tmp = new File(journalDir, entry.id + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            fos.write(entry.toJson().toString().getBytes(StandardCharsets.UTF_8));
+            fos.getFD().sync();
+        }
+        if (!tmp.renameTo(new File(journalDir, entry.id + ".json"))) {
+            throw new IOException("Could not commit journal entry " + entry.id);
+        }
+    }
+
+    // The capture file goes with the entry: nothing reads it once the upload is acknowledged,
+    // dropped or (for a provisional tag) corrected on the server.
+    private void deleteEntry(Entry entry) {
+        new File(journalDir, entry.id + ".json").delete();
+        new File(entry.filePath).delete();
+    }
+
+    private void loadAcknowledged() {
+        if (!ackFile.exists()) return;
+        try {
+            for (String line : readFile(ackFile).split("\n")) {
+                int separator = line.indexOf(' ');
+                if (separator > 0) {
+                    acknowledged.put(line.substring(0, separator), line.substring(separator + 1));
+                    acknowledgedDocuments.add(line.substring(separator + 1));
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read acknowledged uploads: " + e.getMessage());
+        }
+    }
+
+    private void recordAcknowledged(String entryId, String documentId) {
+        acknowledged.put(entryId, documentId);
+        acknowledgedDocuments.add(documentId);
+        boolean compact = acknowledged.size() > MAX_ACK_HISTORY * 2;
+        if (compact) {
+            Iterator<String> oldest = acknowledged.keySet().iterator();
+            while (acknowledged.size() > MAX_ACK_HISTORY) {
+                oldest.next();
+                oldest.remove();
+            }
+            acknowledgedDocuments.clear();
+            acknowledgedDocuments.addAll(acknowledged.values());
+        }
+        StringBuilder lines = new StringBuilder();
+        if (compact) {
+            for (Map.Entry<String, String> ack : acknowledged.entrySet()) {
+                lines.append(ack.getKey()).append(' ').append(ack.getValue()).append('\n');
+            }
+        } else {
+            lines.append(entryId).append(' ').append(documentId).append('\n');
+        }
+        try (FileOutputStream fos = new FileOutputStream(ackFile, !compact)) {
+            fos.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+            fos.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to record acknowledged upload: " + e.getMessage());
+        }
+    }
+
+    private static String readFile(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] data = new byte[(int) file.length()];
+            int offset = 0;
+            int bytesRead;
+            while (offset < data.length && (bytesRead = in.read(data, offset, data.length - offset)) != -1) {
+                offset += bytesRead;
+            }
+            return new String(data, 0, offset, StandardCharsets.UTF_8);
+        }
+    }
+}
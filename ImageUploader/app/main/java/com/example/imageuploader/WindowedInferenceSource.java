@@ -0,0 +1,512 @@
+package com.example.imageuploader;
+
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.android.volley.RequestQueue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+// Fixed-size pages of /get-inference-batch held only around the visible range. The list length
+// comes from the server's total, rows outside resident pages are placeholders, and binding one
+// loads its page (and neighbours). Pages far from the last bound position are evicted and simply
+// refetched if scrolled back to. Records only ever arrive at the end of the _id order, so a
+// position always maps to the same record: a run of missing pages is fetched through the
+// InferencePager after the last id of the page before it when that is known, and by position
+// (start=, an index seek on the server) after a fast-scroll jump when it isn't. What stays
+// resident is MAX_RESIDENT_PAGES * PAGE_SIZE records plus 12 bytes of boundary id per page.
+// Pages are first read from the local InferenceMirror and shown until the server's copy lands,
+// which is then written back; without a server the mirror is all that's shown.
+class WindowedInferenceSource {
+
+    private static final String TAG = "WindowedInference";
+    static final int PAGE_SIZE = 100;
+    static final int MAX_RESIDENT_PAGES = 8;
+    // Pages kept loading behind and ahead of the last bound one.
+    private static final int PREFETCH_BEHIND = 1;
+    private static final int PREFETCH_AHEAD = 2;
+    // Sweep requests in flight at once, leaving the rest of Volley's network threads to the
+    // visible range.
+    private static final int SWEEP_WINDOW = 2;
+
+    interface Listener {
+        void onRangeChanged(int start, int count);
+
+        void onCountChanged(int oldCount, int newCount);
+
+        void onLoadingChanged(boolean loading);
+
+        // The first rows became visible, read from "mirror" or "network".
+        void onFirstRows(String from);
+
+        void onError(String message);
+    }
+
+    private final InferenceRecordStore.Dictionary dictionary;
+    private final Listener listener;
+    private final InferenceMirror mirror;
+    private final InferencePager pager;
+    private final InferencePager sweepPager;
+    private final RunListener runListener = new RunListener();
+    private final SweepListener sweepListener = new SweepListener();
+    private final SparseArray<InferenceRecordStore> resident = new SparseArray<>();
+    // Pages from before a refresh, still shown until their replacement lands.
+    private final SparseArray<InferenceRecordStore> stale = new SparseArray<>();
+    // The run each loading page belongs to.
+    private final SparseArray<InferencePager.Run> loading = new SparseArray<>();
+    private final BitSet knownBoundaries = new BitSet();
+    private byte[] boundaries = new byte[64 * InferenceRecordStore.ID_BYTES];
+    private int count;
+    private boolean countFromServer;
+    private boolean offline;
+    private String firstRowsFrom;
+    private InferencePager.Run sweepRun;
+    private String sweepCursor;
+    private boolean sweepReady;
+    private int sweepPages;
+    private int syncingPage = -1;
+    private Runnable syncDone;
+    private int focusPage;
+    private int generation;
+    private int fetches;
+    private int jumps;
+    private int evictions;
+
+    WindowedInferenceSource(RequestQueue queue, String serverUrl, Object tag, InferenceRecordStore.Dictionary dictionary,
+                            InferenceMirror mirror, Listener listener) {
+        this.mirror = mirror;
+        this.dictionary = dictionary;
+        this.listener = listener;
+        pager = new InferencePager(queue, serverUrl, tag, PAGE_SIZE, InferencePager.DEFAULT_WINDOW, true, dictionary);
+        sweepPager = new InferencePager(queue, serverUrl, tag, PAGE_SIZE, SWEEP_WINDOW, false, dictionary);
+    }
+
+    int size() {
+        return count;
+    }
+
+    boolean isLoading() {
+        return loading.size() > 0;
+    }
+
+    // First pages plus the total, which sizes the list. The mirror's row count sizes it until
+    // the server answers.
+    void start() {
+        mirror.count(stored -> {
+            if (!countFromServer && stored > count) {
+                setCount(stored);
+            }
+        });
+        mirror.loadSweepCursor(cursor -> {
+            sweepCursor = cursor;
+            sweepReady = true;
+            scheduleSweep();
+        });
+        load(0, PREFETCH_AHEAD);
+    }
+
+    // Refetches the pages around the current position (and the total). The old pages stay on
+    // screen meanwhile and only rows whose record changed are rebound.
+    void refresh() {
+        cancelAll();
+        generation++;
+        offline = false;
+        for (int i = 0; i < resident.size(); i++) {
+            stale.put(resident.keyAt(i), resident.valueAt(i));
+        }
+        resident.clear();
+        knownBoundaries.clear();
+        loadAround(focusPage);
+    }
+
+    // Re-reads the tail page, which picks up records added since and the new total; used for
+    // new_file events and after a reconnect. onDone runs once that request has finished, failed
+    // or been cancelled.
+    void syncTail(Runnable onDone) {
+        finishSync();
+        int tailPage = count / PAGE_SIZE;
+        InferenceRecordStore tail = resident.get(tailPage);
+        if (tail != null) {
+            resident.remove(tailPage);
+            stale.put(tailPage, tail);
+        }
+        InferencePager.Run pending = loading.get(tailPage);
+        if (pending != null) {
+            // The rest of its run is picked up again below.
+            pending.cancel();
+            release(pending);
+        }
+        syncingPage = tailPage;
+        syncDone = onDone;
+        load(tailPage, tailPage);
+        loadAround(focusPage);
+    }
+
+    void cancel() {
+        cancelAll();
+        generation++;
+        if (sweepRun != null) {
+            sweepRun.cancel();
+            sweepRun = null;
+        }
+    }
+
+    // Called for every bind: makes the position's page and its neighbours resident.
+    void onBind(int position) {
+        int page = position / PAGE_SIZE;
+        if (page != focusPage) {
+            focusPage = page;
+            cancelDistant();
+        }
+        loadAround(page);
+    }
+
+    boolean isLoaded(int position) {
+        InferenceRecordStore page = pageAt(position);
+        return page != null && position % PAGE_SIZE < page.size();
+    }
+
+    String location(int position) {
+        return pageAt(position).location(position % PAGE_SIZE);
+    }
+
+    long uploadTime(int position) {
+        return pageAt(position).uploadTime(position % PAGE_SIZE);
+    }
+
+    String idHex(int position) {
+        return pageAt(position).idHex(position % PAGE_SIZE);
+    }
+
+    // Placeholders get ids from a range ObjectId-derived ids won't realistically hit.
+    long stableId(int position) {
+        return isLoaded(position) ? pageAt(position).stableId(position % PAGE_SIZE) : Long.MIN_VALUE + position;
+    }
+
+    boolean contains(String idHex) {
+        for (int i = 0; i < resident.size(); i++) {
+            if (resident.valueAt(i).contains(idHex)) return true;
+        }
+        return false;
+    }
+
+    void logStats() {
+        int records = 0;
+        for (int i = 0; i < resident.size(); i++) {
+            records += resident.valueAt(i).size();
+        }
+        Log.d(TAG, "count=" + count + " resident pages=" + resident.size() + " (" + records + " records)"
+                + " stale=" + stale.size() + " fetches=" + fetches + " jumps=" + jumps + " evictions=" + evictions
+                + " boundary bytes=" + boundaries.length + " offline=" + offline + " sweep pages=" + sweepPages
+                + " pages per request=" + pager.pagesPerRequest() + " (sweep " + sweepPager.pagesPerRequest() + ")");
+        mirror.logStats();
+    }
+
+    private InferenceRecordStore pageAt(int position) {
+        int page = position / PAGE_SIZE;
+        InferenceRecordStore store = resident.get(page);
+        return store != null ? store : stale.get(page);
+    }
+
+    // Missing pages near the given one, fetched as contiguous runs.
+    private void loadAround(int page) {
+        int last = Math.max(0, (count - 1) / PAGE_SIZE);
+        int to = Math.min(last, page + PREFETCH_AHEAD);
+        int runStart = -1;
+        for (int k = Math.max(0, page - PREFETCH_BEHIND); k <= to + 1; k++) {
+            // Offline, a page already shown from the mirror isn't worth another failed request.
+            boolean missing = k <= to && resident.get(k) == null && loading.get(k) == null
+                    && !(offline && stale.get(k) != null);
+            if (missing && runStart < 0) {
+                runStart = k;
+            } else if (!missing && runStart >= 0) {
+                load(runStart, k - 1);
+                runStart = -1;
+            }
+        }
+    }
+
+    private void load(int firstPage, int lastPage) {
+        String after = boundaryBefore(firstPage);
+        if (firstPage > 0 && after == null) {
+            jumps++;
+        }
+        int requestGeneration = generation;
+        fetches++;
+        for (int k = firstPage; k <= lastPage; k++) {
+            if (pageAt(k * PAGE_SIZE) == null) {
+                int page = k;
+                mirror.readPage(boundaryBefore(k), k * PAGE_SIZE, PAGE_SIZE, dictionary,
+                        stored -> onMirrorPage(page, requestGeneration, stored));
+            }
+        }
+
+        boolean wasLoading = isLoading();
+        // Once offline, one attempt per run; the mirror covers the rest.
+        InferencePager.Run run = pager.fetch(firstPage, lastPage, after, true,
+                offline ? 1 : InferencePager.MAX_ATTEMPTS, runListener);
+        for (int k = firstPage; k <= lastPage; k++) {
+            loading.put(k, run);
+        }
+        if (!wasLoading) {
+            listener.onLoadingChanged(true);
+            if (sweepRun != null) {
+                sweepRun.pause();
+            }
+        }
+    }
+
+    private String boundaryBefore(int page) {
+        return page > 0 && knownBoundaries.get(page - 1)
+                ? InferenceRecordStore.toHex(boundaries, (page - 1) * InferenceRecordStore.ID_BYTES) : null;
+    }
+
+    private class RunListener implements InferencePager.Listener {
+        @Override
+        public void onPage(InferencePager.Run run, int page, String after, boolean byOffset,
+                           InferenceRecordStore.Page records, boolean fromCache) {
+            if (loading.get(page) != run) return;
+            if (fromCache) {
+                // Shown while it's revalidated; only the network's copy is synced to the mirror
+                // or ends a sync, as this one can predate rows the mirror has.
+                WindowedInferenceSource.this.onPage(page, records);
+                return;
+            }
+            loading.remove(page);
+            offline = false;
+            mirror.reconcile(after, byOffset, records, PAGE_SIZE, dictionary);
+            WindowedInferenceSource.this.onPage(page, records);
+            if (page == syncingPage) {
+                finishSync();
+            }
+            if (!isLoading()) {
+                listener.onLoadingChanged(false);
+                scheduleSweep();
+            }
+        }
+
+        // Pages of the run past the end of the list were never delivered.
+        @Override
+        public void onDone(InferencePager.Run run) {
+            boolean wasLoading = isLoading();
+            release(run);
+            if (wasLoading && !isLoading()) {
+                listener.onLoadingChanged(false);
+                scheduleSweep();
+            }
+        }
+
+        @Override
+        public void onError(InferencePager.Run run, String message) {
+            release(run);
+            if (!isLoading()) {
+                listener.onLoadingChanged(false);
+            }
+            // Reported once; until a request succeeds, pages come from the mirror quietly.
+            if (!offline) {
+                offline = true;
+                listener.onError((count > 0 ? "Showing saved records: " : "Failed to fetch batch: ") + message);
+            }
+        }
+    }
+
+    // Forgets the pages still loading in a run, ending a sync waiting on one of them.
+    private void release(InferencePager.Run run) {
+        for (int i = loading.size() - 1; i >= 0; i--) {
+            if (loading.valueAt(i) == run) {
+                if (loading.keyAt(i) == syncingPage) {
+                    finishSync();
+                }
+                loading.removeAt(i);
+            }
+        }
+    }
+
+    private void onPage(int page, InferenceRecordStore.Page response) {
+        InferenceRecordStore store = new InferenceRecordStore(dictionary, Math.max(1, response.size));
+        store.append(response);
+        if (store.size() == PAGE_SIZE) {
+            int needed = (page + 1) * InferenceRecordStore.ID_BYTES;
+            if (boundaries.length < needed) {
+                boundaries = Arrays.copyOf(boundaries, Math.max(needed, boundaries.length * 2));
+            }
+            store.copyId(PAGE_SIZE - 1, boundaries, page * InferenceRecordStore.ID_BYTES);
+            knownBoundaries.set(page);
+        }
+
+        InferenceRecordStore previous = stale.get(page);
+        stale.remove(page);
+        resident.put(page, store);
+        evictDistant();
+
+        if (response.total >= 0) {
+            countFromServer = true;
+            if (response.total != count) {
+                setCount(response.total);
+            }
+        }
+        notifyPage(page, previous, store);
+        if (store.size() > 0) {
+            reportFirstRows("network");
+        }
+    }
+
+    private void onMirrorPage(int page, int requestGeneration, InferenceRecordStore.Page stored) {
+        if (stored == null || requestGeneration != generation || pageAt(page * PAGE_SIZE) != null) return;
+        InferenceRecordStore store = new InferenceRecordStore(dictionary, stored.size);
+        store.append(stored);
+        stale.put(page, store);
+        evictDistant();
+        notifyPage(page, null, store);
+        if (page * PAGE_SIZE < count) {
+            reportFirstRows("mirror");
+        }
+    }
+
+    private void setCount(int newCount) {
+        int oldCount = count;
+        count = newCount;
+        listener.onCountChanged(oldCount, newCount);
+    }
+
+    private void reportFirstRows(String from) {
+        if (firstRowsFrom == null) {
+            firstRowsFrom = from;
+            listener.onFirstRows(from);
+        }
+    }
+
+    // The mirror sweep walks the whole list through its own pager, whose request size follows the
+    // sweep's measured latency. It is paused whenever the visible range is loading and resumed
+    // once that is done, so it only ever uses the bandwidth the list leaves idle.
+    private void scheduleSweep() {
+        if (!sweepReady || offline || isLoading()) return;
+        if (sweepRun != null) {
+            sweepRun.resume();
+            return;
+        }
+        // Page numbers count from the cursor; they only order the pass.
+        sweepRun = sweepPager.fetch(0, Integer.MAX_VALUE, sweepCursor, false, InferencePager.MAX_ATTEMPTS,
+                sweepListener);
+    }
+
+    private class SweepListener implements InferencePager.Listener {
+        // Pages arrive in order, so each one moves the cursor past the one before.
+        @Override
+        public void onPage(InferencePager.Run run, int page, String after, boolean byOffset,
+                           InferenceRecordStore.Page records, boolean fromCache) {
+            if (run != sweepRun) return;
+            sweepPages++;
+            mirror.reconcileSweep(after, records, PAGE_SIZE, dictionary);
+            if (records.size == PAGE_SIZE) {
+                sweepCursor = records.idHex(records.size - 1);
+            }
+        }
+
+        @Override
+        public void onDone(InferencePager.Run run) {
+            if (run != sweepRun) return;
+            // Pass complete; the next launch starts another.
+            sweepRun = null;
+            sweepCursor = null;
+            sweepReady = false;
+            Log.d(TAG, "Mirror sweep complete after " + sweepPages + " pages");
+        }
+
+        // Picked up again from the cursor after the next load of the visible range.
+        @Override
+        public void onError(InferencePager.Run run, String message) {
+            if (run != sweepRun) return;
+            sweepRun = null;
+            Log.w(TAG, "Mirror sweep error: " + message);
+        }
+    }
+
+    private void notifyPage(int page, InferenceRecordStore previous, InferenceRecordStore store) {
+        int first = page * PAGE_SIZE;
+        int rows = Math.max(0, Math.min(PAGE_SIZE, count - first));
+        if (previous == null) {
+            if (rows > 0) {
+                listener.onRangeChanged(first, rows);
+            }
+            return;
+        }
+        // Coalesce runs of changed rows so a refresh that changed nothing rebinds nothing.
+        int runStart = -1;
+        for (int i = 0; i <= rows; i++) {
+            boolean changed = i < rows && (i >= previous.size() || i >= store.size()
+                    || !previous.sameId(i, store, i) || !previous.sameContents(i, store, i));
+            if (changed && runStart < 0) {
+                runStart = i;
+            } else if (!changed && runStart >= 0) {
+                listener.onRangeChanged(first + runStart, i - runStart);
+                runStart = -1;
+            }
+        }
+    }
+
+    // Keeps the MAX_RESIDENT_PAGES pages nearest the last bound position.
+    private void evictDistant() {
+        while (resident.size() > MAX_RESIDENT_PAGES) {
+            int farthest = 0;
+            for (int i = 1; i < resident.size(); i++) {
+                if (Math.abs(resident.keyAt(i) - focusPage) > Math.abs(resident.keyAt(farthest) - focusPage)) {
+                    farthest = i;
+                }
+            }
+            resident.removeAt(farthest);
+            evictions++;
+        }
+        for (int i = stale.size() - 1; i >= 0; i--) {
+            if (Math.abs(stale.keyAt(i) - focusPage) > MAX_RESIDENT_PAGES / 2) {
+                stale.removeAt(i);
+            }
+        }
+    }
+
+    // A fast-scroll drag binds rows on every page it passes; only runs near where it ends up
+    // are worth finishing. A run holding the tail page is kept since it carries the new total.
+    private void cancelDistant() {
+        boolean wasLoading = isLoading();
+        int tailPage = count / PAGE_SIZE;
+        List<InferencePager.Run> distant = new ArrayList<>();
+        for (int i = 0; i < loading.size(); i++) {
+            InferencePager.Run run = loading.valueAt(i);
+            if (!distant.contains(run) && !run.contains(tailPage)
+                    && (run.lastPage < focusPage - PREFETCH_BEHIND || run.firstPage > focusPage + PREFETCH_AHEAD)) {
+                distant.add(run);
+            }
+        }
+        for (InferencePager.Run run : distant) {
+            run.cancel();
+            release(run);
+        }
+        if (wasLoading && !isLoading()) {
+            listener.onLoadingChanged(false);
+        }
+    }
+
+    private void finishSync() {
+        Runnable done = syncDone;
+        syncingPage = -1;
+        syncDone = null;
+        if (done != null) {
+            done.run();
+        }
+    }
+
+    private void cancelAll() {
+        for (int i = 0; i < loading.size(); i++) {
+            loading.valueAt(i).cancel();
+        }
+        finishSync();
+        boolean wasLoading = isLoading();
+        loading.clear();
+        if (wasLoading) {
+            listener.onLoadingChanged(false);
+        }
+    }
+}
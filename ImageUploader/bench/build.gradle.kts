@@ -0,0 +1,29 @@
+// JMH benchmarks for :core: ./gradlew :bench:jmh. No Android SDK is needed, but the root build
+// still resolves the Android Gradle plugin from Google's Maven repository.
+// Results land in bench/build/results/jmh/results.json; the gc profiler reports
+// bytes allocated per operation alongside the timings.
+plugins {
+    java
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+dependencies {
+    jmh(project(":core"))
+    jmh("org.json:json:20231013")
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    profilers.add("gc")
+    resultFormat.set("JSON")
+    // e.g. ./gradlew :bench:jmh -Pjmh.includes=PageParse
+    (project.findProperty("jmh.includes") as String?)?.let { includes.add(it) }
+}
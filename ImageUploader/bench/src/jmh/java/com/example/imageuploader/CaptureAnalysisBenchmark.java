@@ -0,0 +1,74 @@
+package com.example.imageuploader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// The per-capture pixel pass ImagePreparer runs after scaling: perceptual hash and quality gate
+// fed row by row from one frame. The frame is a noisy gradient, so the gate does real work on
+// every row. Apart from the returned Report, the gc profiler should show no allocation.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class CaptureAnalysisBenchmark {
+
+    // Long edges AdaptiveEncoder picks between.
+    @Param({"1024", "1600", "2048"})
+    public int longEdge;
+
+    private int width;
+    private int height;
+    private int[] pixels;
+    private final PerceptualHash hash = new PerceptualHash();
+    private final CaptureQualityGate gate = new CaptureQualityGate();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        width = longEdge;
+        height = longEdge * 3 / 4;
+        pixels = new int[width * height];
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int luma = Math.min(255, (x + y) * 255 / (width + height) + random.nextInt(32));
+                pixels[y * width + x] = 0xFF000000 | luma << 16 | luma << 8 | luma;
+            }
+        }
+    }
+
+    @Benchmark
+    public long perceptualHash() {
+        return hash.hash(pixels, width, height);
+    }
+
+    @Benchmark
+    public CaptureQualityGate.Report qualityGate() {
+        gate.reset(width, height);
+        for (int y = 0; y < height; y++) {
+            gate.addRow(pixels, y * width, y);
+        }
+        return gate.finish();
+    }
+
+    // Both in one pass over the rows, as ImagePreparer.analyze does it.
+    @Benchmark
+    public CaptureQualityGate.Report analyze() {
+        hash.reset(width, height);
+        gate.reset(width, height);
+        for (int y = 0; y < height; y++) {
+            hash.addRow(pixels, y * width, y);
+            gate.addRow(pixels, y * width, y);
+        }
+        hash.finish();
+        return gate.finish();
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.imageuploader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+// The inference list's data path: parsing a /get-inference-batch response into a page,
+// appending pages to a record store, and what the adapter does per bound row. Responses are
+// generated to look like the server's: a few dozen distinct locations, ascending ObjectIds,
+// and half the records processed with a summary of the detector's classes (the same count
+// ranges as SummaryRollupsBenchmark).
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class InferencePageBenchmark {
+
+    private static final String[] LOCATIONS = new String[40];
+    private static final char[] LOCATION_PREFIX = "Location: ".toCharArray();
+    private static final char[] UPLOADED_PREFIX = "Uploaded: ".toCharArray();
+
+    static {
+        for (int i = 0; i < LOCATIONS.length; i++) {
+            LOCATIONS[i] = "Location " + i;
+        }
+    }
+
+    // The source's page size, and a large delta sync.
+    @Param({"100", "1000"})
+    public int pageSize;
+
+    private byte[] response;
+    private InferenceRecordStore.Dictionary dictionary;
+    private InferenceRecordStore.Page page;
+    private InferenceRecordStore store;
+    private final TimeZone timeZone = TimeZone.getTimeZone("Europe/Berlin");
+    // A view holder's buffers, reused across binds.
+    private char[] line1 = new char[64];
+    private final char[] line2 = new char[UPLOADED_PREFIX.length + UploadTimeFormat.LENGTH];
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        response = generate(pageSize, new Random(42));
+        dictionary = new InferenceRecordStore.Dictionary();
+        page = new InferencePageParser(dictionary).parse(new ByteArrayInputStream(response));
+        store = new InferenceRecordStore(dictionary, page.size);
+        store.append(page);
+    }
+
+    @Benchmark
+    public InferenceRecordStore.Page parse() throws IOException {
+        return new InferencePageParser(dictionary).parse(new ByteArrayInputStream(response));
+    }
+
+    @Benchmark
+    public InferenceRecordStore append() {
+        InferenceRecordStore fresh = new InferenceRecordStore(dictionary, Math.max(1, page.size));
+        fresh.append(page);
+        return fresh;
+    }
+
+    // InferenceAdapter.onBindViewHolder for every row of a page: the location copied into the
+    // holder's reused line, the upload time formatted in local time into the other, and the
+    // stable id RecyclerView asks for through getItemId.
+    @Benchmark
+    public void bind(Blackhole blackhole) {
+        for (int i = 0; i < store.size(); i++) {
+            String location = store.location(i);
+            int length = LOCATION_PREFIX.length + location.length();
+            if (line1.length < length) {
+                line1 = new char[length * 2];
+            }
+            System.arraycopy(LOCATION_PREFIX, 0, line1, 0, LOCATION_PREFIX.length);
+            location.getChars(0, location.length(), line1, LOCATION_PREFIX.length);
+
+            System.arraycopy(UPLOADED_PREFIX, 0, line2, 0, UPLOADED_PREFIX.length);
+            long uploadTime = store.uploadTime(i);
+            int timeLength = UPLOADED_PREFIX.length
+                    + UploadTimeFormat.format(uploadTime + timeZone.getOffset(uploadTime), line2, UPLOADED_PREFIX.length);
+            blackhole.consume(length + timeLength);
+            blackhole.consume(store.stableId(i));
+        }
+        blackhole.consume(line1);
+        blackhole.consume(line2);
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return store.contains(page.idHex(page.size / 2));
+    }
+
+    private static byte[] generate(int size, Random random) {
+        StringBuilder json = new StringBuilder(size * 200).append("{\"items\":[");
+        long timestamp = 1712345678L;
+        long counter = random.nextInt(1 << 20);
+        for (int i = 0; i < size; i++) {
+            if (i > 0) json.append(',');
+            timestamp += random.nextInt(30);
+            json.append("{\"_id\":\"").append(String.format("%08x%010x%06x", timestamp, 0x5e1f2a3b4cL, (counter + i) & 0xFFFFFF))
+                    .append("\",\"location\":\"").append(LOCATIONS[random.nextInt(LOCATIONS.length)])
+                    .append("\",\"upload_time\":").append(timestamp).append('.').append(random.nextInt(1000000));
+            boolean processed = random.nextBoolean();
+            json.append(",\"processed\":").append(processed);
+            if (processed) {
+                json.append(",\"summary\":{\"Garbage\":").append(random.nextInt(5))
+                        .append(",\"Tilted_Bin\":").append(random.nextInt(3))
+                        .append(",\"Upright_Bin\":").append(random.nextInt(4)).append('}');
+            }
+            json.append('}');
+        }
+        json.append("],\"cursors\":[],\"total\":").append(size * 10).append('}');
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.imageuploader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Building and streaming upload bodies: single captures at the sizes AdaptiveEncoder produces,
+// and a full burst batch. The sink discards bytes, so this is the body's own overhead plus the
+// file reads (served from the page cache after the first iteration).
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class MultipartBodyBenchmark {
+
+    @Param({"150", "600", "2400"})
+    public int fileKb;
+
+    @Param({"1", "8"})
+    public int files;
+
+    private final List<File> paths = new ArrayList<>();
+    private final Map<String, String> fields = new LinkedHashMap<>();
+    private final OutputStream sink = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        byte[] data = new byte[fileKb * 1024];
+        for (int i = 0; i < files; i++) {
+            random.nextBytes(data);
+            File file = File.createTempFile("bench", ".jpg");
+            try (OutputStream out = new FileOutputStream(file)) {
+                out.write(data);
+            }
+            paths.add(file);
+        }
+        fields.put("location", "Bengaluru");
+        fields.put("capture_time", "1712345678901");
+        fields.put("upload_id", "3f2b8c1e-5d4a-4e6b-9c1d-2a7f8e9b0c3d");
+        fields.put("phash", "f0e1d2c3b4a59687");
+        fields.put("encoding", "jpeg");
+        fields.put("quality", "82");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (File file : paths) {
+            file.delete();
+        }
+    }
+
+    @Benchmark
+    public long buildAndWrite() throws IOException {
+        MultipartBody body = files == 1 ? new MultipartBody(paths.get(0), fields) : new MultipartBody(paths, "files", fields);
+        body.writeTo(sink);
+        return body.getContentLength();
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.imageuploader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+// The trend path: folding a synced record into the rollups (a re-sync of a known record, the
+// steady-state case) and cutting three years of hourly buckets down to a chart's width.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class SummaryRollupsBenchmark {
+
+    private static final int RECORDS = 100_000;
+    private static final String[] LOCATIONS = {"Gate A", "Gate B", "Depot", "Harbour"};
+
+    // Points kept, about half a phone screen's width in pixels.
+    @Param({"500"})
+    public int threshold;
+
+    private SummaryRollups rollups;
+    private String[] summaries;
+    private long[] times;
+    private int next;
+    private long[] x;
+    private int[] y;
+    private int[] kept;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        long start = 1_600_000_000_000L;
+        summaries = new String[256];
+        for (int i = 0; i < summaries.length; i++) {
+            summaries[i] = "{\"Garbage\": " + random.nextInt(5) + ", \"Tilted_Bin\": " + random.nextInt(3)
+                    + ", \"Upright_Bin\": " + random.nextInt(4) + "}";
+        }
+        times = new long[RECORDS];
+        rollups = new SummaryRollups(TimeZone.getTimeZone("UTC"));
+        for (int i = 0; i < RECORDS; i++) {
+            times[i] = start + (long) random.nextInt(3 * 365 * 24) * 60 * 60 * 1000L;
+            rollups.fold(i, LOCATIONS[i % LOCATIONS.length], times[i], summaries[i % summaries.length]);
+        }
+
+        int hours = 3 * 365 * 24;
+        x = new long[hours];
+        y = new int[hours];
+        for (int i = 0; i < hours; i++) {
+            x[i] = start + i * 60 * 60 * 1000L;
+            y[i] = (int) (10 + 8 * Math.sin(i / 24.0)) + random.nextInt(4);
+        }
+        kept = new int[threshold];
+    }
+
+    @Benchmark
+    public int refold() {
+        int i = next;
+        next = (i + 1) % RECORDS;
+        rollups.fold(i, LOCATIONS[i % LOCATIONS.length], times[i], summaries[(i + 1) % summaries.length]);
+        return next;
+    }
+
+    @Benchmark
+    public int downsample() {
+        return Lttb.downsample(x, y, x.length, threshold, kept);
+    }
+
+    @Benchmark
+    public SummaryRollups.Trend dayTrend() {
+        return rollups.trend(LOCATIONS[0], SummaryRollups.DAY);
+    }
+}
@@ -0,0 +1,19 @@
+// Plain-JVM data-path code shared by the app and the :bench JMH module. Nothing here may
+// depend on the Android framework.
+plugins {
+    `java-library`
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+dependencies {
+    api("com.google.code.gson:gson:2.10.1")
+    // Part of the Android platform; JVM consumers add their own copy.
+    compileOnly("org.json:json:20231013")
+
+    testImplementation("junit:junit:4.13.2")
+    testImplementation("org.json:json:20231013")
+}
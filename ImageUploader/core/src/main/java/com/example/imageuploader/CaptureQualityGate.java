@@ -0,0 +1,196 @@
+package com.example.imageuploader;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Locale;
+
+// Cheap pre-upload check for frames that would only waste an inference pass. Rows are box-averaged
+// into a small luma plane (like PerceptualHash), then scored for sharpness (variance of the
+// Laplacian), exposure (luma histogram) and coverage (share of the frame with any texture, which
+// drops when a finger or bag covers the lens). All buffers are reused between captures.
+class CaptureQualityGate {
+
+    static final int PLANE_EDGE = 256;
+    private static final int GRID = 4;
+    private static final int DARK_LUMA = 32;
+    private static final int BRIGHT_LUMA = 235;
+
+    static final float REJECT_SHARPNESS = 40f;
+    static final float FLAG_SHARPNESS = 100f;
+    static final float REJECT_MEAN_LUMA = 30f;
+    static final float FLAG_MEAN_LUMA = 60f;
+    static final float REJECT_CLIPPED = 0.5f;
+    static final float FLAG_CLIPPED = 0.25f;
+    static final float REJECT_COVERAGE = 0.25f;
+    static final float FLAG_COVERAGE = 0.5f;
+
+    enum Verdict { OK, FLAG, REJECT }
+
+    static class Report {
+        Verdict verdict = Verdict.OK;
+        String reason;
+        float sharpness;
+        float meanLuma;
+        float darkFraction;
+        float brightFraction;
+        float coverage;
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("verdict", verdict.name().toLowerCase(Locale.ROOT));
+            if (reason != null) {
+                json.put("reason", reason);
+            }
+            json.put("sharpness", Math.round(sharpness));
+            json.put("mean_luma", Math.round(meanLuma));
+            json.put("dark", Math.round(darkFraction * 100) / 100.0);
+            json.put("bright", Math.round(brightFraction * 100) / 100.0);
+            json.put("coverage", Math.round(coverage * 100) / 100.0);
+            return json;
+        }
+
+        @Override
+        public String toString() {
+            return verdict + (reason != null ? " (" + reason + ")" : "") + " sharpness=" + Math.round(sharpness)
+                    + " luma=" + Math.round(meanLuma) + " dark=" + Math.round(darkFraction * 100)
+                    + "% bright=" + Math.round(brightFraction * 100) + "% coverage=" + Math.round(coverage * 100) + "%";
+        }
+
+        private void escalate(Verdict level, String why) {
+            if (level.compareTo(verdict) > 0) {
+                verdict = level;
+                reason = why;
+            }
+        }
+    }
+
+    private final int[] histogram = new int[256];
+    private final double[] cellSum = new double[GRID * GRID];
+    private final double[] cellSumSquares = new double[GRID * GRID];
+    private final int[] cellCount = new int[GRID * GRID];
+    private int[] sums = new int[0];
+    private int[] counts = new int[0];
+    private int[] plane = new int[0];
+    private int[] columnCells = new int[0];
+    private int width;
+    private int height;
+    private int planeWidth;
+    private int planeHeight;
+
+    void reset(int width, int height) {
+        this.width = width;
+        this.height = height;
+        float scale = Math.min(1f, (float) PLANE_EDGE / Math.max(width, height));
+        planeWidth = Math.max(3, Math.round(width * scale));
+        planeHeight = Math.max(3, Math.round(height * scale));
+        int size = planeWidth * planeHeight;
+        if (sums.length < size) {
+            sums = new int[size];
+            counts = new int[size];
+            plane = new int[size];
+        } else {
+            for (int i = 0; i < size; i++) {
+                sums[i] = 0;
+                counts[i] = 0;
+            }
+        }
+        if (columnCells.length < width) {
+            columnCells = new int[width];
+        }
+        for (int x = 0; x < width; x++) {
+            columnCells[x] = x * planeWidth / width;
+        }
+    }
+
+    void addRow(int[] argb, int offset, int y) {
+        int rowStart = (y * planeHeight / height) * planeWidth;
+        for (int x = 0; x < width; x++) {
+            int pixel = argb[offset + x];
+            int cell = rowStart + columnCells[x];
+            sums[cell] += (((pixel >> 16) & 0xFF) * 77 + ((pixel >> 8) & 0xFF) * 150 + (pixel & 0xFF) * 29) >> 8;
+            counts[cell]++;
+        }
+    }
+
+    Report finish() {
+        int size = planeWidth * planeHeight;
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = 0;
+        }
+        long lumaTotal = 0;
+        for (int i = 0; i < size; i++) {
+            int luma = counts[i] > 0 ? sums[i] / counts[i] : 0;
+            plane[i] = luma;
+            histogram[luma]++;
+            lumaTotal += luma;
+        }
+
+        Report report = new Report();
+        report.meanLuma = (float) lumaTotal / size;
+        int dark = 0;
+        for (int i = 0; i < DARK_LUMA; i++) {
+            dark += histogram[i];
+        }
+        int bright = 0;
+        for (int i = BRIGHT_LUMA + 1; i < histogram.length; i++) {
+            bright += histogram[i];
+        }
+        report.darkFraction = (float) dark / size;
+        report.brightFraction = (float) bright / size;
+
+        // 4-neighbour Laplacian over the interior, tallied for the whole frame and per grid cell.
+        for (int i = 0; i < cellSum.length; i++) {
+            cellSum[i] = 0;
+            cellSumSquares[i] = 0;
+            cellCount[i] = 0;
+        }
+        for (int y = 1; y < planeHeight - 1; y++) {
+            int row = y * planeWidth;
+            int gridRow = (y * GRID / planeHeight) * GRID;
+            for (int x = 1; x < planeWidth - 1; x++) {
+                int i = row + x;
+                int laplacian = 4 * plane[i] - plane[i - 1] - plane[i + 1] - plane[i - planeWidth] - plane[i + planeWidth];
+                int cell = gridRow + x * GRID / planeWidth;
+                cellSum[cell] += laplacian;
+                cellSumSquares[cell] += (double) laplacian * laplacian;
+                cellCount[cell]++;
+            }
+        }
+        double sum = 0;
+        double sumSquares = 0;
+        long count = 0;
+        int textured = 0;
+        for (int cell = 0; cell < cellSum.length; cell++) {
+            sum += cellSum[cell];
+            sumSquares += cellSumSquares[cell];
+            count += cellCount[cell];
+            if (cellCount[cell] > 0 && variance(cellSum[cell], cellSumSquares[cell], cellCount[cell]) >= REJECT_SHARPNESS / 2) {
+                textured++;
+            }
+        }
+        report.sharpness = count > 0 ? (float) variance(sum, sumSquares, count) : 0f;
+        report.coverage = (float) textured / cellSum.length;
+
+        float clipped = Math.max(report.darkFraction, report.brightFraction);
+        if (report.sharpness < FLAG_SHARPNESS) {
+            report.escalate(report.sharpness < REJECT_SHARPNESS ? Verdict.REJECT : Verdict.FLAG, "blurry");
+        }
+        if (report.meanLuma < FLAG_MEAN_LUMA) {
+            report.escalate(report.meanLuma < REJECT_MEAN_LUMA ? Verdict.REJECT : Verdict.FLAG, "too dark");
+        }
+        if (clipped > FLAG_CLIPPED) {
+            report.escalate(clipped > REJECT_CLIPPED ? Verdict.REJECT : Verdict.FLAG,
+                    report.darkFraction > report.brightFraction ? "underexposed" : "overexposed");
+        }
+        if (report.coverage < FLAG_COVERAGE) {
+            report.escalate(report.coverage < REJECT_COVERAGE ? Verdict.REJECT : Verdict.FLAG, "lens covered");
+        }
+        return report;
+    }
+
+    private static double variance(double sum, double sumSquares, long count) {
+        double mean = sum / count;
+        return sumSquares / count - mean * mean;
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.imageuploader;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Streams a /get-inference-batch response straight into a columnar page, so no JSONObject tree
+// is built for the records.
+class InferencePageParser {
+
+    private final InferenceRecordStore.Dictionary dictionary;
+
+    InferencePageParser(InferenceRecordStore.Dictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    InferenceRecordStore.Page parse(InputStream in) throws IOException {
+        try (JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            return parse(reader);
+        }
+    }
+
+    private InferenceRecordStore.Page parse(JsonReader reader) throws IOException {
+        int size = 0;
+        byte[] ids = new byte[64 * InferenceRecordStore.ID_BYTES];
+        long[] uploadTimes = new long[64];
+        int[] locations = new int[64];
+        boolean[] processed = new boolean[64];
+        String[] summaries = new String[64];
+        List<String> cursors = new ArrayList<>();
+        int total = -1;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("items")) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (size == uploadTimes.length) {
+                        ids = Arrays.copyOf(ids, size * 2 * InferenceRecordStore.ID_BYTES);
+                        uploadTimes = Arrays.copyOf(uploadTimes, size * 2);
+                        locations = Arrays.copyOf(locations, size * 2);
+                        processed = Arrays.copyOf(processed, size * 2);
+                        summaries = Arrays.copyOf(summaries, size * 2);
+                    }
+                    if (parseItem(reader, ids, uploadTimes, locations, processed, summaries, size)) {
+                        size++;
+                    }
+                }
+                reader.endArray();
+            } else if (name.equals("cursors") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    cursors.add(reader.nextString());
+                }
+                reader.endArray();
+            } else if (name.equals("total") && reader.peek() == JsonToken.NUMBER) {
+                total = reader.nextInt();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new InferenceRecordStore.Page(size, ids, uploadTimes, locations, processed, summaries,
+                cursors.toArray(new String[0]), total);
+    }
+
+    // Returns false for records without a usable _id; they can't be keyed, so they're skipped.
+    private boolean parseItem(JsonReader reader, byte[] ids, long[] uploadTimes, int[] locations,
+                              boolean[] processed, String[] summaries, int index) throws IOException {
+        boolean hasId = false;
+        uploadTimes[index] = 0;
+        locations[index] = dictionary.intern("Unknown Location");
+        processed[index] = false;
+        summaries[index] = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+            } else if (name.equals("_id")) {
+                hasId = InferenceRecordStore.parseHex(reader.nextString(), ids, index * InferenceRecordStore.ID_BYTES);
+            } else if (name.equals("upload_time")) {
+                uploadTimes[index] = Math.round(reader.nextDouble() * 1000);
+            } else if (name.equals("location")) {
+                locations[index] = dictionary.intern(reader.nextString());
+            } else if (name.equals("processed") && reader.peek() == JsonToken.BOOLEAN) {
+                processed[index] = reader.nextBoolean();
+            } else if (name.equals("summary")) {
+                summaries[index] = readSummary(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return hasId;
+    }
+
+    // The summary is either text or a flat object of per-class counts; objects are kept as JSON text.
+    private static String readSummary(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.skipValue();
+                return null;
+            }
+            return reader.nextString();
+        }
+        JSONObject summary = new JSONObject();
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                JsonToken token = reader.peek();
+                if (token == JsonToken.NUMBER) {
+                    double value = reader.nextDouble();
+                    if (value == Math.rint(value)) {
+                        summary.put(name, (long) value);
+                    } else {
+                        summary.put(name, value);
+                    }
+                } else if (token == JsonToken.STRING) {
+                    summary.put(name, reader.nextString());
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+        return summary.toString();
+    }
+}
@@ -0,0 +1,220 @@
+package com.example.imageuploader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Columnar list of inference records: ObjectIds packed 12 bytes each, upload times as epoch
+// millis and locations as codes into a shared dictionary. Records are kept in ascending _id
+// order, which is how keyset paging delivers them, so lookups are binary searches.
+class InferenceRecordStore {
+
+    static final int ID_BYTES = 12;
+    private static final int INITIAL_CAPACITY = 256;
+
+    // Interns location names; shared between stores so codes compare across a refresh.
+    static class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+
+        synchronized int intern(String name) {
+            Integer code = codes.get(name);
+            if (code == null) {
+                code = names.size();
+                codes.put(name, code);
+                names.add(name);
+            }
+            return code;
+        }
+
+        synchronized String name(int code) {
+            return names.get(code);
+        }
+    }
+
+    // One parsed /get-inference-batch response, in the same columnar layout. processed and
+    // summaries aren't shown in the list and only go to the local mirror. total is the
+    // collection size when it was asked for (count=1), otherwise -1.
+    static class Page {
+        final int size;
+        final byte[] ids;
+        final long[] uploadTimes;
+        final int[] locations;
+        final boolean[] processed;
+        final String[] summaries;
+        final String[] cursors;
+        final int total;
+
+        Page(int size, byte[] ids, long[] uploadTimes, int[] locations, boolean[] processed, String[] summaries,
+             String[] cursors, int total) {
+            this.size = size;
+            this.ids = ids;
+            this.uploadTimes = uploadTimes;
+            this.locations = locations;
+            this.processed = processed;
+            this.summaries = summaries;
+            this.cursors = cursors;
+            this.total = total;
+        }
+
+        String idHex(int index) {
+            return toHex(ids, index * ID_BYTES);
+        }
+
+        // Records [from, to) as a page of their own, for splitting a response that spans several
+        // list pages. Cursors stay with the response; the total goes with every slice.
+        Page slice(int from, int to) {
+            to = Math.min(to, size);
+            from = Math.min(from, to);
+            return new Page(to - from, Arrays.copyOfRange(ids, from * ID_BYTES, to * ID_BYTES),
+                    Arrays.copyOfRange(uploadTimes, from, to), Arrays.copyOfRange(locations, from, to),
+                    Arrays.copyOfRange(processed, from, to), Arrays.copyOfRange(summaries, from, to),
+                    new String[0], total);
+        }
+    }
+
+    private final Dictionary dictionary;
+    private byte[] ids;
+    private long[] uploadTimes;
+    private int[] locations;
+    private int size;
+
+    InferenceRecordStore(Dictionary dictionary) {
+        this(dictionary, INITIAL_CAPACITY);
+    }
+
+    InferenceRecordStore(Dictionary dictionary, int capacity) {
+        this.dictionary = dictionary;
+        ids = new byte[capacity * ID_BYTES];
+        uploadTimes = new long[capacity];
+        locations = new int[capacity];
+    }
+
+    Dictionary getDictionary() {
+        return dictionary;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long uploadTime(int position) {
+        return uploadTimes[position];
+    }
+
+    int locationCode(int position) {
+        return locations[position];
+    }
+
+    String location(int position) {
+        return dictionary.name(locations[position]);
+    }
+
+    long stableId(int position) {
+        return stableId(ids, position * ID_BYTES);
+    }
+
+    String idHex(int position) {
+        return toHex(ids, position * ID_BYTES);
+    }
+
+    void copyId(int position, byte[] out, int offset) {
+        System.arraycopy(ids, position * ID_BYTES, out, offset, ID_BYTES);
+    }
+
+    String lastIdHex() {
+        return size > 0 ? idHex(size - 1) : null;
+    }
+
+    boolean sameId(int position, InferenceRecordStore other, int otherPosition) {
+        return compare(ids, position * ID_BYTES, other.ids, otherPosition * ID_BYTES) == 0;
+    }
+
+    boolean sameContents(int position, InferenceRecordStore other, int otherPosition) {
+        return uploadTimes[position] == other.uploadTimes[otherPosition] && locations[position] == other.locations[otherPosition];
+    }
+
+    // Appends the records of a page that sort after everything already held; anything at or before
+    // the current tail is either already present or was skipped by the cursor, so it's dropped.
+    // Returns the number of records added.
+    int append(Page page) {
+        ensureCapacity(size + page.size);
+        int added = 0;
+        for (int i = 0; i < page.size; i++) {
+            if (size > 0 && compare(page.ids, i * ID_BYTES, ids, (size - 1) * ID_BYTES) <= 0) continue;
+            System.arraycopy(page.ids, i * ID_BYTES, ids, size * ID_BYTES, ID_BYTES);
+            uploadTimes[size] = page.uploadTimes[i];
+            locations[size] = page.locations[i];
+            size++;
+            added++;
+        }
+        return added;
+    }
+
+    boolean contains(String idHex) {
+        if (idHex == null || idHex.length() != ID_BYTES * 2) return false;
+        byte[] key = new byte[ID_BYTES];
+        if (!parseHex(idHex, key, 0)) return false;
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(ids, mid * ID_BYTES, key, 0);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= uploadTimes.length) return;
+        int capacity = Math.max(needed, uploadTimes.length * 2);
+        ids = Arrays.copyOf(ids, capacity * ID_BYTES);
+        uploadTimes = Arrays.copyOf(uploadTimes, capacity);
+        locations = Arrays.copyOf(locations, capacity);
+    }
+
+    private static int compare(byte[] a, int aOffset, byte[] b, int bOffset) {
+        for (int i = 0; i < ID_BYTES; i++) {
+            int diff = (a[aOffset + i] & 0xFF) - (b[bOffset + i] & 0xFF);
+            if (diff != 0) return diff;
+        }
+        return 0;
+    }
+
+    static boolean parseHex(String hex, byte[] out, int offset) {
+        if (hex.length() != ID_BYTES * 2) return false;
+        for (int i = 0; i < ID_BYTES; i++) {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0) return false;
+            out[offset + i] = (byte) (high << 4 | low);
+        }
+        return true;
+    }
+
+    // The low 8 bytes of an ObjectId (process random + counter) are unique in practice.
+    static long stableId(byte[] ids, int offset) {
+        long id = 0;
+        for (int i = 4; i < ID_BYTES; i++) {
+            id = (id << 8) | (ids[offset + i] & 0xFF);
+        }
+        return id;
+    }
+
+    static String toHex(byte[] bytes, int offset) {
+        char[] hex = new char[ID_BYTES * 2];
+        for (int i = 0; i < ID_BYTES; i++) {
+            hex[i * 2] = Character.forDigit((bytes[offset + i] >> 4) & 0xF, 16);
+            hex[i * 2 + 1] = Character.forDigit(bytes[offset + i] & 0xF, 16);
+        }
+        return new String(hex);
+    }
+}
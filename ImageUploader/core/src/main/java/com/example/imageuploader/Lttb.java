@@ -0,0 +1,74 @@
+package com.example.imageuploader;
+
+// Largest-Triangle-Three-Buckets downsampling (Steinarsson, 2013). The first and last points are
+// kept; the points between are split into threshold - 2 equal buckets, and from each the point
+// forming the largest triangle with the previously kept point and the next bucket's average is
+// kept. Unlike plain decimation this keeps spikes and dips, which is what a trend is read for.
+// One linear pass; nothing is allocated.
+class Lttb {
+
+    private Lttb() {
+    }
+
+    // Writes the indices of the kept points, ascending, to out (at least threshold long) and
+    // returns how many there are. With length <= threshold every index is kept.
+    static int downsample(long[] x, int[] y, int length, int threshold, int[] out) {
+        if (length <= threshold) {
+            for (int i = 0; i < length; i++) {
+                out[i] = i;
+            }
+            return length;
+        }
+        if (threshold < 3) {
+            // No room for anything between the ends.
+            int count = 0;
+            if (threshold > 0) out[count++] = 0;
+            if (threshold > 1) out[count++] = length - 1;
+            return count;
+        }
+
+        double bucketSize = (double) (length - 2) / (threshold - 2);
+        int kept = 0;
+        out[kept++] = 0;
+        int previous = 0;
+        for (int b = 0; b < threshold - 2; b++) {
+            int start = (int) (b * bucketSize) + 1;
+            int end = (int) ((b + 1) * bucketSize) + 1;
+
+            // Average of the next bucket (just the last point for the final bucket).
+            int nextStart = end;
+            int nextEnd = Math.min(length, (int) ((b + 2) * bucketSize) + 1);
+            if (b == threshold - 3) {
+                nextStart = length - 1;
+                nextEnd = length;
+            }
+            double averageX = 0;
+            double averageY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                averageX += x[i];
+                averageY += y[i];
+            }
+            int nextCount = Math.max(1, nextEnd - nextStart);
+            averageX /= nextCount;
+            averageY /= nextCount;
+
+            double previousX = x[previous];
+            double previousY = y[previous];
+            double largest = -1;
+            int chosen = start;
+            for (int i = start; i < end; i++) {
+                // Twice the triangle's area; only the comparison matters.
+                double area = Math.abs((previousX - averageX) * (y[i] - previousY)
+                        - (previousX - x[i]) * (averageY - previousY));
+                if (area > largest) {
+                    largest = area;
+                    chosen = i;
+                }
+            }
+            out[kept++] = chosen;
+            previous = chosen;
+        }
+        out[kept++] = length - 1;
+        return kept;
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.imageuploader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// Streams the images through a fixed per-thread buffer so an upload never holds a whole file in memory.
+class MultipartBody {
+    private static final String LINE_END = "\r\n";
+    private static final String TWO_HYPHENS = "--";
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    private final String boundary = "apiclient-" + UUID.randomUUID().toString();
+    private final List<File> files;
+    private final long[] fileLengths;
+    private final byte[][] fileHeaders;
+    private final byte[] trailer;
+
+    MultipartBody(File file, Map<String, String> fields) {
+        this(Collections.singletonList(file), "file", fields);
+    }
+
+    // Each file becomes its own part named fileField, in list order.
+    MultipartBody(List<File> files, String fileField, Map<String, String> fields) {
+        this.files = files;
+        fileLengths = new long[files.size()];
+        fileHeaders = new byte[files.size()][];
+        for (int i = 0; i < files.size(); i++) {
+            File file = files.get(i);
+            fileLengths[i] = file.length();
+            boolean webp = file.getName().endsWith(".webp");
+            String fileHeader = (i > 0 ? LINE_END : "") + TWO_HYPHENS + boundary + LINE_END +
+                    "Content-Disposition: form-data; name=\"" + fileField + "\"; filename=\"" + (webp ? "image.webp" : "image.jpg") + "\"" + LINE_END +
+                    "Content-Type: " + (webp ? "image/webp" : "image/jpeg") + LINE_END +
+                    LINE_END;
+            fileHeaders[i] = fileHeader.getBytes(StandardCharsets.UTF_8);
+        }
+
+        StringBuilder fieldParts = new StringBuilder(LINE_END);
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            fieldParts.append(TWO_HYPHENS).append(boundary).append(LINE_END)
+                    .append("Content-Disposition: form-data; name=\"").append(field.getKey()).append("\"").append(LINE_END)
+                    .append("Content-Type: text/plain").append(LINE_END)
+                    .append(LINE_END)
+                    .append(field.getValue()).append(LINE_END);
+        }
+        fieldParts.append(TWO_HYPHENS).append(boundary).append(TWO_HYPHENS).append(LINE_END);
+        trailer = fieldParts.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    String getContentType() {
+        return "multipart/form-data; boundary=" + boundary;
+    }
+
+    long getContentLength() {
+        long length = trailer.length;
+        for (int i = 0; i < fileHeaders.length; i++) {
+            length += fileHeaders[i].length + fileLengths[i];
+        }
+        return length;
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        byte[] buffer = BUFFER.get();
+        for (int i = 0; i < fileHeaders.length; i++) {
+            out.write(fileHeaders[i]);
+            File file = files.get(i);
+            long remaining = fileLengths[i];
+            try (FileInputStream fis = new FileInputStream(file)) {
+                int bytesRead;
+                while (remaining > 0 && (bytesRead = fis.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                    out.write(buffer, 0, bytesRead);
+                    remaining -= bytesRead;
+                }
+            }
+            if (remaining != 0) {
+                throw new IOException("File changed during upload: " + file.getName());
+            }
+        }
+        out.write(trailer);
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.imageuploader;
+
+// 64-bit difference hash (dHash): the image is box-averaged down to a 9x8 luma grid and each bit
+// records whether a cell is brighter than its right neighbour. Rows are fed one at a time so
+// callers can hash a bitmap through a single reusable row buffer.
+class PerceptualHash {
+
+    private static final int GRID_WIDTH = 9;
+    private static final int GRID_HEIGHT = 8;
+
+    private final long[] sums = new long[GRID_WIDTH * GRID_HEIGHT];
+    private final int[] counts = new int[GRID_WIDTH * GRID_HEIGHT];
+    private int[] columnCells = new int[0];
+    private int width;
+    private int height;
+
+    void reset(int width, int height) {
+        this.width = width;
+        this.height = height;
+        for (int i = 0; i < sums.length; i++) {
+            sums[i] = 0;
+            counts[i] = 0;
+        }
+        if (columnCells.length < width) {
+            columnCells = new int[width];
+        }
+        for (int x = 0; x < width; x++) {
+            columnCells[x] = x * GRID_WIDTH / width;
+        }
+    }
+
+    void addRow(int[] argb, int offset, int y) {
+        int cellRow = (y * GRID_HEIGHT / height) * GRID_WIDTH;
+        for (int x = 0; x < width; x++) {
+            int pixel = argb[offset + x];
+            int luma = (((pixel >> 16) & 0xFF) * 77 + ((pixel >> 8) & 0xFF) * 150 + (pixel & 0xFF) * 29) >> 8;
+            int cell = cellRow + columnCells[x];
+            sums[cell] += luma;
+            counts[cell]++;
+        }
+    }
+
+    long finish() {
+        long hash = 0;
+        int bit = 0;
+        for (int y = 0; y < GRID_HEIGHT; y++) {
+            for (int x = 0; x < GRID_WIDTH - 1; x++) {
+                int left = y * GRID_WIDTH + x;
+                // Compare averages without dividing: a/ca > b/cb  <=>  a*cb > b*ca
+                if (sums[left] * Math.max(1, counts[left + 1]) > sums[left + 1] * Math.max(1, counts[left])) {
+                    hash |= 1L << bit;
+                }
+                bit++;
+            }
+        }
+        return hash;
+    }
+
+    long hash(int[] argb, int width, int height) {
+        reset(width, height);
+        for (int y = 0; y < height; y++) {
+            addRow(argb, y * width, y);
+        }
+        return finish();
+    }
+
+    static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    static String toHex(long hash) {
+        String hex = Long.toHexString(hash);
+        return "0000000000000000".substring(hex.length()) + hex;
+    }
+
+    static long fromHex(String hex) {
+        return Long.parseLong(hex.substring(0, 8), 16) << 32 | Long.parseLong(hex.substring(8), 16);
+    }
+}
@@ -0,0 +1,326 @@
+package com.example.imageuploader;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+// Per-location totals of each detected class, bucketed by hour, day and week. Records are folded
+// in one at a time as they sync; each record's last contribution is kept (in an open-addressing
+// table keyed by the low 8 bytes of its ObjectId) so a re-synced record replaces what it added
+// before instead of counting twice, and a deleted one can be taken back out. A fold or removal
+// touches a fixed number of array slots, apart from copying a series' run when it outgrows its
+// arrays; runs keep room at both ends, so that is amortized whether records sync oldest or newest
+// first. Buckets follow the zone's wall clock at each record's own time, so days stay aligned
+// across DST changes (a repeated hour shares one bucket, a skipped one stays empty); weeks start
+// on Monday.
+class SummaryRollups {
+
+    static final int HOUR = 0;
+    static final int DAY = 1;
+    static final int WEEK = 2;
+    private static final int RESOLUTIONS = 3;
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+    private static final long[] BUCKET_MS = {HOUR_MS, 24 * HOUR_MS, 7 * 24 * HOUR_MS};
+    // 1970-01-01 was a Thursday; shifting by 3 days puts week boundaries on Monday.
+    private static final long WEEK_SHIFT_MS = 3 * 24 * HOUR_MS;
+    // Summary classes beyond this many are ignored.
+    static final int MAX_CLASSES = 8;
+    private static final int INITIAL_RECORDS = 1024;
+    private static final int INITIAL_BUCKETS = 64;
+
+    // A dense run of buckets for one location and resolution, as plain arrays. Empty buckets
+    // between records are zeros, which is what a trend should show for them.
+    static class Trend {
+        final String location;
+        final int resolution;
+        final String[] classes;
+        // Start of each bucket, epoch millis.
+        final long[] bucketStarts;
+        // counts[c][i]: detections of classes[c] in bucket i.
+        final int[][] counts;
+        final int[] records;
+
+        Trend(String location, int resolution, String[] classes, long[] bucketStarts, int[][] counts, int[] records) {
+            this.location = location;
+            this.resolution = resolution;
+            this.classes = classes;
+            this.bucketStarts = bucketStarts;
+            this.counts = counts;
+            this.records = records;
+        }
+
+        int size() {
+            return bucketStarts.length;
+        }
+    }
+
+    // The run occupies [start, start + length) of its arrays; slots outside it are always zero.
+    private static class Series {
+        long firstBucket;
+        int start;
+        int length;
+        int[] records = new int[INITIAL_BUCKETS];
+        int[] counts = new int[INITIAL_BUCKETS * MAX_CLASSES];
+
+        void add(long bucket, int[] delta, int deltaOffset, int sign) {
+            if (length == 0) {
+                firstBucket = bucket;
+            } else if (bucket < firstBucket) {
+                int shift = (int) (firstBucket - bucket);
+                if (shift > start) {
+                    growFront(shift);
+                }
+                start -= shift;
+                firstBucket = bucket;
+                length += shift;
+            }
+            int index = start + (int) (bucket - firstBucket);
+            if (index >= start + length) {
+                ensureCapacity(index + 1);
+                length = index - start + 1;
+            }
+            records[index] += sign;
+            int base = index * MAX_CLASSES;
+            for (int c = 0; c < MAX_CLASSES; c++) {
+                counts[base + c] += sign * delta[deltaOffset + c];
+            }
+        }
+
+        private void ensureCapacity(int needed) {
+            if (needed <= records.length) return;
+            int capacity = Math.max(needed, records.length * 2);
+            records = Arrays.copyOf(records, capacity);
+            counts = Arrays.copyOf(counts, capacity * MAX_CLASSES);
+        }
+
+        // Moves the run up to leave room for shift buckets before it, plus as many again as the
+        // run is long.
+        private void growFront(int shift) {
+            int newStart = shift + length;
+            int capacity = newStart + records.length - start;
+            int[] newRecords = new int[capacity];
+            int[] newCounts = new int[capacity * MAX_CLASSES];
+            System.arraycopy(records, start, newRecords, newStart, length);
+            System.arraycopy(counts, start * MAX_CLASSES, newCounts, newStart * MAX_CLASSES, length * MAX_CLASSES);
+            records = newRecords;
+            counts = newCounts;
+            start = newStart;
+        }
+    }
+
+    private final TimeZone zone;
+    private final Map<String, Integer> classCodes = new HashMap<>();
+    private final List<String> classNames = new ArrayList<>();
+    private final Map<String, Integer> locationCodes = new HashMap<>();
+    private final List<String> locationNames = new ArrayList<>();
+    // series.get(location)[resolution]
+    private final List<Series[]> series = new ArrayList<>();
+    // Each folded record's contribution, by open addressing on its key.
+    private long[] keys = new long[INITIAL_RECORDS];
+    private boolean[] used = new boolean[INITIAL_RECORDS];
+    private int[] recordLocations = new int[INITIAL_RECORDS];
+    private long[] recordTimes = new long[INITIAL_RECORDS];
+    private int[] recordCounts = new int[INITIAL_RECORDS * MAX_CLASSES];
+    private int recordCount;
+    private final int[] scratch = new int[MAX_CLASSES];
+    private long folds;
+    private long removals;
+
+    SummaryRollups(TimeZone zone) {
+        this.zone = (TimeZone) zone.clone();
+    }
+
+    // Adds a record, replacing whatever the same key added before. summary is the record's
+    // summary as stored (a JSON object of per-class counts), or null while unprocessed. A record
+    // without an upload time (0 or less) is left out, since its buckets would stretch every
+    // trend for that location back to 1970.
+    synchronized void fold(long key, String location, long uploadTime, String summary) {
+        if (uploadTime <= 0) {
+            remove(key);
+            return;
+        }
+        folds++;
+        int slot = find(key);
+        if (slot < 0) {
+            if ((recordCount + 1) * 4 > keys.length * 3) {
+                rehash(keys.length * 2);
+                slot = find(key);
+            }
+            slot = -slot - 1;
+            used[slot] = true;
+            keys[slot] = key;
+            recordCount++;
+        } else {
+            apply(recordLocations[slot], recordTimes[slot], recordCounts, slot * MAX_CLASSES, -1);
+        }
+        parseCounts(summary, scratch);
+        recordLocations[slot] = locationCode(location);
+        recordTimes[slot] = uploadTime;
+        System.arraycopy(scratch, 0, recordCounts, slot * MAX_CLASSES, MAX_CLASSES);
+        apply(recordLocations[slot], uploadTime, recordCounts, slot * MAX_CLASSES, 1);
+    }
+
+    synchronized void remove(long key) {
+        int slot = find(key);
+        if (slot < 0) return;
+        removals++;
+        apply(recordLocations[slot], recordTimes[slot], recordCounts, slot * MAX_CLASSES, -1);
+        deleteSlot(slot);
+        recordCount--;
+    }
+
+    synchronized int size() {
+        return recordCount;
+    }
+
+    // The dense bucket run for a location, or null when nothing was recorded there.
+    synchronized Trend trend(String location, int resolution) {
+        Integer code = locationCodes.get(location);
+        if (code == null) return null;
+        Series s = series.get(code)[resolution];
+        if (s.length == 0) return null;
+        int classes = classNames.size();
+        long[] bucketStarts = new long[s.length];
+        int[][] counts = new int[classes][s.length];
+        for (int i = 0; i < s.length; i++) {
+            bucketStarts[i] = bucketStart(s.firstBucket + i, resolution);
+            for (int c = 0; c < classes; c++) {
+                counts[c][i] = s.counts[(s.start + i) * MAX_CLASSES + c];
+            }
+        }
+        return new Trend(location, resolution, classNames.toArray(new String[0]), bucketStarts, counts,
+                Arrays.copyOfRange(s.records, s.start, s.start + s.length));
+    }
+
+    synchronized String describe() {
+        return "records=" + recordCount + " locations=" + locationNames.size() + " classes=" + classNames
+                + " folds=" + folds + " removals=" + removals;
+    }
+
+    private void apply(int location, long uploadTime, int[] delta, int deltaOffset, int sign) {
+        Series[] perResolution = series.get(location);
+        long local = uploadTime + zone.getOffset(uploadTime);
+        for (int r = 0; r < RESOLUTIONS; r++) {
+            perResolution[r].add(bucketOf(local, r), delta, deltaOffset, sign);
+        }
+    }
+
+    private static long bucketOf(long local, int resolution) {
+        return Math.floorDiv(local + (resolution == WEEK ? WEEK_SHIFT_MS : 0), BUCKET_MS[resolution]);
+    }
+
+    // The instant the bucket's wall-clock start maps to. The offset is looked up at a first guess
+    // of that instant, which only differs from the answer near a change of offset.
+    private long bucketStart(long bucket, int resolution) {
+        long local = bucket * BUCKET_MS[resolution] - (resolution == WEEK ? WEEK_SHIFT_MS : 0);
+        long guess = local - zone.getOffset(local);
+        return local - zone.getOffset(guess);
+    }
+
+    private int locationCode(String location) {
+        Integer code = locationCodes.get(location);
+        if (code == null) {
+            code = locationNames.size();
+            locationCodes.put(location, code);
+            locationNames.add(location);
+            Series[] perResolution = new Series[RESOLUTIONS];
+            for (int r = 0; r < RESOLUTIONS; r++) {
+                perResolution[r] = new Series();
+            }
+            series.add(perResolution);
+        }
+        return code;
+    }
+
+    private void parseCounts(String summary, int[] out) {
+        Arrays.fill(out, 0);
+        if (summary == null || !summary.startsWith("{")) return;
+        try {
+            JSONObject json = new JSONObject(summary);
+            for (Iterator<String> names = json.keys(); names.hasNext(); ) {
+                String name = names.next();
+                Integer code = classCodes.get(name);
+                if (code == null) {
+                    if (classNames.size() == MAX_CLASSES) continue;
+                    code = classNames.size();
+                    classCodes.put(name, code);
+                    classNames.add(name);
+                }
+                out[code] = json.optInt(name);
+            }
+        } catch (JSONException e) {
+            // Not a count summary; the record still counts towards the bucket's record total.
+        }
+    }
+
+    // Slot holding key, or -(insertion slot) - 1.
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (used[slot]) {
+            if (keys[slot] == key) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -slot - 1;
+    }
+
+    // Linear-probing deletion: later entries of the same probe run move back into the hole.
+    private void deleteSlot(int slot) {
+        int mask = keys.length - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (used[next]) {
+            int home = hash(keys[next]) & mask;
+            // Move next into the hole unless its home lies cyclically in (hole, next].
+            boolean stays = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+            if (!stays) {
+                moveSlot(next, hole);
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        used[hole] = false;
+    }
+
+    private void moveSlot(int from, int to) {
+        keys[to] = keys[from];
+        used[to] = true;
+        recordLocations[to] = recordLocations[from];
+        recordTimes[to] = recordTimes[from];
+        System.arraycopy(recordCounts, from * MAX_CLASSES, recordCounts, to * MAX_CLASSES, MAX_CLASSES);
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        boolean[] oldUsed = used;
+        int[] oldLocations = recordLocations;
+        long[] oldTimes = recordTimes;
+        int[] oldCounts = recordCounts;
+        keys = new long[capacity];
+        used = new boolean[capacity];
+        recordLocations = new int[capacity];
+        recordTimes = new long[capacity];
+        recordCounts = new int[capacity * MAX_CLASSES];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (!oldUsed[i]) continue;
+            int slot = -find(oldKeys[i]) - 1;
+            used[slot] = true;
+            keys[slot] = oldKeys[i];
+            recordLocations[slot] = oldLocations[i];
+            recordTimes[slot] = oldTimes[i];
+            System.arraycopy(oldCounts, i * MAX_CLASSES, recordCounts, slot * MAX_CLASSES, MAX_CLASSES);
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
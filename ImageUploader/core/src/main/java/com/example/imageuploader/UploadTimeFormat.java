@@ -0,0 +1,50 @@
+package com.example.imageuploader;
+
+// The inference list's "Uploaded:" time, written into a caller's char buffer so binding a row
+// builds no strings.
+class UploadTimeFormat {
+
+    static final int LENGTH = 19;
+
+    private UploadTimeFormat() {
+    }
+
+    // Writes local epoch millis as "yyyy-MM-dd HH:mm:ss" and returns the char count (LENGTH).
+    // Uses the days-to-civil conversion so no Calendar or formatter is touched per bind.
+    static int format(long localMillis, char[] out, int offset) {
+        long seconds = Math.floorDiv(localMillis, 1000);
+        long days = Math.floorDiv(seconds, 86400);
+        int secondOfDay = (int) (seconds - days * 86400);
+
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+
+        offset = digits(year, 4, out, offset);
+        out[offset++] = '-';
+        offset = digits(month, 2, out, offset);
+        out[offset++] = '-';
+        offset = digits(day, 2, out, offset);
+        out[offset++] = ' ';
+        offset = digits(secondOfDay / 3600, 2, out, offset);
+        out[offset++] = ':';
+        offset = digits(secondOfDay / 60 % 60, 2, out, offset);
+        out[offset++] = ':';
+        digits(secondOfDay % 60, 2, out, offset);
+        return LENGTH;
+    }
+
+    private static int digits(int value, int width, char[] out, int offset) {
+        for (int i = width - 1; i >= 0; i--) {
+            out[offset + i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return offset + width;
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.imageuploader;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InferencePageParserTest {
+
+    private final InferenceRecordStore.Dictionary dictionary = new InferenceRecordStore.Dictionary();
+
+    private InferenceRecordStore.Page parse(String json) throws IOException {
+        return new InferencePageParser(dictionary).parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void parsesRecordsIntoColumns() throws IOException {
+        InferenceRecordStore.Page page = parse("{\"items\": ["
+                + "{\"_id\": \"65f0a1b2c3d4e5f601020304\", \"upload_time\": 1700000000.25, \"location\": \"Depot\","
+                + " \"processed\": true, \"summary\": {\"Garbage\": 2, \"Tilted_Bin\": 0}, \"extra\": [1, 2]},"
+                + "{\"_id\": \"65f0a1b2c3d4e5f601020305\", \"upload_time\": 1700000100, \"location\": \"Gate A\","
+                + " \"processed\": false}"
+                + "], \"cursors\": [\"65f0a1b2c3d4e5f601020305\"], \"total\": 42}");
+
+        assertEquals(2, page.size);
+        assertEquals(42, page.total);
+        assertEquals("65f0a1b2c3d4e5f601020304", page.idHex(0));
+        assertEquals(1_700_000_000_250L, page.uploadTimes[0]);
+        assertEquals("Depot", dictionary.name(page.locations[0]));
+        assertEquals("Gate A", dictionary.name(page.locations[1]));
+        assertTrue(page.processed[0]);
+        assertFalse(page.processed[1]);
+        JSONObject summary = new JSONObject(page.summaries[0]);
+        assertEquals(2, summary.getInt("Garbage"));
+        assertEquals(0, summary.getInt("Tilted_Bin"));
+        assertNull(page.summaries[1]);
+        assertArrayEquals(new String[]{"65f0a1b2c3d4e5f601020305"}, page.cursors);
+    }
+
+    @Test
+    public void skipsRecordsWithoutAUsableId() throws IOException {
+        InferenceRecordStore.Page page = parse("{\"items\": ["
+                + "{\"upload_time\": 1},"
+                + "{\"_id\": \"short\"},"
+                + "{\"_id\": \"65f0a1b2c3d4e5f601020304\", \"location\": null}"
+                + "]}");
+        assertEquals(1, page.size);
+        assertEquals("Unknown Location", dictionary.name(page.locations[0]));
+        assertEquals(0, page.uploadTimes[0]);
+        assertEquals(-1, page.total);
+        assertEquals(0, page.cursors.length);
+    }
+
+    @Test
+    public void keepsTextSummariesAsIs() throws IOException {
+        InferenceRecordStore.Page page = parse("{\"items\": [{\"_id\": \"65f0a1b2c3d4e5f601020304\","
+                + " \"summary\": \"No objects detected\"}]}");
+        assertEquals("No objects detected", page.summaries[0]);
+    }
+
+    @Test
+    public void growsPastTheInitialCapacity() throws IOException {
+        StringBuilder json = new StringBuilder("{\"items\": [");
+        for (int i = 0; i < 200; i++) {
+            if (i > 0) json.append(',');
+            json.append(String.format("{\"_id\": \"65f0a1b2c3d4e5f60102%04x\", \"upload_time\": %d}", i, i));
+        }
+        InferenceRecordStore.Page page = parse(json.append("]}").toString());
+        assertEquals(200, page.size);
+        assertEquals(String.format("65f0a1b2c3d4e5f60102%04x", 199), page.idHex(199));
+        assertEquals(199_000L, page.uploadTimes[199]);
+    }
+}
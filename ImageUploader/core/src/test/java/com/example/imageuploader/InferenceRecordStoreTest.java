@@ -0,0 +1,111 @@
+package com.example.imageuploader;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InferenceRecordStoreTest {
+
+    private static final String FIRST = "65f0a1b2c3d4e5f601020304";
+    private static final String SECOND = "65f0a1b2c3d4e5f601020305";
+    private static final String THIRD = "65f0a1b2c3d4e5f6010203ff";
+
+    private static InferenceRecordStore.Page page(InferenceRecordStore.Dictionary dictionary, String... ids) {
+        byte[] packed = new byte[ids.length * InferenceRecordStore.ID_BYTES];
+        long[] times = new long[ids.length];
+        int[] locations = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            assertTrue(InferenceRecordStore.parseHex(ids[i], packed, i * InferenceRecordStore.ID_BYTES));
+            times[i] = 1_700_000_000_000L + i;
+            locations[i] = dictionary.intern("Gate " + i);
+        }
+        return new InferenceRecordStore.Page(ids.length, packed, times, locations, new boolean[ids.length],
+                new String[ids.length], new String[0], -1);
+    }
+
+    @Test
+    public void hexRoundTrips() {
+        byte[] bytes = new byte[InferenceRecordStore.ID_BYTES];
+        assertTrue(InferenceRecordStore.parseHex(THIRD, bytes, 0));
+        assertEquals(THIRD, InferenceRecordStore.toHex(bytes, 0));
+    }
+
+    @Test
+    public void rejectsMalformedIds() {
+        byte[] bytes = new byte[InferenceRecordStore.ID_BYTES];
+        assertFalse(InferenceRecordStore.parseHex("65f0a1b2", bytes, 0));
+        assertFalse(InferenceRecordStore.parseHex("zzf0a1b2c3d4e5f601020304", bytes, 0));
+    }
+
+    @Test
+    public void stableIdIsTheLowEightBytes() {
+        byte[] bytes = new byte[InferenceRecordStore.ID_BYTES];
+        InferenceRecordStore.parseHex(FIRST, bytes, 0);
+        assertEquals(0xc3d4e5f601020304L, InferenceRecordStore.stableId(bytes, 0));
+    }
+
+    @Test
+    public void appendKeepsAscendingOrderAndDropsOverlap() {
+        InferenceRecordStore.Dictionary dictionary = new InferenceRecordStore.Dictionary();
+        InferenceRecordStore store = new InferenceRecordStore(dictionary, 1);
+        assertNull(store.lastIdHex());
+
+        assertEquals(2, store.append(page(dictionary, FIRST, SECOND)));
+        // A refetch of the tail plus one new record: only the new one is added.
+        assertEquals(1, store.append(page(dictionary, SECOND, THIRD)));
+        assertEquals(3, store.size());
+        assertEquals(FIRST, store.idHex(0));
+        assertEquals(THIRD, store.lastIdHex());
+        assertEquals("Gate 1", store.location(2));
+        assertEquals(1_700_000_000_001L, store.uploadTime(2));
+    }
+
+    @Test
+    public void sliceSplitsAPageIntoRuns() {
+        InferenceRecordStore.Dictionary dictionary = new InferenceRecordStore.Dictionary();
+        InferenceRecordStore.Page page = page(dictionary, FIRST, SECOND, THIRD);
+
+        InferenceRecordStore.Page tail = page.slice(1, 3);
+        assertEquals(2, tail.size);
+        assertEquals(SECOND, tail.idHex(0));
+        assertEquals(THIRD, tail.idHex(1));
+        assertEquals(1_700_000_000_002L, tail.uploadTimes[1]);
+        assertEquals("Gate 2", dictionary.name(tail.locations[1]));
+        // Past the end is clipped, so the last run of a short response is just shorter.
+        assertEquals(1, page.slice(2, 5).size);
+        assertEquals(0, page.slice(4, 6).size);
+    }
+
+    @Test
+    public void containsIsABinarySearch() {
+        InferenceRecordStore.Dictionary dictionary = new InferenceRecordStore.Dictionary();
+        InferenceRecordStore store = new InferenceRecordStore(dictionary);
+        store.append(page(dictionary, FIRST, THIRD));
+        assertTrue(store.contains(FIRST));
+        assertTrue(store.contains(THIRD));
+        assertFalse(store.contains(SECOND));
+        assertFalse(store.contains(null));
+        assertFalse(store.contains("not an id"));
+    }
+
+    @Test
+    public void comparesAcrossStores() {
+        InferenceRecordStore.Dictionary dictionary = new InferenceRecordStore.Dictionary();
+        InferenceRecordStore a = new InferenceRecordStore(dictionary);
+        InferenceRecordStore b = new InferenceRecordStore(dictionary);
+        a.append(page(dictionary, FIRST, SECOND));
+        b.append(page(dictionary, SECOND));
+        assertTrue(a.sameId(1, b, 0));
+        assertFalse(a.sameId(0, b, 0));
+        // Same id, but b's copy has a different time and location.
+        assertFalse(a.sameContents(1, b, 0));
+
+        byte[] copy = new byte[InferenceRecordStore.ID_BYTES];
+        a.copyId(1, copy, 0);
+        assertEquals(SECOND, InferenceRecordStore.toHex(copy, 0));
+        assertEquals(a.stableId(1), InferenceRecordStore.stableId(copy, 0));
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.imageuploader;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LttbTest {
+
+    private static long[] steps(int n) {
+        long[] x = new long[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = i * 1000L;
+        }
+        return x;
+    }
+
+    @Test
+    public void keepsEverythingAtOrBelowThreshold() {
+        int[] out = new int[5];
+        assertEquals(4, Lttb.downsample(steps(4), new int[]{1, 2, 3, 4}, 4, 5, out));
+        assertArrayEquals(new int[]{0, 1, 2, 3, 0}, out);
+    }
+
+    @Test
+    public void keepsOnlyTheEndsBelowThree() {
+        int[] out = new int[2];
+        assertEquals(2, Lttb.downsample(steps(10), new int[10], 10, 2, out));
+        assertArrayEquals(new int[]{0, 9}, out);
+        assertEquals(1, Lttb.downsample(steps(10), new int[10], 10, 1, out));
+        assertEquals(0, out[0]);
+    }
+
+    @Test
+    public void keepsTheEndsAndAscendingIndices() {
+        int n = 1000;
+        int[] y = new int[n];
+        for (int i = 0; i < n; i++) {
+            y[i] = (int) (100 * Math.sin(i / 20.0));
+        }
+        int[] out = new int[50];
+        assertEquals(50, Lttb.downsample(steps(n), y, n, 50, out));
+        assertEquals(0, out[0]);
+        assertEquals(n - 1, out[49]);
+        for (int k = 1; k < 50; k++) {
+            assertTrue(out[k] > out[k - 1]);
+        }
+    }
+
+    @Test
+    public void keepsASpikeThatDecimationWouldMiss() {
+        int n = 100;
+        int[] y = new int[n];
+        y[37] = 500;
+        int[] out = new int[10];
+        int count = Lttb.downsample(steps(n), y, n, 10, out);
+        boolean kept = false;
+        for (int k = 0; k < count; k++) {
+            kept |= out[k] == 37;
+        }
+        assertTrue(kept);
+    }
+
+    @Test
+    public void honoursLengthShorterThanTheArrays() {
+        int[] out = new int[3];
+        assertEquals(3, Lttb.downsample(steps(100), new int[100], 10, 3, out));
+        assertEquals(9, out[2]);
+    }
+}
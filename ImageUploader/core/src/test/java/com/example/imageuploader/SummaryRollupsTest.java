@@ -0,0 +1,177 @@
+package com.example.imageuploader;
+
+import org.junit.Test;
+
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SummaryRollupsTest {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final long DAY = 24 * HOUR;
+    // Monday 2024-01-01 00:00 UTC.
+    private static final long MONDAY = 1_704_067_200_000L;
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private static int count(SummaryRollups.Trend trend, String name, int bucket) {
+        for (int c = 0; c < trend.classes.length; c++) {
+            if (trend.classes[c].equals(name)) return trend.counts[c][bucket];
+        }
+        return 0;
+    }
+
+    @Test
+    public void foldsIntoHourDayAndWeekBuckets() {
+        SummaryRollups rollups = new SummaryRollups(UTC);
+        rollups.fold(1, "Depot", MONDAY + 30 * 60 * 1000L, "{\"Garbage\": 2}");
+        rollups.fold(2, "Depot", MONDAY + 2 * HOUR, "{\"Garbage\": 1, \"Tilted_Bin\": 3}");
+        rollups.fold(3, "Gate A", MONDAY, "{\"Garbage\": 5}");
+
+        SummaryRollups.Trend hours = rollups.trend("Depot", SummaryRollups.HOUR);
+        assertArrayEquals(new long[]{MONDAY, MONDAY + HOUR, MONDAY + 2 * HOUR}, hours.bucketStarts);
+        assertArrayEquals(new int[]{1, 0, 1}, hours.records);
+        assertEquals(2, count(hours, "Garbage", 0));
+        assertEquals(0, count(hours, "Garbage", 1));
+        assertEquals(3, count(hours, "Tilted_Bin", 2));
+
+        SummaryRollups.Trend days = rollups.trend("Depot", SummaryRollups.DAY);
+        assertArrayEquals(new long[]{MONDAY}, days.bucketStarts);
+        assertEquals(3, count(days, "Garbage", 0));
+
+        // Sunday evening falls in the week that started the Monday before.
+        rollups.fold(4, "Gate A", MONDAY + 6 * DAY + 20 * HOUR, "{\"Garbage\": 1}");
+        SummaryRollups.Trend weeks = rollups.trend("Gate A", SummaryRollups.WEEK);
+        assertArrayEquals(new long[]{MONDAY}, weeks.bucketStarts);
+        assertEquals(6, count(weeks, "Garbage", 0));
+        assertNull(rollups.trend("Harbour", SummaryRollups.DAY));
+    }
+
+    @Test
+    public void refoldReplacesTheEarlierContribution() {
+        SummaryRollups rollups = new SummaryRollups(UTC);
+        rollups.fold(7, "Depot", MONDAY, null);
+        rollups.fold(7, "Depot", MONDAY, "{\"Garbage\": 4}");
+        // Moved to another location and day.
+        rollups.fold(7, "Harbour", MONDAY + DAY, "{\"Garbage\": 1}");
+
+        assertEquals(1, rollups.size());
+        SummaryRollups.Trend depot = rollups.trend("Depot", SummaryRollups.DAY);
+        assertArrayEquals(new int[]{0}, depot.records);
+        assertEquals(0, count(depot, "Garbage", 0));
+        SummaryRollups.Trend harbour = rollups.trend("Harbour", SummaryRollups.DAY);
+        assertArrayEquals(new long[]{MONDAY + DAY}, harbour.bucketStarts);
+        assertEquals(1, count(harbour, "Garbage", 0));
+    }
+
+    @Test
+    public void removeTakesARecordBackOut() {
+        SummaryRollups rollups = new SummaryRollups(UTC);
+        rollups.fold(1, "Depot", MONDAY, "{\"Garbage\": 2}");
+        rollups.fold(2, "Depot", MONDAY, "{\"Garbage\": 3}");
+        rollups.remove(1);
+        rollups.remove(99);
+
+        assertEquals(1, rollups.size());
+        SummaryRollups.Trend days = rollups.trend("Depot", SummaryRollups.DAY);
+        assertArrayEquals(new int[]{1}, days.records);
+        assertEquals(3, count(days, "Garbage", 0));
+    }
+
+    @Test
+    public void earlierBucketsExtendTheRunBackwards() {
+        SummaryRollups rollups = new SummaryRollups(UTC);
+        rollups.fold(1, "Depot", MONDAY + 3 * DAY, "{\"Garbage\": 1}");
+        rollups.fold(2, "Depot", MONDAY, "{\"Garbage\": 2}");
+
+        SummaryRollups.Trend days = rollups.trend("Depot", SummaryRollups.DAY);
+        assertEquals(4, days.size());
+        assertEquals(MONDAY, days.bucketStarts[0]);
+        assertArrayEquals(new int[]{1, 0, 0, 1}, days.records);
+        assertEquals(2, count(days, "Garbage", 0));
+        assertEquals(1, count(days, "Garbage", 3));
+    }
+
+    @Test
+    public void recordsWithoutAnUploadTimeAreLeftOut() {
+        SummaryRollups rollups = new SummaryRollups(UTC);
+        rollups.fold(1, "Depot", MONDAY, "{\"Garbage\": 2}");
+        rollups.fold(2, "Depot", 0, "{\"Garbage\": 5}");
+        rollups.fold(3, "Depot", -HOUR, "{\"Garbage\": 5}");
+        // A record that loses its time takes its earlier contribution with it.
+        rollups.fold(4, "Depot", MONDAY, "{\"Tilted_Bin\": 1}");
+        rollups.fold(4, "Depot", 0, "{\"Tilted_Bin\": 1}");
+
+        assertEquals(1, rollups.size());
+        SummaryRollups.Trend hours = rollups.trend("Depot", SummaryRollups.HOUR);
+        assertArrayEquals(new long[]{MONDAY}, hours.bucketStarts);
+        assertArrayEquals(new int[]{1}, hours.records);
+        assertEquals(2, count(hours, "Garbage", 0));
+        assertEquals(0, count(hours, "Tilted_Bin", 0));
+    }
+
+    @Test
+    public void survivesGrowthAndChurn() {
+        SummaryRollups rollups = new SummaryRollups(UTC);
+        int records = 4800;
+        for (int i = 0; i < records; i++) {
+            rollups.fold(i * 7919L, "Depot", MONDAY + (i % 48) * HOUR, "{\"Garbage\": 1}");
+        }
+        // Removing every other record exercises deletion within long probe runs.
+        for (int i = 0; i < records; i += 2) {
+            rollups.remove(i * 7919L);
+        }
+        for (int i = 1; i < records; i += 2) {
+            rollups.fold(i * 7919L, "Depot", MONDAY + (i % 48) * HOUR, "{\"Garbage\": 2}");
+        }
+
+        assertEquals(records / 2, rollups.size());
+        SummaryRollups.Trend days = rollups.trend("Depot", SummaryRollups.DAY);
+        assertArrayEquals(new int[]{records / 4, records / 4}, days.records);
+        assertEquals(records / 2, count(days, "Garbage", 0));
+        assertEquals(records / 2, count(days, "Garbage", 1));
+    }
+
+    @Test
+    public void newestFirstSyncKeepsEveryBucket() {
+        SummaryRollups rollups = new SummaryRollups(UTC);
+        int hours = 2000;
+        for (int i = hours - 1; i >= 0; i--) {
+            rollups.fold(i, "Depot", MONDAY + i * HOUR, "{\"Garbage\": " + (i % 5) + "}");
+        }
+
+        SummaryRollups.Trend trend = rollups.trend("Depot", SummaryRollups.HOUR);
+        assertEquals(hours, trend.size());
+        assertEquals(MONDAY, trend.bucketStarts[0]);
+        assertEquals(MONDAY + (hours - 1) * HOUR, trend.bucketStarts[hours - 1]);
+        for (int i = 0; i < hours; i++) {
+            assertEquals(1, trend.records[i]);
+            assertEquals(i % 5, count(trend, "Garbage", i));
+        }
+    }
+
+    @Test
+    public void bucketsFollowTheZoneOffset() {
+        // UTC+2: 23:00 UTC on Monday is already Tuesday locally.
+        SummaryRollups rollups = new SummaryRollups(TimeZone.getTimeZone("GMT+02:00"));
+        rollups.fold(1, "Depot", MONDAY + 23 * HOUR, "{\"Garbage\": 1}");
+        SummaryRollups.Trend days = rollups.trend("Depot", SummaryRollups.DAY);
+        assertArrayEquals(new long[]{MONDAY + DAY - 2 * HOUR}, days.bucketStarts);
+    }
+
+    @Test
+    public void daysStayAlignedAcrossDaylightSaving() {
+        // Berlin moves from UTC+1 to UTC+2 at 01:00 UTC on 2024-03-31.
+        SummaryRollups rollups = new SummaryRollups(TimeZone.getTimeZone("Europe/Berlin"));
+        long march30 = 1_711_753_200_000L; // 2024-03-30 00:00 local, 23:00 UTC the day before.
+        rollups.fold(1, "Depot", march30 + 12 * HOUR, "{\"Garbage\": 1}");
+        // 00:30 on April 1 locally, which a fixed UTC+1 offset would put on March 31.
+        rollups.fold(2, "Depot", march30 + 2 * DAY - HOUR + 30 * 60 * 1000L, "{\"Garbage\": 1}");
+
+        SummaryRollups.Trend days = rollups.trend("Depot", SummaryRollups.DAY);
+        assertArrayEquals(new long[]{march30, march30 + DAY, march30 + 2 * DAY - HOUR}, days.bucketStarts);
+        assertArrayEquals(new int[]{1, 0, 1}, days.records);
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.imageuploader;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+public class UploadTimeFormatTest {
+
+    private static String format(long millis) {
+        char[] out = new char[4 + UploadTimeFormat.LENGTH];
+        out[0] = 'x';
+        int length = UploadTimeFormat.format(millis, out, 4);
+        assertEquals(UploadTimeFormat.LENGTH, length);
+        return new String(out, 4, length);
+    }
+
+    @Test
+    public void writesCalendarFields() {
+        assertEquals("1970-01-01 00:00:00", format(0));
+        // Monday 2024-01-01 00:00 UTC, and a leap day.
+        assertEquals("2024-01-01 00:00:00", format(1_704_067_200_000L));
+        assertEquals("2024-02-29 23:59:59", format(1_709_251_199_999L));
+        assertEquals("1969-12-31 23:59:59", format(-1));
+    }
+
+    @Test
+    public void matchesSimpleDateFormat() {
+        SimpleDateFormat expected = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+        expected.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            long millis = 1_500_000_000_000L + (long) (random.nextDouble() * 400_000_000_000L);
+            assertEquals(expected.format(millis), format(millis));
+        }
+    }
+}
@@ -21,4 +21,6 @@ dependencyResolutionManagement {
 
 rootProject.name = "ImageUploader"
 include(":app")
+include(":core")
+include(":bench")
  
\ No newline at end of file